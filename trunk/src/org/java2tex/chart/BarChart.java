@@ -0,0 +1,122 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+import java.security.MessageDigest;
+
+/**
+ * A bar chart of one or more series over the same categories. The bars of 
+ * a category stand side by side, one for every series, and grow from zero.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class BarChart extends Chart {
+
+	/** The share of the width of a category that its bars take */
+	private static final double GROUP_SHARE = 0.8;
+	
+	private final String[] categories;
+	
+	/**
+	 * @param caption the caption of the figure
+	 * @param categories the labels of the categories, in the order of the values of the series
+	 */
+	public BarChart(String caption, String[] categories) {
+		
+		super(caption);
+		
+		if (categories == null || categories.length == 0) {
+			throw new IllegalArgumentException("A bar chart needs at least one category!");
+		}
+		this.categories = categories.clone();
+	}
+	
+	@Override
+	double[] getValueRange() {
+		
+		// The bars grow from zero, so zero is always on the axis
+		double min = 0;
+		double max = 0;
+		
+		for (double[] values : seriesValues) {
+			for (int j=0; j < Math.min(values.length, categories.length); j++) {
+				if (values[j] < min) {
+					min = values[j];
+				}
+				if (values[j] > max) {
+					max = values[j];
+				}
+			}
+		}
+		return new double[] {min, max};
+	}
+	
+	@Override
+	void drawXAxis(ChartCanvas c, Plot plot) {
+		
+		double slot = plot.width / categories.length;
+		
+		for (int j=0; j < categories.length; j++) {
+			c.text(plot.x0 + (j + 0.5) * slot, plot.y0, categories[j], ChartCanvas.Anchor.SOUTH, false);
+		}
+	}
+	
+	@Override
+	void drawData(ChartCanvas c, Plot plot) {
+		
+		if (seriesValues.isEmpty()) {
+			return;
+		}
+		
+		double slot = plot.width / categories.length;
+		double barWidth = slot * GROUP_SHARE / seriesValues.size();
+		double zero = plot.y(0);
+		
+		for (int i=0; i < seriesValues.size(); i++) {
+			
+			double[] values = seriesValues.get(i);
+			
+			for (int j=0; j < Math.min(values.length, categories.length); j++) {
+				
+				if (Double.isNaN(values[j])) {
+					continue;
+				}
+				
+				double x = plot.x0 + j * slot + slot * (1 - GROUP_SHARE) / 2 + i * barWidth;
+				double y = plot.y(values[j]);
+				
+				c.fillRect(x, Math.min(zero, y), barWidth, Math.abs(y - zero), getColor(i));
+			}
+		}
+	}
+	
+	@Override
+	void updateDigest(MessageDigest md) {
+		for (String category : categories) {
+			update(md, category);
+		}
+	}
+}
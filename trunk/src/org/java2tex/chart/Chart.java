@@ -0,0 +1,689 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+import org.java2tex.core.CellFormat;
+import org.java2tex.core.LatexGraphics;
+import org.java2tex.core.Utils;
+
+/**
+ * A chart of <CODE>double[]</CODE> series that is a figure of its own. 
+ * It is added to a document like any other figure, with 
+ * <CODE>LatexDocument.addFigure</CODE>, and it is drawn either as PGF/TikZ 
+ * code inside the document, which is the default, or as a PNG image.
+ * <P>
+ * The PNG images are drawn with Java2D on the threads of the chart renderer, 
+ * in parallel, and stored in a cache directory under a hash of everything 
+ * that they show: the series, the labels, the size and the resolution. 
+ * A chart whose data have not changed is not drawn again, not even by 
+ * another run of the application. The PGF code is also kept until the 
+ * hash changes.
+ * <P>
+ * The series are not copied; they must not change until the document is written.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public abstract class Chart extends LatexGraphics {
+
+	private static final Logger log = Logger.getLogger(Chart.class);
+	
+	/** The forms of a chart in the document */
+	public static enum Output {
+		/** PGF/TikZ code, which needs the <tt>tikz</tt> package */
+		PGF, 
+		/** A PNG image, drawn with Java2D */
+		PNG
+	}
+	
+	public static final double DEFAULT_WIDTH_CM = 12;
+	
+	public static final double DEFAULT_HEIGHT_CM = 7;
+	
+	/** The default resolution of the PNG images */
+	public static final int DEFAULT_DPI = 300;
+	
+	/** The colors of the series, in order */
+	private static final int[] PALETTE = {
+		0x1f77b4, 0xff7f0e, 0x2ca02c, 0xd62728, 0x9467bd, 0x8c564b, 0xe377c2, 0x7f7f7f
+	};
+	
+	static final int AXIS_COLOR = 0x000000;
+	
+	static final int GRID_COLOR = 0xdddddd;
+	
+	/** The width of the columns that a line keeps at most four points of, in cm */
+	private static final double COLUMN_CM = 0.01;
+	
+	/** The number of ticks that an axis aims for */
+	private static final int TICKS = 5;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static ExecutorService renderer = null;
+	
+	/** The images that are queued or being drawn, by their hash */
+	private static final ConcurrentHashMap<String, Future<File>> renderings = new ConcurrentHashMap<String, Future<File>>();
+	
+	protected final List<String> seriesNames = new ArrayList<String>();
+	
+	protected final List<double[]> seriesValues = new ArrayList<double[]>();
+	
+	private String xLabel;
+	private String yLabel;
+	
+	private double chartWidth = DEFAULT_WIDTH_CM;
+	private double chartHeight = DEFAULT_HEIGHT_CM;
+	
+	private Output output = Output.PGF;
+	
+	private File cacheDir = new File(System.getProperty("java.io.tmpdir"), "java2tex-charts");
+	
+	private int dpi = DEFAULT_DPI;
+	
+	// THE PGF CODE OF THE LAST HASH
+	private String pgfHash;
+	private String pgfLatex;
+	
+	protected Chart(String caption) {
+		
+		super(null);
+		setCaption(caption);
+	}
+	
+	/**
+	 * @param name the name of the series in the legend or <tt>null</tt> for no legend entry
+	 * @param values the values; <tt>NaN</tt> stands for a missing value
+	 */
+	public void addSeries(String name, double[] values) {
+		
+		if (values == null) {
+			throw new IllegalArgumentException("The values of a series are required!");
+		}
+		
+		seriesNames.add(name);
+		seriesValues.add(values);
+	}
+	
+	//--------------------------------------------------------------------------
+	// DRAWING
+	//--------------------------------------------------------------------------
+	/**
+	 * @return the lowest and the highest value of the vertical axis; 
+	 *         <tt>NaN</tt> if there are no values
+	 */
+	abstract double[] getValueRange();
+	
+	/**
+	 * Draws the ticks and the labels of the horizontal axis.
+	 */
+	abstract void drawXAxis(ChartCanvas c, Plot plot);
+	
+	/**
+	 * Draws the series inside the plot area.
+	 */
+	abstract void drawData(ChartCanvas c, Plot plot);
+	
+	/**
+	 * Subclasses add the settings that change what they draw.
+	 */
+	void updateDigest(MessageDigest md) {
+	}
+	
+	/**
+	 * Draws the whole chart: the grid, the axes, the series, the labels and the legend.
+	 */
+	final void draw(ChartCanvas c) {
+		
+		double[] range = getValueRange();
+		
+		double min = range[0];
+		double max = range[1];
+		if (Double.isNaN(min) || Double.isNaN(max)) {
+			min = 0;
+			max = 1;
+		} else if (min == max) {
+			double margin = min == 0 ? 1 : Math.abs(min) / 10;
+			min -= margin;
+			max += margin;
+		}
+		
+		double step = getStep(min, max);
+		min = Math.floor(min / step) * step;
+		max = Math.ceil(max / step) * step;
+		
+		// Room for the tick labels and the axis labels
+		double left = 1.2 + (yLabel == null ? 0 : 0.5);
+		double bottom = 0.6 + (xLabel == null ? 0 : 0.5);
+		
+		Plot plot = new Plot(left, bottom, chartWidth - left - 0.3, chartHeight - bottom - 0.3, min, max);
+		
+		CellFormat format = CellFormat.fixed(getDecimals(step));
+		
+		long ticks = Math.round((max - min) / step);
+		for (long k=0; k <= ticks; k++) {
+			double tick = min + k * step;
+			double y = plot.y(tick);
+			c.line(plot.x0, y, plot.x1(), y, GRID_COLOR, 0.4);
+			c.text(plot.x0, y, format.format(tick), ChartCanvas.Anchor.WEST, false);
+		}
+		
+		drawXAxis(c, plot);
+		
+		drawData(c, plot);
+		
+		c.line(plot.x0, plot.y0, plot.x1(), plot.y0, AXIS_COLOR, 0.6);
+		c.line(plot.x0, plot.y0, plot.x0, plot.y1(), AXIS_COLOR, 0.6);
+		
+		if (xLabel != null) {
+			c.text(plot.x0 + plot.width / 2, 0, xLabel, ChartCanvas.Anchor.NORTH, false);
+		}
+		if (yLabel != null) {
+			c.text(0, plot.y0 + plot.height / 2, yLabel, ChartCanvas.Anchor.EAST, true);
+		}
+		
+		// The legend, at the top right corner of the plot
+		double y = plot.y1() - 0.3;
+		for (int i=0; i < seriesNames.size(); i++) {
+			if (seriesNames.get(i) != null) {
+				c.fillRect(plot.x1() - 0.35, y - 0.1, 0.25, 0.2, getColor(i));
+				c.text(plot.x1() - 0.4, y, seriesNames.get(i), ChartCanvas.Anchor.WEST, false);
+				y -= 0.4;
+			}
+		}
+	}
+	
+	/**
+	 * Draws the ticks of a numeric horizontal axis that spans from <CODE>min</CODE> to <CODE>max</CODE>.
+	 */
+	static void drawXTicks(ChartCanvas c, Plot plot, double min, double max) {
+		
+		if ( ! (max > min) ) {
+			return;
+		}
+		
+		double step = getStep(min, max);
+		CellFormat format = CellFormat.fixed(getDecimals(step));
+		
+		for (long k = (long) Math.ceil(min / step - 1e-9); k * step <= max + step * 1e-9; k++) {
+			double x = plot.x0 + (k * step - min) / (max - min) * plot.width;
+			c.line(x, plot.y0, x, plot.y0 - 0.1, AXIS_COLOR, 0.6);
+			c.text(x, plot.y0 - 0.1, format.format(k * step), ChartCanvas.Anchor.SOUTH, false);
+		}
+	}
+	
+	/**
+	 * Thins out a line, in place, to the first, lowest, highest and last point 
+	 * of every column that is <CODE>COLUMN_CM</CODE> wide; a tenth of a millimeter 
+	 * is below what the eye can tell apart on paper, so the line looks exactly 
+	 * the same, but a series of a million points turns into a few thousand. 
+	 * A break, i.e. a <tt>NaN</tt> coordinate, is kept as a single point.
+	 * 
+	 * @return the number of the points that are left
+	 */
+	static int reduce(double[] xs, double[] ys, int n) {
+		
+		int size = 0;
+		
+		// The first, lowest, highest and last point of the current column
+		int first = -1;
+		int min = -1;
+		int max = -1;
+		int last = -1;
+		long column = 0;
+		
+		for (int i=0; i <= n; i++) {
+			
+			boolean isBreak = i == n || Double.isNaN(xs[i]) || Double.isNaN(ys[i]);
+			long x = isBreak ? 0 : Math.round(xs[i] / COLUMN_CM);
+			
+			if (first >= 0 && (isBreak || x != column)) {
+				
+				// In the order of the series; the points are read before any of them is overwritten
+				int[] points = {first, Math.min(min, max), Math.max(min, max), last};
+				double[] px = new double[4];
+				double[] py = new double[4];
+				int count = 0;
+				for (int k=0; k < 4; k++) {
+					if (k == 0 || points[k] != points[k - 1]) {
+						px[count] = xs[points[k]];
+						py[count] = ys[points[k]];
+						count++;
+					}
+				}
+				for (int k=0; k < count; k++) {
+					xs[size] = px[k];
+					ys[size] = py[k];
+					size++;
+				}
+				first = -1;
+			}
+			
+			if (i == n) {
+				break;
+			}
+			
+			if (isBreak) {
+				if (size > 0 && ! Double.isNaN(ys[size - 1])) {
+					xs[size] = Double.NaN;
+					ys[size] = Double.NaN;
+					size++;
+				}
+			} else if (first < 0) {
+				first = min = max = last = i;
+				column = x;
+			} else {
+				last = i;
+				if (ys[i] < ys[min]) {
+					min = i;
+				}
+				if (ys[i] > ys[max]) {
+					max = i;
+				}
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return the color of a series
+	 */
+	static int getColor(int series) {
+		return PALETTE[series % PALETTE.length];
+	}
+	
+	/**
+	 * @return a round step, i.e. 1, 2 or 5 times a power of ten, that splits 
+	 *         the range into about <CODE>TICKS</CODE> parts
+	 */
+	static double getStep(double min, double max) {
+		
+		double rough = (max - min) / TICKS;
+		double magnitude = Math.pow(10, Math.floor(Math.log10(rough)));
+		double fraction = rough / magnitude;
+		
+		if (fraction < 1.5) {
+			return magnitude;
+		} else if (fraction < 3.5) {
+			return 2 * magnitude;
+		} else if (fraction < 7.5) {
+			return 5 * magnitude;
+		}
+		return 10 * magnitude;
+	}
+	
+	/**
+	 * @return the decimals that the ticks of a step need
+	 */
+	static int getDecimals(double step) {
+		return (int) Math.max(0, Math.min(CellFormat.MAX_DECIMALS, -Math.floor(Math.log10(step) + 1e-9)));
+	}
+	
+	//--------------------------------------------------------------------------
+	// OUTPUT
+	//--------------------------------------------------------------------------
+	@Override
+	public String getLatex() {
+		
+		if (output == Output.PNG) {
+			if (getImgFile() == null) {
+				prepareImage();
+			}
+			return super.getLatex();
+		}
+		
+		String hash = getHash();
+		
+		if ( ! hash.equals(pgfHash) ) {
+			
+			StringBuilder sB = new StringBuilder(4096);
+			sB.append("\\begin{tikzpicture}\n");
+			draw(new PgfCanvas(sB));
+			sB.append("\\end{tikzpicture}\n");
+			
+			pgfLatex = sB.toString();
+			pgfHash = hash;
+		}
+		return pgfLatex;
+	}
+	
+	@Override
+	public List<String> getRequiredPackages() {
+		return output == Output.PGF ? Collections.singletonList("{tikz}") : Collections.<String>emptyList();
+	}
+	
+	/**
+	 * Queues the drawing of the PNG image, unless it is in the cache already, 
+	 * and points this figure to it.
+	 * 
+	 * @return the image, once it is written, or <tt>null</tt> for PGF output
+	 */
+	@Override
+	public Future<File> prepareImage() {
+		
+		if (output != Output.PNG) {
+			return null;
+		}
+		
+		final String hash = getHash();
+		
+		final File png = new File(cacheDir, hash+".png").getAbsoluteFile();
+		
+		setImgFile(Utils.toLatexPath(png));
+		setWidth(String.format(Locale.ENGLISH, "%.2fcm", chartWidth));
+		
+		if (png.isFile()) {
+			return CompletableFuture.completedFuture(png);
+		}
+		
+		FutureTask<File> rendering = new FutureTask<File>(new Callable<File>() {
+			
+			public File call() throws IOException {
+				try {
+					writePng(png);
+				} finally {
+					renderings.remove(hash);
+				}
+				return png;
+			}
+		});
+		
+		Future<File> queued = renderings.putIfAbsent(hash, rendering);
+		if (queued != null) {
+			return queued;
+		}
+		
+		getRenderer().execute(rendering);
+		
+		return rendering;
+	}
+	
+	/**
+	 * Draws the chart into a PNG image, at the resolution of the chart.
+	 * 
+	 * @param png the image file
+	 * @throws IOException if the image cannot be written
+	 */
+	public void writePng(File png) throws IOException {
+		
+		long start = System.currentTimeMillis();
+		
+		int width = (int) Math.round(chartWidth / 2.54 * dpi);
+		int height = (int) Math.round(chartHeight / 2.54 * dpi);
+		
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, width, height);
+			
+			draw(new Java2DCanvas(g, dpi, chartHeight));
+		} finally {
+			g.dispose();
+		}
+		
+		File dir = png.getAbsoluteFile().getParentFile();
+		if ( ! dir.isDirectory() && ! dir.mkdirs() ) {
+			throw new IOException("Could not create directory: "+dir);
+		}
+		
+		File tmp = File.createTempFile("chart", ".tmp", dir);
+		try {
+			if ( ! ImageIO.write(image, "png", tmp) ) {
+				throw new IOException("No PNG writer is available!");
+			}
+			Utils.publish(tmp, png);
+		} finally {
+			tmp.delete();
+		}
+		
+		log.debug("Drew the chart "+png.getName()+" in "+(System.currentTimeMillis() - start)+" ms");
+	}
+	
+	/**
+	 * @return the SHA-256 hash of everything that the chart shows, in hex
+	 */
+	public String getHash() {
+		
+		MessageDigest md = Utils.newDigest("SHA-256");
+		
+		update(md, getClass().getName());
+		update(md, xLabel);
+		update(md, yLabel);
+		update(md, new double[] {chartWidth, chartHeight, dpi});
+		
+		for (int i=0; i < seriesValues.size(); i++) {
+			update(md, seriesNames.get(i));
+			update(md, seriesValues.get(i));
+		}
+		
+		updateDigest(md);
+		
+		return Utils.toHex(md.digest());
+	}
+	
+	static void update(MessageDigest md, String s) {
+		if (s == null) {
+			md.update((byte) 0);
+		} else {
+			md.update((byte) 1);
+			md.update(s.getBytes(UTF8));
+			md.update((byte) 0);
+		}
+	}
+	
+	static void update(MessageDigest md, double[] values) {
+		
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		
+		buffer.putInt(values.length);
+		for (double value : values) {
+			if (buffer.remaining() < 8) {
+				md.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putDouble(value);
+		}
+		md.update(buffer.array(), 0, buffer.position());
+	}
+	
+	private static synchronized ExecutorService getRenderer() {
+		
+		if (renderer == null) {
+			renderer = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), Utils.daemonThreads("java2tex-charts-"));
+		}
+		return renderer;
+	}
+	
+	//--------------------------------------------------------------------------
+	// GETTERS + SETTERS
+	//--------------------------------------------------------------------------
+	/**
+	 * @return the label of the horizontal axis
+	 */
+	public String getXLabel() {
+		return xLabel;
+	}
+
+	/**
+	 * @param xLabel the label of the horizontal axis or <tt>null</tt>
+	 */
+	public void setXLabel(String xLabel) {
+		this.xLabel = xLabel;
+	}
+
+	/**
+	 * @return the label of the vertical axis
+	 */
+	public String getYLabel() {
+		return yLabel;
+	}
+
+	/**
+	 * @param yLabel the label of the vertical axis or <tt>null</tt>
+	 */
+	public void setYLabel(String yLabel) {
+		this.yLabel = yLabel;
+	}
+
+	/**
+	 * @return the width of the chart, in cm
+	 */
+	public double getChartWidth() {
+		return chartWidth;
+	}
+
+	/**
+	 * @return the height of the chart, in cm
+	 */
+	public double getChartHeight() {
+		return chartHeight;
+	}
+	
+	/**
+	 * @param chartWidth the width of the chart, in cm
+	 * @param chartHeight the height of the chart, in cm
+	 */
+	public void setChartSize(double chartWidth, double chartHeight) {
+		
+		if ( ! (chartWidth > 2 && chartHeight > 2) ) {
+			throw new IllegalArgumentException("A chart must be larger than 2cm x 2cm! Found: "+chartWidth+" x "+chartHeight);
+		}
+		this.chartWidth = chartWidth;
+		this.chartHeight = chartHeight;
+	}
+
+	/**
+	 * @return the form of the chart in the document
+	 */
+	public Output getOutput() {
+		return output;
+	}
+
+	/**
+	 * @param output the form of the chart in the document
+	 */
+	public void setOutput(Output output) {
+		this.output = output;
+	}
+
+	/**
+	 * @return the directory of the PNG images
+	 */
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * @param cacheDir the directory of the PNG images; by default, <tt>java2tex-charts</tt> in the temporary directory
+	 */
+	public void setCacheDir(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * @return the resolution of the PNG images
+	 */
+	public int getDpi() {
+		return dpi;
+	}
+
+	/**
+	 * @param dpi the resolution of the PNG images
+	 */
+	public void setDpi(int dpi) {
+		
+		if (dpi < 1) {
+			throw new IllegalArgumentException("The resolution must be positive! Found: "+dpi);
+		}
+		this.dpi = dpi;
+	}
+	
+	/**
+	 * The plot area of a chart, in cm, and the scale of its vertical axis.
+	 */
+	static final class Plot {
+		
+		final double x0;
+		final double y0;
+		final double width;
+		final double height;
+		
+		final double min;
+		final double max;
+		
+		Plot(double x0, double y0, double width, double height, double min, double max) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.width = width;
+			this.height = height;
+			this.min = min;
+			this.max = max;
+		}
+		
+		double x1() {
+			return x0 + width;
+		}
+		
+		double y1() {
+			return y0 + height;
+		}
+		
+		/**
+		 * @return the position of a value on the vertical axis
+		 */
+		double y(double value) {
+			return y0 + (value - min) / (max - min) * height;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+/**
+ * The drawing primitives that charts are made of. The coordinates are in 
+ * centimeters, with the origin at the bottom left corner of the chart, 
+ * and the colors are <tt>0xRRGGBB</tt> values. The same drawing code 
+ * produces both the PGF/TikZ code and the Java2D image of a chart.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+interface ChartCanvas {
+
+	/** Where a label lies, relative to its point; e.g. <CODE>NORTH</CODE> is above it */
+	enum Anchor {NORTH, SOUTH, EAST, WEST}
+	
+	/**
+	 * @param widthPt the width of the line, in points
+	 */
+	void line(double x1, double y1, double x2, double y2, int color, double widthPt);
+	
+	/**
+	 * Draws the first <CODE>n</CODE> points as one line; a <tt>NaN</tt> coordinate breaks it.
+	 * 
+	 * @param widthPt the width of the line, in points
+	 */
+	void polyline(double[] xs, double[] ys, int n, int color, double widthPt);
+	
+	void fillRect(double x, double y, double width, double height, int color);
+	
+	/**
+	 * @param text the text; it is escaped for LaTeX, if necessary
+	 * @param side the side of the point where the text lies
+	 * @param isVertical <tt>true</tt> if the text reads from the bottom to the top
+	 */
+	void text(double x, double y, String text, Anchor side, boolean isVertical);
+}
@@ -0,0 +1,158 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+import java.security.MessageDigest;
+
+/**
+ * A histogram of the values of a series. The range of the values is split 
+ * into bins of equal width; by default, their number follows Sturges' rule, 
+ * i.e. <tt>1 + log2(n)</tt> for <tt>n</tt> values. <tt>NaN</tt> values are ignored.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class Histogram extends Chart {
+
+	/** The gap between two bars, in cm */
+	private static final double GAP_CM = 0.02;
+	
+	private int bins = 0;
+	
+	/**
+	 * @param caption the caption of the figure
+	 * @param values the values; only the first series of a histogram is drawn
+	 */
+	public Histogram(String caption, double[] values) {
+		
+		super(caption);
+		addSeries(null, values);
+	}
+	
+	/**
+	 * @return the number of bins or <tt>0</tt> for Sturges' rule
+	 */
+	public int getBins() {
+		return bins;
+	}
+
+	/**
+	 * @param bins the number of bins or <tt>0</tt> for Sturges' rule
+	 */
+	public void setBins(int bins) {
+		
+		if (bins < 0) {
+			throw new IllegalArgumentException("The number of bins cannot be negative! Found: "+bins);
+		}
+		this.bins = bins;
+	}
+	
+	@Override
+	double[] getValueRange() {
+		
+		long max = 0;
+		for (long count : getCounts(getDataRange())) {
+			max = Math.max(max, count);
+		}
+		return new double[] {0, max};
+	}
+	
+	@Override
+	void drawXAxis(ChartCanvas c, Plot plot) {
+		
+		double[] range = getDataRange();
+		drawXTicks(c, plot, range[0], range[1]);
+	}
+	
+	@Override
+	void drawData(ChartCanvas c, Plot plot) {
+		
+		double[] range = getDataRange();
+		long[] counts = getCounts(range);
+		
+		double binWidth = plot.width / counts.length;
+		
+		for (int k=0; k < counts.length; k++) {
+			if (counts[k] > 0) {
+				c.fillRect(plot.x0 + k * binWidth + GAP_CM / 2, plot.y0, 
+						Math.max(binWidth - GAP_CM, GAP_CM), plot.y(counts[k]) - plot.y0, getColor(0));
+			}
+		}
+	}
+	
+	@Override
+	void updateDigest(MessageDigest md) {
+		update(md, new double[] {bins});
+	}
+	
+	/**
+	 * @return the lowest and the highest value, or <tt>NaN</tt> if there are no values
+	 */
+	private double[] getDataRange() {
+		
+		double min = Double.NaN;
+		double max = Double.NaN;
+		
+		for (double value : seriesValues.get(0)) {
+			if ( ! (value >= min) && ! Double.isNaN(value) ) {
+				min = value;
+			}
+			if ( ! (value <= max) && ! Double.isNaN(value) ) {
+				max = value;
+			}
+		}
+		return new double[] {min, max};
+	}
+	
+	/**
+	 * Counts the values of every bin in one pass; the highest value belongs to the last bin.
+	 */
+	private long[] getCounts(double[] range) {
+		
+		double[] values = seriesValues.get(0);
+		
+		int n = bins;
+		if (n == 0) {
+			n = 1 + (int) Math.ceil(Math.log(Math.max(1, values.length)) / Math.log(2));
+		}
+		
+		long[] counts = new long[n];
+		
+		if (Double.isNaN(range[0])) {
+			return counts;
+		}
+		
+		double width = (range[1] - range[0]) / n;
+		
+		for (double value : values) {
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			int k = width > 0 ? (int) ((value - range[0]) / width) : 0;
+			counts[Math.min(k, n - 1)]++;
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Draws a chart on a Java2D surface, e.g. the <CODE>Graphics2D</CODE> of a 
+ * <CODE>BufferedImage</CODE>, at a given resolution.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+class Java2DCanvas implements ChartCanvas {
+
+	/** The size of the labels, which is that of <tt>\scriptsize</tt> in an 11pt document */
+	private static final double FONT_SIZE_PT = 8;
+	
+	private final Graphics2D g;
+	
+	/** The pixels in a point and in a centimeter */
+	private final double pxPerPt;
+	private final double pxPerCm;
+	
+	/** The height of the chart, in pixels */
+	private final double heightPx;
+	
+	/** The space around the labels, as in the <tt>inner sep</tt> of TikZ */
+	private final double padding;
+	
+	/**
+	 * @param g the surface
+	 * @param dpi the resolution of the surface
+	 * @param heightCm the height of the chart, in cm
+	 */
+	Java2DCanvas(Graphics2D g, double dpi, double heightCm) {
+		
+		this.g = g;
+		this.pxPerPt = dpi / 72.27;
+		this.pxPerCm = dpi / 2.54;
+		this.heightPx = heightCm * pxPerCm;
+		
+		g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont((float) (FONT_SIZE_PT * pxPerPt)));
+		
+		this.padding = FONT_SIZE_PT * pxPerPt / 3;
+	}
+	
+	public void line(double x1, double y1, double x2, double y2, int color, double widthPt) {
+		
+		setPen(color, widthPt);
+		g.draw(new Line2D.Double(x(x1), y(y1), x(x2), y(y2)));
+	}
+	
+	public void polyline(double[] xs, double[] ys, int n, int color, double widthPt) {
+		
+		setPen(color, widthPt);
+		
+		Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, Math.min(n, 65536));
+		boolean isBroken = true;
+		
+		for (int i=0; i < n; i++) {
+			
+			if (Double.isNaN(xs[i]) || Double.isNaN(ys[i])) {
+				isBroken = true;
+			} else if (isBroken) {
+				path.moveTo(x(xs[i]), y(ys[i]));
+				isBroken = false;
+			} else {
+				path.lineTo(x(xs[i]), y(ys[i]));
+			}
+		}
+		g.draw(path);
+	}
+	
+	public void fillRect(double x, double y, double width, double height, int color) {
+		
+		g.setColor(new Color(color));
+		g.fill(new Rectangle2D.Double(x(x), y(y + height), width * pxPerCm, height * pxPerCm));
+	}
+	
+	public void text(double x, double y, String text, Anchor side, boolean isVertical) {
+		
+		AffineTransform saved = g.getTransform();
+		
+		g.translate(x(x), y(y));
+		
+		if (isVertical) {
+			// The text reads upwards, so the sides of the page turn along with it
+			g.rotate(-Math.PI / 2);
+			switch (side) {
+			case NORTH:
+				side = Anchor.EAST;
+				break;
+			case SOUTH:
+				side = Anchor.WEST;
+				break;
+			case EAST:
+				side = Anchor.SOUTH;
+				break;
+			default:
+				side = Anchor.NORTH;
+			}
+		}
+		
+		FontMetrics fm = g.getFontMetrics();
+		double width = fm.getStringBounds(text, g).getWidth();
+		double ascent = fm.getAscent();
+		double descent = fm.getDescent();
+		
+		double left;
+		double baseline;
+		
+		switch (side) {
+		case NORTH:
+			left = -width / 2;
+			baseline = -padding - descent;
+			break;
+		case SOUTH:
+			left = -width / 2;
+			baseline = padding + ascent;
+			break;
+		case EAST:
+			left = padding;
+			baseline = (ascent - descent) / 2;
+			break;
+		default:
+			left = -padding - width;
+			baseline = (ascent - descent) / 2;
+		}
+		
+		g.setColor(Color.BLACK);
+		g.drawString(text, (float) left, (float) baseline);
+		
+		g.setTransform(saved);
+	}
+	
+	private void setPen(int color, double widthPt) {
+		g.setColor(new Color(color));
+		g.setStroke(new BasicStroke((float) (widthPt * pxPerPt), BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND));
+	}
+	
+	private double x(double cm) {
+		return cm * pxPerCm;
+	}
+	
+	private double y(double cm) {
+		return heightPx - cm * pxPerCm;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+import java.security.MessageDigest;
+
+/**
+ * A line chart of one or more series. The values of a series are plotted 
+ * against their index, or against shared x values, if they are set; 
+ * a <tt>NaN</tt> value leaves a gap in its line.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class LineChart extends Chart {
+
+	/** The width of the lines, in points */
+	private static final double LINE_WIDTH_PT = 1;
+	
+	private double[] xValues;
+	
+	public LineChart(String caption) {
+		super(caption);
+	}
+	
+	/**
+	 * @return the x values of the series or <tt>null</tt> if they are plotted against their index
+	 */
+	public double[] getXValues() {
+		return xValues;
+	}
+
+	/**
+	 * @param xValues the x values of every series, in increasing order, or <tt>null</tt>
+	 */
+	public void setXValues(double[] xValues) {
+		this.xValues = xValues;
+	}
+	
+	@Override
+	double[] getValueRange() {
+		
+		double min = Double.NaN;
+		double max = Double.NaN;
+		
+		for (double[] values : seriesValues) {
+			for (double value : values) {
+				// NaN fails both comparisons, so it never becomes the minimum or the maximum
+				if ( ! (value >= min) && ! Double.isNaN(value) ) {
+					min = value;
+				}
+				if ( ! (value <= max) && ! Double.isNaN(value) ) {
+					max = value;
+				}
+			}
+		}
+		return new double[] {min, max};
+	}
+	
+	@Override
+	void drawXAxis(ChartCanvas c, Plot plot) {
+		
+		double[] range = getXRange();
+		drawXTicks(c, plot, range[0], range[1]);
+	}
+	
+	@Override
+	void drawData(ChartCanvas c, Plot plot) {
+		
+		double[] range = getXRange();
+		double span = range[1] > range[0] ? range[1] - range[0] : 1;
+		
+		for (int i=0; i < seriesValues.size(); i++) {
+			
+			double[] values = seriesValues.get(i);
+			int n = xValues == null ? values.length : Math.min(values.length, xValues.length);
+			
+			double[] xs = new double[n];
+			double[] ys = new double[n];
+			
+			for (int j=0; j < n; j++) {
+				double x = xValues == null ? j : xValues[j];
+				xs[j] = plot.x0 + (x - range[0]) / span * plot.width;
+				ys[j] = plot.y(values[j]);
+			}
+			
+			c.polyline(xs, ys, reduce(xs, ys, n), getColor(i), LINE_WIDTH_PT);
+		}
+	}
+	
+	@Override
+	void updateDigest(MessageDigest md) {
+		if (xValues != null) {
+			update(md, xValues);
+		}
+	}
+	
+	/**
+	 * @return the first and the last x value
+	 */
+	private double[] getXRange() {
+		
+		if (xValues != null && xValues.length > 0) {
+			return new double[] {xValues[0], xValues[xValues.length - 1]};
+		}
+		
+		int n = 0;
+		for (double[] values : seriesValues) {
+			n = Math.max(n, values.length);
+		}
+		return new double[] {0, Math.max(0, n - 1)};
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.chart;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.java2tex.core.LatexEscaper;
+
+/**
+ * Draws a chart as PGF/TikZ code. The coordinates are rounded to a tenth of 
+ * a millimeter, which is below what the eye can tell apart on paper, and 
+ * the points of a line that fall on the previous one are dropped.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+class PgfCanvas implements ChartCanvas {
+
+	/** The coordinates are multiples of 1/RESOLUTION cm */
+	private static final int RESOLUTION = 100;
+	
+	/** The number of coordinates on a line of the LaTeX source */
+	private static final int POINTS_PER_LINE = 8;
+	
+	private final StringBuilder sB;
+	
+	/** The names of the colors that have been defined, by their value */
+	private final Map<Integer, String> colors = new HashMap<Integer, String>();
+	
+	// THE CURRENT PATH OF POLYLINE
+	private int pathLength = 0;
+	private long lastX;
+	private long lastY;
+	
+	PgfCanvas(StringBuilder sB) {
+		this.sB = sB;
+	}
+	
+	public void line(double x1, double y1, double x2, double y2, int color, double widthPt) {
+		
+		String c = getColor(color);
+		
+		sB.append("\\draw[").append(c).append(",line width=").append(widthPt).append("pt] ");
+		appendPoint(Math.round(x1 * RESOLUTION), Math.round(y1 * RESOLUTION));
+		sB.append(" -- ");
+		appendPoint(Math.round(x2 * RESOLUTION), Math.round(y2 * RESOLUTION));
+		sB.append(";\n");
+	}
+	
+	public void polyline(double[] xs, double[] ys, int n, int color, double widthPt) {
+		
+		String c = getColor(color);
+		
+		for (int i=0; i < n; i++) {
+			
+			if (Double.isNaN(xs[i]) || Double.isNaN(ys[i])) {
+				endPath();
+				continue;
+			}
+			
+			long x = Math.round(xs[i] * RESOLUTION);
+			long y = Math.round(ys[i] * RESOLUTION);
+			
+			// Points that fall on the previous one add nothing
+			if (pathLength > 0 && x == lastX && y == lastY) {
+				continue;
+			}
+			
+			if (pathLength == 0) {
+				sB.append("\\draw[").append(c).append(",line width=").append(widthPt).append("pt,line join=round] ");
+			} else if (pathLength % POINTS_PER_LINE == 0) {
+				sB.append(" --\n  ");
+			} else {
+				sB.append(" -- ");
+			}
+			
+			appendPoint(x, y);
+			
+			lastX = x;
+			lastY = y;
+			pathLength++;
+		}
+		endPath();
+	}
+	
+	public void fillRect(double x, double y, double width, double height, int color) {
+		
+		String c = getColor(color);
+		
+		sB.append("\\fill[").append(c).append("] ");
+		appendPoint(Math.round(x * RESOLUTION), Math.round(y * RESOLUTION));
+		sB.append(" rectangle ");
+		appendPoint(Math.round((x + width) * RESOLUTION), Math.round((y + height) * RESOLUTION));
+		sB.append(";\n");
+	}
+	
+	public void text(double x, double y, String text, Anchor side, boolean isVertical) {
+		
+		sB.append("\\node[anchor=").append(getAnchor(side, isVertical)).append(",font=\\scriptsize");
+		if (isVertical) {
+			sB.append(",rotate=90");
+		}
+		sB.append("] at ");
+		appendPoint(Math.round(x * RESOLUTION), Math.round(y * RESOLUTION));
+		sB.append(" {");
+		LatexEscaper.escape(text, sB);
+		sB.append("};\n");
+	}
+	
+	/**
+	 * The anchor of a node is the side of the text that lies on the point, 
+	 * i.e. the opposite of the side of the point where the text lies. 
+	 * A vertical node turns its anchors along with its text.
+	 */
+	private static String getAnchor(Anchor side, boolean isVertical) {
+		
+		switch (side) {
+		case NORTH:
+			return isVertical ? "west" : "south";
+		case SOUTH:
+			return isVertical ? "east" : "north";
+		case EAST:
+			return isVertical ? "north" : "west";
+		default:
+			return isVertical ? "south" : "east";
+		}
+	}
+	
+	private void endPath() {
+		if (pathLength > 0) {
+			sB.append(";\n");
+			pathLength = 0;
+		}
+	}
+	
+	private void appendPoint(long x, long y) {
+		sB.append('(');
+		appendCoordinate(x);
+		sB.append(',');
+		appendCoordinate(y);
+		sB.append(')');
+	}
+	
+	/**
+	 * Appends a multiple of 1/RESOLUTION cm without trailing zeros; TikZ reads bare numbers as cm.
+	 */
+	private void appendCoordinate(long value) {
+		
+		if (value < 0) {
+			sB.append('-');
+			value = -value;
+		}
+		
+		sB.append(value / RESOLUTION);
+		
+		long fraction = value % RESOLUTION;
+		if (fraction != 0) {
+			sB.append('.');
+			if (fraction < 10) {
+				sB.append('0').append(fraction);
+			} else if (fraction % 10 == 0) {
+				sB.append(fraction / 10);
+			} else {
+				sB.append(fraction);
+			}
+		}
+	}
+	
+	private String getColor(int rgb) {
+		
+		String name = colors.get(rgb);
+		
+		if (name == null) {
+			name = "chart"+colors.size();
+			colors.put(rgb, name);
+			sB.append("\\definecolor{").append(name).append("}{HTML}{")
+			  .append(String.format(Locale.ENGLISH, "%06X", rgb & 0xffffff)).append("}\n");
+		}
+		return name;
+	}
+}
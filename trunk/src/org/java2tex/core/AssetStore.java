@@ -0,0 +1,286 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A content-addressed store of the files that documents include, e.g. images.
+ * Every file is stored once, under the SHA-256 hash of its content and its 
+ * extension, no matter how many times, or from where, it is added. Files can 
+ * be added from the file system, from the classpath or from any 
+ * <CODE>InputStream</CODE>; the name that <CODE>add</CODE> returns is what 
+ * the document refers to, e.g. <CODE>new LatexGraphics(store.add(logo))</CODE>.
+ * <P>
+ * The files are staged into the working directory of every job that uses them 
+ * with a hard link, or a symbolic link if the job lives on another file system, 
+ * so thousands of concurrent jobs that share a logo cost no extra I/O. 
+ * Only if neither link can be made is the file copied.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class AssetStore {
+
+	private static final Logger log = Logger.getLogger(AssetStore.class);
+	
+	private final File storeDir;
+	
+	/** The names of the files that have been added, by their path, size and modification time */
+	private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * @param storeDir the directory of the store; it is created if it does not exist
+	 * @throws Java2TeXException if the directory cannot be created
+	 */
+	public AssetStore(File storeDir) throws Java2TeXException {
+		
+		if ( ! storeDir.isDirectory() && ! storeDir.mkdirs() ) {
+			throw new Java2TeXException("Could not create directory: "+storeDir);
+		}
+		this.storeDir = storeDir.getAbsoluteFile();
+	}
+	
+	/**
+	 * Adds a file of the file system. A file that has been added before, 
+	 * and has not changed since, is not read again.
+	 * 
+	 * @param file the file
+	 * @return the name of the file in the store
+	 * @throws Java2TeXException if the file cannot be read
+	 */
+	public String add(File file) throws Java2TeXException {
+		
+		String key = file.getAbsolutePath()+"|"+file.length()+"|"+file.lastModified();
+		
+		String name = names.get(key);
+		if (name != null && contains(name)) {
+			return name;
+		}
+		
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			name = add(in, getExtension(file.getName()));
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not read "+file+": "+ioX.getMessage());
+		} finally {
+			close(in);
+		}
+		
+		names.put(key, name);
+		
+		return name;
+	}
+	
+	/**
+	 * Adds a resource of the classpath, e.g. <tt>org/java2tex/demo/logo.png</tt>.
+	 * 
+	 * @param resource the name of the resource, as in <CODE>ClassLoader.getResource</CODE>
+	 * @return the name of the file in the store
+	 * @throws Java2TeXException if the resource does not exist or cannot be read
+	 */
+	public String addResource(String resource) throws Java2TeXException {
+		
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = AssetStore.class.getClassLoader();
+		}
+		
+		InputStream in = loader.getResourceAsStream(resource);
+		if (in == null) {
+			throw new Java2TeXException("Could not find the resource: "+resource);
+		}
+		
+		try {
+			return add(in, getExtension(resource));
+		} finally {
+			close(in);
+		}
+	}
+	
+	/**
+	 * Adds the content of a stream; the stream is read to its end, but it is not closed.
+	 * 
+	 * @param in the content of the file
+	 * @param extension the extension of the file, e.g. <tt>png</tt>; LaTeX tells the formats apart by it
+	 * @return the name of the file in the store
+	 * @throws Java2TeXException if the stream cannot be read or the file cannot be stored
+	 */
+	public String add(InputStream in, String extension) throws Java2TeXException {
+		
+		MessageDigest md = Utils.newDigest("SHA-256");
+		
+		File tmp = null;
+		try {
+			// The content is hashed while it is written, so it is read only once
+			tmp = File.createTempFile("asset", ".tmp", storeDir);
+			
+			OutputStream out = Files.newOutputStream(tmp.toPath());
+			try {
+				byte[] buffer = new byte[65536];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					md.update(buffer, 0, n);
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+			
+			StringBuilder name = new StringBuilder(Utils.toHex(md.digest()));
+			if (extension != null && extension.length() > 0) {
+				name.append('.').append(extension.toLowerCase(Locale.ENGLISH));
+			}
+			
+			File stored = new File(storeDir, name.toString());
+			
+			if ( ! stored.isFile() ) {
+				Utils.publish(tmp, stored);
+				log.debug("Stored the asset "+name);
+			}
+			
+			return name.toString();
+			
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not store an asset in "+storeDir+": "+ioX.getMessage());
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+	
+	/**
+	 * @param name the name of a file in the store
+	 * @return <tt>true</tt> if the store holds the file
+	 */
+	public boolean contains(String name) {
+		return name.indexOf('/') < 0 && name.indexOf(File.separatorChar) < 0 && getFile(name).isFile();
+	}
+	
+	/**
+	 * @param name the name of a file in the store
+	 * @return the file of the store with that name
+	 */
+	public File getFile(String name) {
+		return new File(storeDir, name);
+	}
+	
+	/**
+	 * @return the directory of the store
+	 */
+	public File getStoreDir() {
+		return storeDir;
+	}
+	
+	/**
+	 * Places a file of the store into a working directory, under its name in the store.
+	 * 
+	 * @param name the name of a file in the store
+	 * @param workDir the working directory of a job
+	 * @throws Java2TeXException if the file cannot be placed
+	 */
+	public void stage(String name, File workDir) throws Java2TeXException {
+		stage(getFile(name), new File(workDir, name));
+	}
+	
+	/**
+	 * Makes <CODE>file</CODE> available as <CODE>target</CODE>: with a hard link, 
+	 * or a symbolic link, or, if neither can be made, a copy. An existing 
+	 * <CODE>target</CODE> is kept, since the names of the staged files 
+	 * are derived from their content.
+	 * 
+	 * @param file the file to stage
+	 * @param target the name of the file in the working directory of a job
+	 * @throws Java2TeXException if the file cannot be staged at all
+	 */
+	public static void stage(File file, File target) throws Java2TeXException {
+		
+		if (target.exists()) {
+			return;
+		}
+		
+		try {
+			Files.createLink(target.toPath(), file.toPath());
+			return;
+		} catch (FileAlreadyExistsException faeX) {
+			// A concurrent job has staged it
+			return;
+		} catch (IOException ioX) {
+			log.debug("Could not link "+target+": "+ioX.getMessage());
+		} catch (UnsupportedOperationException uoX) {
+			log.debug("Hard links are not supported for "+target);
+		}
+		
+		try {
+			Files.createSymbolicLink(target.toPath(), file.getAbsoluteFile().toPath());
+			return;
+		} catch (FileAlreadyExistsException faeX) {
+			return;
+		} catch (IOException ioX) {
+			log.debug("Could not create a symbolic link "+target+": "+ioX.getMessage());
+		} catch (UnsupportedOperationException uoX) {
+			log.debug("Symbolic links are not supported for "+target);
+		}
+		
+		try {
+			Files.copy(file.toPath(), target.toPath());
+		} catch (FileAlreadyExistsException faeX) {
+			return;
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not stage "+file+" into "+target+": "+ioX.getMessage());
+		}
+	}
+	
+	private static String getExtension(String name) {
+		
+		int dot = name.lastIndexOf('.');
+		int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+		
+		return dot > slash ? name.substring(dot + 1) : "";
+	}
+	
+	private static void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException ioX) {
+				log.error(ioX.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,488 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * The format of the numeric cells of a column. A format appends the digits of
+ * a value straight into a <CODE>StringBuilder</CODE>, without creating a 
+ * <CODE>String</CODE> per cell. Instances of this class are immutable, hence 
+ * a single format can be shared by many threads and tables, unlike a 
+ * <CODE>DecimalFormat</CODE>.
+ * <P>
+ * The separators, the currency symbol and the percent sign are taken from the 
+ * <CODE>Locale</CODE> of the format once, when it is created, and they are 
+ * escaped for LaTeX; e.g. a percentage is written as <tt>12.5\%</tt>, a non 
+ * breaking space as <tt>~</tt>. Scientific notation is written as 
+ * <tt>1.25$\times10^{3}$</tt>.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class CellFormat {
+
+	/**
+	 * The kinds of number that a format writes.
+	 */
+	public static enum Style {
+		
+		/** A fixed number of decimals, e.g. <tt>1234.50</tt> */
+		FIXED,
+		
+		/** The value times 100, followed by the percent sign, e.g. <tt>12.5\%</tt> */
+		PERCENT,
+		
+		/** The value with the currency symbol of the locale, e.g. <tt>\$1,234.50</tt> */
+		CURRENCY,
+		
+		/** A mantissa between one and ten times a power of ten, e.g. <tt>1.23$\times10^{3}$</tt> */
+		SCIENTIFIC
+	}
+	
+	/** The largest number of decimals that a format can have */
+	public static final int MAX_DECIMALS = 15;
+	
+	/** The powers of ten that fit in a <CODE>long</CODE> */
+	private static final long[] POWERS_OF_TEN = new long[19];
+	
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i=1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+		}
+	}
+	
+	/** Values below this bound are scaled to a <CODE>long</CODE> exactly enough */
+	private static final double SCALED_LIMIT = 1e15;
+	
+	private final Style style;
+	
+	private final int decimals;
+	
+	private final boolean isGrouping;
+	
+	private final Locale locale;
+	
+	// The symbols of the locale, already escaped for LaTeX
+	private final String decimalSeparator;
+	private final String groupingSeparator;
+	private final int groupingSize;
+	private final String minusSign;
+	private final String prefix;
+	private final String suffix;
+	
+	/**
+	 * A fixed number of decimals, without grouping, as in the <CODE>ROOT</CODE> locale.
+	 * 
+	 * @param decimals the number of decimals, from zero to <CODE>MAX_DECIMALS</CODE>
+	 */
+	public CellFormat(int decimals) {
+		this(Style.FIXED, decimals, false, Locale.ROOT);
+	}
+	
+	/**
+	 * @param style the kind of number
+	 * @param decimals the number of decimals, from zero to <CODE>MAX_DECIMALS</CODE>; 
+	 *        the decimals of the mantissa for <CODE>SCIENTIFIC</CODE>
+	 * @param isGrouping <tt>true</tt> to separate the thousands of the integer part
+	 * @param locale the locale of the separators and the symbols
+	 */
+	public CellFormat(Style style, int decimals, boolean isGrouping, Locale locale) {
+		
+		if (style == null || locale == null) {
+			throw new IllegalArgumentException("The style and the locale of a format are required!");
+		}
+		
+		if (decimals < 0 || decimals > MAX_DECIMALS) {
+			throw new IllegalArgumentException("The decimals must be between 0 and "+MAX_DECIMALS+"! Found: "+decimals);
+		}
+		
+		this.style = style;
+		this.decimals = decimals;
+		this.isGrouping = isGrouping;
+		this.locale = locale;
+		
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+		
+		decimalSeparator = toLatex(String.valueOf(symbols.getDecimalSeparator()));
+		groupingSeparator = toLatex(String.valueOf(symbols.getGroupingSeparator()));
+		minusSign = toLatex(String.valueOf(symbols.getMinusSign()));
+		
+		NumberFormat pattern = null;
+		if (style == Style.PERCENT) {
+			pattern = NumberFormat.getPercentInstance(locale);
+		} else if (style == Style.CURRENCY) {
+			pattern = NumberFormat.getCurrencyInstance(locale);
+		} else {
+			pattern = NumberFormat.getNumberInstance(locale);
+		}
+		
+		if (pattern instanceof DecimalFormat) {
+			DecimalFormat df = (DecimalFormat) pattern;
+			prefix = toLatex(df.getPositivePrefix());
+			suffix = toLatex(df.getPositiveSuffix());
+			groupingSize = df.getGroupingSize() > 0 ? df.getGroupingSize() : 3;
+		} else {
+			prefix = style == Style.CURRENCY ? toLatex(symbols.getCurrencySymbol()) : "";
+			suffix = style == Style.PERCENT ? toLatex(String.valueOf(symbols.getPercent())) : "";
+			groupingSize = 3;
+		}
+	}
+	
+	/**
+	 * @param decimals the number of decimals
+	 * @return a format with a fixed number of decimals
+	 */
+	public static CellFormat fixed(int decimals) {
+		return new CellFormat(decimals);
+	}
+	
+	/**
+	 * @param decimals the number of decimals
+	 * @param locale the locale of the separators
+	 * @return a format with a fixed number of decimals and separated thousands
+	 */
+	public static CellFormat grouped(int decimals, Locale locale) {
+		return new CellFormat(Style.FIXED, decimals, true, locale);
+	}
+	
+	/**
+	 * @param decimals the number of decimals of the percentage
+	 * @param locale the locale of the separators and the percent sign
+	 * @return a format that writes <tt>0.125</tt> as <tt>12.5\%</tt>, for one decimal
+	 */
+	public static CellFormat percent(int decimals, Locale locale) {
+		return new CellFormat(Style.PERCENT, decimals, false, locale);
+	}
+	
+	/**
+	 * @param locale the locale of the currency
+	 * @return a format with the currency symbol, the decimals and the grouping of <CODE>locale</CODE>
+	 */
+	public static CellFormat currency(Locale locale) {
+		
+		int decimals = 2;
+		NumberFormat nf = NumberFormat.getCurrencyInstance(locale);
+		if (nf.getMaximumFractionDigits() <= MAX_DECIMALS) {
+			decimals = nf.getMaximumFractionDigits();
+		}
+		return new CellFormat(Style.CURRENCY, decimals, true, locale);
+	}
+	
+	/**
+	 * @param decimals the number of decimals of the mantissa
+	 * @return a format in scientific notation
+	 */
+	public static CellFormat scientific(int decimals) {
+		return new CellFormat(Style.SCIENTIFIC, decimals, false, Locale.ROOT);
+	}
+	
+	/**
+	 * @param locale
+	 * @return a format just like this one, for another locale
+	 */
+	public CellFormat withLocale(Locale locale) {
+		return new CellFormat(style, decimals, isGrouping, locale);
+	}
+	
+	/**
+	 * Appends <CODE>value</CODE>, rounded half-up to the decimals of this format.
+	 * 
+	 * @param value
+	 * @param out
+	 */
+	public void format(double value, StringBuilder out) {
+		
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append(value);
+			return;
+		}
+		
+		if (style == Style.SCIENTIFIC) {
+			appendScientific(value, out);
+			return;
+		}
+		
+		if (style == Style.PERCENT) {
+			value *= 100;
+		}
+		
+		double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+		
+		if (scaled >= SCALED_LIMIT || isNearTie(scaled)) {
+			// Rare; the digits do not fit in a long, or the product is too 
+			// close to a half unit to round it without the exact value. 
+			// A percentage has been scaled already, just like DecimalFormat does.
+			appendDecimal(new BigDecimal(value), out);
+			return;
+		}
+		
+		long units = Math.round(scaled);
+		
+		if (value < 0 && units != 0) {
+			out.append(minusSign);
+		}
+		
+		out.append(prefix);
+		appendFixed(units, out);
+		out.append(suffix);
+	}
+	
+	/**
+	 * @param value
+	 * @param out
+	 */
+	public void format(long value, StringBuilder out) {
+		
+		if (style == Style.SCIENTIFIC) {
+			appendScientific(value, out);
+			return;
+		}
+		
+		long limit = Long.MAX_VALUE / POWERS_OF_TEN[decimals + (style == Style.PERCENT ? 2 : 0)];
+		
+		if (value > limit || value < -limit) {
+			// Rare; the digits do not fit in a long
+			BigDecimal decimal = BigDecimal.valueOf(value);
+			appendDecimal(style == Style.PERCENT ? decimal.movePointRight(2) : decimal, out);
+			return;
+		}
+		
+		if (value < 0) {
+			out.append(minusSign);
+		}
+		
+		long units = Math.abs(value) * POWERS_OF_TEN[decimals];
+		if (style == Style.PERCENT) {
+			units *= 100;
+		}
+		
+		out.append(prefix);
+		appendFixed(units, out);
+		out.append(suffix);
+	}
+	
+	/**
+	 * A convenience for the tables that hold their cells as text, e.g. the 
+	 * <CODE>SimpleTable</CODE>. Prefer <CODE>format(double, StringBuilder)</CODE> 
+	 * in loops. 
+	 * 
+	 * @param value
+	 * @return the formatted value
+	 */
+	public String format(double value) {
+		
+		StringBuilder sB = new StringBuilder(24);
+		format(value, sB);
+		
+		return sB.toString();
+	}
+	
+	/**
+	 * @return the kind of number of this format
+	 */
+	public Style getStyle() {
+		return style;
+	}
+	
+	/**
+	 * @return the number of decimals
+	 */
+	public int getDecimals() {
+		return decimals;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the thousands of the integer part are separated
+	 */
+	public boolean isGrouping() {
+		return isGrouping;
+	}
+	
+	/**
+	 * @return the locale of the separators and the symbols
+	 */
+	public Locale getLocale() {
+		return locale;
+	}
+	
+	/**
+	 * Appends a non negative number of units, i.e. the value times ten to the decimals.
+	 */
+	private void appendFixed(long units, StringBuilder out) {
+		
+		long power = POWERS_OF_TEN[decimals];
+		
+		appendInteger(units / power, out);
+		
+		if (decimals > 0) {
+			out.append(decimalSeparator);
+			appendPadded(units % power, decimals, out);
+		}
+	}
+	
+	/**
+	 * Appends a non negative integer, with the grouping separators, if any.
+	 */
+	private void appendInteger(long value, StringBuilder out) {
+		
+		if ( ! isGrouping || value < POWERS_OF_TEN[groupingSize] ) {
+			out.append(value);
+			return;
+		}
+		
+		int digits = 1;
+		while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+		
+		for (int i = digits - 1; i >= 0; i--) {
+			out.append((char) ('0' + (value / POWERS_OF_TEN[i]) % 10));
+			if (i > 0 && i % groupingSize == 0) {
+				out.append(groupingSeparator);
+			}
+		}
+	}
+	
+	/**
+	 * The product of a value and a power of ten is off by half an ulp at most;
+	 * within a couple of ulps from a half unit, it cannot tell which way to round.
+	 */
+	private static boolean isNearTie(double scaled) {
+		
+		double fraction = scaled - Math.floor(scaled);
+		
+		return Math.abs(fraction - 0.5) <= 2 * Math.ulp(scaled);
+	}
+	
+	/**
+	 * The slow path, for the values whose digits do not fit in a <CODE>long</CODE>.
+	 * 
+	 * @param value the value, multiplied by 100 already if it is a percentage
+	 */
+	private void appendDecimal(BigDecimal value, StringBuilder out) {
+		
+		BigDecimal rounded = value.setScale(decimals, RoundingMode.HALF_UP);
+		String plain = rounded.abs().toPlainString();
+		
+		if (rounded.signum() < 0) {
+			out.append(minusSign);
+		}
+		out.append(prefix);
+		
+		int point = decimals > 0 ? plain.length() - decimals - 1 : plain.length();
+		
+		for (int i=0; i < point; i++) {
+			out.append(plain.charAt(i));
+			int left = point - i - 1;
+			if (isGrouping && left > 0 && left % groupingSize == 0) {
+				out.append(groupingSeparator);
+			}
+		}
+		
+		if (decimals > 0) {
+			out.append(decimalSeparator);
+			out.append(plain, point + 1, plain.length());
+		}
+		
+		out.append(suffix);
+	}
+	
+	private void appendScientific(double value, StringBuilder out) {
+		
+		if (value < 0) {
+			out.append(minusSign);
+			value = -value;
+		}
+		
+		int exponent = 0;
+		long units = 0;
+		
+		if (value > 0) {
+			
+			exponent = (int) Math.floor(Math.log10(value));
+			
+			// BigDecimal keeps the mantissa exact for the extreme exponents
+			units = new BigDecimal(value).movePointLeft(exponent - decimals)
+				.setScale(0, RoundingMode.HALF_UP).longValue();
+			
+			// The rounding, or the logarithm, may have pushed the mantissa to ten
+			if (units >= 10 * POWERS_OF_TEN[decimals]) {
+				units = (units + 5) / 10;
+				exponent++;
+			} else if (units < POWERS_OF_TEN[decimals]) {
+				units = new BigDecimal(value).movePointLeft(exponent - 1 - decimals)
+					.setScale(0, RoundingMode.HALF_UP).longValue();
+				exponent--;
+			}
+		}
+		
+		appendFixed(units, out);
+		
+		if (exponent != 0) {
+			out.append("$\\times10^{").append(exponent).append("}$");
+		}
+	}
+	
+	/**
+	 * Escapes the LaTeX special characters of a symbol; the non breaking 
+	 * spaces of some locales become ties and thin spaces.
+	 */
+	private static String toLatex(String symbol) {
+		
+		StringBuilder sB = new StringBuilder(symbol.length() + 4);
+		
+		for (int i=0; i < symbol.length(); i++) {
+			char c = symbol.charAt(i);
+			if (c == '\u00a0') {
+				sB.append('~');
+			} else if (c == '\u202f') {
+				sB.append("\\,");
+			} else if (LatexEscaper.isSpecial(c)) {
+				sB.append('\\').append(c);
+			} else {
+				sB.append(c);
+			}
+		}
+		return sB.toString();
+	}
+	
+	/**
+	 * Appends <CODE>value</CODE> with leading zeros, up to <CODE>width</CODE> digits.
+	 */
+	private static void appendPadded(long value, int width, StringBuilder out) {
+		
+		for (int i = width - 1; i > 0 && value < POWERS_OF_TEN[i]; i--) {
+			out.append('0');
+		}
+		out.append(value);
+	}
+}
@@ -83,6 +83,17 @@ public class ColumnMeta {
 	 */
 	private int columnSpan=-1;
 	
+	/**
+	 * The format of the numeric cells of the column, if any
+	 */
+	private CellFormat format=null;
+	
+	/**
+	 * The number of changes of this column; the tables compare it for telling 
+	 * whether their cached LaTeX source is stale
+	 */
+	private int modCount=0;
+	
 	public ColumnMeta(int id) {
 		this.id = id;
 	}
@@ -122,6 +133,7 @@ public class ColumnMeta {
 	 */
 	public void setId(int id) {
 		this.id = id;
+		modCount++;
 	}
 
 	/**
@@ -136,6 +148,7 @@ public class ColumnMeta {
 	 */
 	public void setAlignment(String alignment) {
 		this.alignment = alignment;
+		modCount++;
 	}
 
 	/**
@@ -150,6 +163,7 @@ public class ColumnMeta {
 	 */
 	public void setMaxWidth(int maxCharWidth) {
 		this.maxWidth = maxCharWidth;
+		modCount++;
 	}
 
 	/**
@@ -164,6 +178,7 @@ public class ColumnMeta {
 	 */
 	public void hasLeftSeparator(boolean hasLeftSeparator) {
 		this.hasLeftSeparator = hasLeftSeparator;
+		modCount++;
 	}
 
 	/**
@@ -178,6 +193,7 @@ public class ColumnMeta {
 	 */
 	public void setBackgroundColour(String backgroundColour) {
 		this.backgroundColour = backgroundColour;
+		modCount++;
 	}
 
 	/**
@@ -192,6 +208,7 @@ public class ColumnMeta {
 	 */
 	public void setColumnSpan(int columnSpan) {
 		this.columnSpan = columnSpan;
+		modCount++;
 	}
 
 	/**
@@ -206,6 +223,7 @@ public class ColumnMeta {
 	 */
 	public void setForegroundColor(String foregroundColor) {
 		this.foregroundColor = foregroundColor;
+		modCount++;
 	}
 
 	/**
@@ -220,6 +238,7 @@ public class ColumnMeta {
 	 */
 	public void setHeader(String val) {
 		this.header = val;
+		modCount++;
 	}
 
 	/**
@@ -234,5 +253,28 @@ public class ColumnMeta {
 	 */
 	public void hasRightSeparator(boolean hasRightSeparator) {
 		this.hasRightSeparator = hasRightSeparator;
+		modCount++;
+	}
+
+	/**
+	 * @return the number of changes of this column, through its setters
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * @return the format of the numeric cells or <tt>null</tt>
+	 */
+	public CellFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @param format the format of the numeric cells
+	 */
+	public void setFormat(CellFormat format) {
+		this.format = format;
+		modCount++;
 	}
 }
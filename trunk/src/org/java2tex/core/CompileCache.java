@@ -0,0 +1,357 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An on-disk cache of compiled documents. The key of an entry is the content 
+ * hash of the generated <tt>.tex</tt> file together with the engine and the 
+ * options that compile it; the entry holds the PDF and the list
+ * of every file that the engine read, as recorded in the <tt>.fls</tt> file that
+ * <tt>-recorder</tt> produces. A cached PDF is restored only if all of these 
+ * inputs are unchanged. Files inside the working directory of the job (images, 
+ * included sources) are compared by content hash, while files outside of it 
+ * (the TeX distribution) are compared by size and modification time, which 
+ * is much cheaper and good enough for files that are only touched by upgrades.
+ * The former are recorded relative to the working directory, so that an entry
+ * also matches a job that runs in a different directory, as the jobs of a
+ * <CODE>LatexProcessorPool</CODE> do.
+ * <P>
+ * The total size of the cache is bounded; once it exceeds <CODE>maxBytes</CODE>,
+ * the least recently used entries are evicted.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class CompileCache {
+
+	private static final Logger log = Logger.getLogger(CompileCache.class);
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final String PDF_FILE = "output.pdf";
+	
+	private static final String DEPENDENCIES_FILE = "dependencies";
+	
+	private static final String SOURCE_NAME = "source.tex";
+	
+	private final File cacheDir;
+	
+	private final long maxBytes;
+	
+	/**
+	 * @param cacheDir the directory of the cache; it is created if it does not exist
+	 * @param maxBytes the maximum total size of the cached files
+	 * @throws Java2TeXException if the directory cannot be created
+	 */
+	public CompileCache(File cacheDir, long maxBytes) throws Java2TeXException {
+		
+		if ( ! cacheDir.isDirectory() && ! cacheDir.mkdirs() ) {
+			throw new Java2TeXException("Could not create directory: "+cacheDir);
+		}
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Looks up the compiled form of a <tt>.tex</tt> file and, if all of its inputs
+	 * are unchanged, copies the cached PDF into <CODE>pdfFile</CODE>.
+	 * 
+	 * @param texFile the generated LaTeX source
+	 * @param engine the engine that compiles <CODE>texFile</CODE>
+	 * @param pdfFile the destination of the cached PDF
+	 * @return <tt>true</tt> on a cache hit
+	 */
+	public boolean restore(File texFile, TeXEngine engine, File pdfFile) {
+		
+		try {
+			File entry = new File(cacheDir, getKey(texFile, engine));
+			File cachedPdf = new File(entry, PDF_FILE);
+			File dependencies = new File(entry, DEPENDENCIES_FILE);
+			
+			if ( ! cachedPdf.isFile() || ! dependencies.isFile() ) {
+				return false;
+			}
+			
+			Path workDir = texFile.getAbsoluteFile().toPath().getParent();
+			
+			for (String line : Files.readAllLines(dependencies.toPath(), UTF8)) {
+				
+				String[] fields = line.split("\t");
+				if (fields.length != 2 || ! fields[1].equals(fingerprint(workDir, fields[0]))) {
+					log.debug("Cache miss for "+texFile.getName()+"; changed input: "+fields[0]);
+					return false;
+				}
+			}
+			
+			// A concurrent store may replace the cached PDF; the copy is
+			// taken aside first, so that pdfFile is never left half written
+			copy(cachedPdf, pdfFile);
+			
+			// Mark the entry as recently used
+			dependencies.setLastModified(System.currentTimeMillis());
+			
+			log.debug("Cache hit for "+texFile.getName());
+			return true;
+			
+		} catch (IOException ioX) {
+			// An entry that is being evicted, or a broken one, is just a miss
+			log.warn("Could not read the compile cache: "+ioX.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Stores the PDF of a successful compilation together with the fingerprints 
+	 * of the inputs that are listed in the recorder file.
+	 * 
+	 * @param texFile the generated LaTeX source
+	 * @param engine the engine that compiled <CODE>texFile</CODE>
+	 * @param flsFile the file that <tt>-recorder</tt> wrote
+	 * @param pdfFile the PDF that the engine produced
+	 */
+	public synchronized void store(File texFile, TeXEngine engine, File flsFile, File pdfFile) {
+		
+		try {
+			Path workDir = texFile.getAbsoluteFile().toPath().getParent();
+			
+			// The engine records the directory that it runs in without symbolic links
+			Path[] roots = { workDir.normalize(), workDir.toRealPath() };
+			
+			File entry = new File(cacheDir, getKey(texFile, engine));
+			
+			if ( ! entry.isDirectory() && ! entry.mkdirs() ) {
+				throw new IOException("Could not create directory: "+entry);
+			}
+			
+			File dependencies = File.createTempFile("dependencies", ".tmp", entry);
+			try {
+				Writer out = Files.newBufferedWriter(dependencies.toPath(), UTF8);
+				try {
+					for (Path input : readInputs(flsFile, texFile, roots)) {
+						String path = relativize(input, roots);
+						out.write(path);
+						out.write('\t');
+						out.write(fingerprint(workDir, path));
+						out.write('\n');
+					}
+				} finally {
+					out.close();
+				}
+				
+				copy(pdfFile, new File(entry, PDF_FILE));
+				Utils.publish(dependencies, new File(entry, DEPENDENCIES_FILE));
+				
+			} finally {
+				dependencies.delete();
+			}
+			
+			evict();
+			
+		} catch (IOException ioX) {
+			log.warn("Could not store "+pdfFile+" in the compile cache: "+ioX.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the cacheDir
+	 */
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * @return the maxBytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Deletes the least recently used entries, until the cache fits in <CODE>maxBytes</CODE>.
+	 */
+	private void evict() {
+		
+		File[] entries = cacheDir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		
+		final long[] lastUsed = new long[entries.length];
+		long[] sizes = new long[entries.length];
+		long total = 0;
+		
+		for (int i=0; i < entries.length; i++) {
+			lastUsed[i] = new File(entries[i], DEPENDENCIES_FILE).lastModified();
+			sizes[i] = new File(entries[i], PDF_FILE).length() + new File(entries[i], DEPENDENCIES_FILE).length();
+			total += sizes[i];
+		}
+		
+		if (total <= maxBytes) {
+			return;
+		}
+		
+		Integer[] order = new Integer[entries.length];
+		for (int i=0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(lastUsed[a], lastUsed[b]);
+			}
+		});
+		
+		for (int i=0; i < order.length && total > maxBytes; i++) {
+			
+			File entry = entries[order[i]];
+			
+			new File(entry, DEPENDENCIES_FILE).delete();
+			new File(entry, PDF_FILE).delete();
+			
+			if (entry.delete()) {
+				total -= sizes[order[i]];
+				log.debug("Evicted "+entry.getName()+" from the compile cache");
+			}
+		}
+	}
+	
+	/**
+	 * @return the files that the engine read, except for the source itself and 
+	 *         the files that the engine wrote, e.g. the <tt>.aux</tt> file
+	 */
+	private static List<Path> readInputs(File flsFile, File texFile, Path[] roots) throws IOException {
+		
+		Set<Path> inputs = new LinkedHashSet<Path>();
+		Set<Path> outputs = new LinkedHashSet<Path>();
+		
+		Path pwd = roots[0];
+		
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(flsFile), UTF8));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				
+				if (line.startsWith("PWD ")) {
+					pwd = new File(line.substring(4)).toPath();
+				} else if (line.startsWith("INPUT ")) {
+					inputs.add(pwd.resolve(line.substring(6)).normalize());
+				} else if (line.startsWith("OUTPUT ")) {
+					outputs.add(pwd.resolve(line.substring(7)).normalize());
+				}
+			}
+		} finally {
+			br.close();
+		}
+		
+		inputs.removeAll(outputs);
+		
+		for (Path root : roots) {
+			inputs.remove(root.resolve(texFile.getName()));
+		}
+		return new ArrayList<Path>(inputs);
+	}
+	
+	/**
+	 * @return the path of a file relative to the working directory, if it is 
+	 *         inside of it, or else its absolute path
+	 */
+	private static String relativize(Path input, Path[] roots) {
+		
+		for (Path root : roots) {
+			if (input.startsWith(root)) {
+				return root.relativize(input).toString();
+			}
+		}
+		return input.toString();
+	}
+	
+	/**
+	 * @param path a path relative to the working directory, for a file of the job, 
+	 *        or an absolute path, for a file of the TeX distribution
+	 */
+	private static String fingerprint(Path workDir, String path) throws IOException {
+		
+		File f = new File(path);
+		
+		if (f.isAbsolute()) {
+			return f.isFile() ? f.length() + ":" + f.lastModified() : "-";
+		}
+		
+		f = workDir.resolve(path).toFile();
+		return f.isFile() ? Utils.sha256(f) : "-";
+	}
+	
+	/**
+	 * The same source gives a different PDF under another engine, or another 
+	 * installation of it, hence the command line of the final pass is part of 
+	 * the key. The name of the source is left out of it, as it is for the 
+	 * dependencies.
+	 */
+	private static String getKey(File texFile, TeXEngine engine) throws IOException {
+		
+		MessageDigest md = Utils.newDigest("SHA-256");
+		md.update(Utils.sha256(texFile).getBytes(UTF8));
+		md.update(engine.getClass().getName().getBytes(UTF8));
+		
+		for (String arg : engine.getCommandLine(SOURCE_NAME, false, false, null, null)) {
+			md.update((byte) 0);
+			md.update(arg.getBytes(UTF8));
+		}
+		return Utils.toHex(md.digest());
+	}
+	
+	/**
+	 * Copies a file through a temporary file next to the destination.
+	 */
+	private static void copy(File from, File to) throws IOException {
+		
+		File tmp = File.createTempFile(to.getName(), ".tmp", to.getAbsoluteFile().getParentFile());
+		try {
+			Files.copy(from.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Utils.publish(tmp, to);
+		} finally {
+			tmp.delete();
+		}
+	}
+}
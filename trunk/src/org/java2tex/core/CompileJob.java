@@ -0,0 +1,449 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A single compilation of a LaTeX document. Every job has its own working
+ * directory and its own handle on the engine process, hence it can be 
+ * cancelled without affecting any other job. The LaTeX source must have 
+ * been saved in the working directory before the job is executed.
+ * <P>
+ * The outcome of the job is also available through <CODE>getFuture()</CODE>; 
+ * cancelling that future cancels the job.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class CompileJob {
+
+	private static final Logger log = Logger.getLogger(CompileJob.class);
+	
+	private final LatexDocument doc;
+	
+	private final File workDir;
+	
+	private final TeXEngine engine;
+	
+	private final RerunPlanner planner;
+	
+	private CompileCache compileCache = null;
+	
+	private PreambleFormatCache preambleFormats = null;
+	
+	private volatile Process process = null;
+	
+	private volatile boolean isCancelled = false;
+	
+	private volatile Java2TeXException failure = null;
+	
+	private final CountDownLatch finished = new CountDownLatch(1);
+	
+	private final CompileResult result;
+	
+	private final CompletableFuture<CompileResult> future = new CompletableFuture<CompileResult>() {
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			CompileJob.this.cancel();
+			return super.cancel(mayInterruptIfRunning);
+		}
+	};
+	
+	/**
+	 * @param doc the document to compile
+	 * @param workDir the directory that holds the LaTeX source of the document
+	 * @param teXCommand the name of the engine executable, e.g. <tt>pdflatex</tt>
+	 * @param teXCommandDir the directory of the engine executable or <tt>null</tt>,
+	 *        if the executable is on the <CODE>PATH</CODE>
+	 */
+	public CompileJob(LatexDocument doc, File workDir, String teXCommand, String teXCommandDir) {
+		this(doc, workDir, TeXEngine.forCommand(teXCommand, teXCommandDir), new RerunPlanner());
+	}
+	
+	/**
+	 * @param doc the document to compile
+	 * @param workDir the directory that holds the LaTeX source of the document
+	 * @param engine the engine that compiles the document
+	 * @param planner decides how many passes the document needs
+	 */
+	public CompileJob(LatexDocument doc, File workDir, TeXEngine engine, RerunPlanner planner) {
+		this.doc = doc;
+		this.workDir = workDir;
+		this.engine = engine;
+		this.planner = planner;
+		this.result = new CompileResult(doc.getFilename(), getPdfFile());
+	}
+	
+	/**
+	 * Runs the engine on the document, in the calling thread, as many times 
+	 * as the <CODE>RerunPlanner</CODE> asks for. 
+	 * If the job has been cancelled, nothing is run.
+	 * 
+	 * @throws Java2TeXException
+	 */
+	public void execute() throws Java2TeXException {
+		
+		long start = System.currentTimeMillis();
+		
+		try {
+			if (isCancelled) {
+				return;
+			}
+			
+			String baseName = getBaseName();
+			
+			File texFile = new File(workDir, doc.getFilename());
+			
+			if (compileCache != null && compileCache.restore(texFile, engine, getPdfFile())) {
+				log.info("Restored "+getPdfFile().getName()+" from the compile cache");
+				result.setFromCache(true);
+				return;
+			}
+			
+			if (doc.getPreambleFormat() != null && preambleFormats != null) {
+				try {
+					preambleFormats.prepare(doc, workDir, engine);
+				} catch (Java2TeXException j2tX) {
+					log.warn(j2tX.getMessage()+"; compiling "+doc.getFilename()+" with its full preamble");
+					doc.setPreambleFormat(null);
+					rewrite(texFile);
+				}
+			}
+			
+			String previous = planner.snapshot(workDir, baseName);
+			
+			int exitCode = -1;
+			
+			for (int pass=1; ! isCancelled; pass++) {
+				
+				boolean isDraft = planner.isDraftPass(pass, engine);
+				
+				exitCode = run(isDraft);
+				result.setPasses(pass);
+				
+				if (isCancelled) {
+					break;
+				}
+				
+				String current = planner.snapshot(workDir, baseName);
+				boolean isSettled = current.equals(previous);
+				previous = current;
+				
+				if (isSettled) {
+					log.debug(doc.getFilename()+" settled after "+pass+" pass(es)");
+					if (isDraft && ! isCancelled) {
+						// The auxiliary files are right, but we have no PDF yet
+						exitCode = run(false);
+						result.setPasses(pass + 1);
+					}
+					break;
+				}
+				
+				if (planner.isLastPass(pass)) {
+					log.warn(doc.getFilename()+" did not settle after "+pass+" passes; references may be wrong");
+					break;
+				}
+			}
+			
+			result.setExitCode(exitCode);
+			
+			if (compileCache != null && exitCode == 0 && ! isCancelled) {
+				compileCache.store(texFile, engine, new File(workDir, baseName + ".fls"), getPdfFile());
+			}
+		} catch (Java2TeXException j2tX) {
+			failure = j2tX;
+			throw j2tX;
+		} finally {
+			result.setElapsedMillis(System.currentTimeMillis() - start);
+			finish();
+		}
+	}
+	
+	/**
+	 * Blocks until the job has been executed.
+	 * 
+	 * @throws Java2TeXException if the job failed or the waiting thread was interrupted
+	 */
+	public void waitFor() throws Java2TeXException {
+		
+		try {
+			finished.await();
+		} catch (InterruptedException iX) {
+			Thread.currentThread().interrupt();
+			throw new Java2TeXException("Interrupted while waiting for "+doc.getFilename());
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return the future of this job, which completes when the job is over; 
+	 *         cancelling the future cancels the job
+	 */
+	public CompletableFuture<CompileResult> getFuture() {
+		return future;
+	}
+	
+	/**
+	 * Cancels the job, if it is not over within the given time from now. 
+	 * The time that the job spends in a queue counts against its deadline. 
+	 * The future of a job that misses its deadline completes with a 
+	 * <CODE>TimeoutException</CODE>.
+	 * 
+	 * @param timeout the time that the job is given
+	 * @param unit the unit of <CODE>timeout</CODE>
+	 */
+	public void setDeadline(long timeout, TimeUnit unit) {
+		
+		future.orTimeout(timeout, unit).whenComplete(new BiConsumer<CompileResult, Throwable>() {
+			public void accept(CompileResult r, Throwable t) {
+				if (t instanceof TimeoutException) {
+					log.warn(doc.getFilename()+" missed its deadline; cancelling it");
+					cancel();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Cancels this job. A job that has not started will never run the engine;
+	 * the process of a running job is destroyed, together with every process 
+	 * that the engine has started, e.g. for converting images.
+	 */
+	public void cancel() {
+		
+		isCancelled = true;
+		
+		Process p = process;
+		if ( p != null ) {
+			Iterator<ProcessHandle> children = p.descendants().iterator();
+			while (children.hasNext()) {
+				children.next().destroyForcibly();
+			}
+			p.destroy();
+		}
+	}
+	
+	/**
+	 * Marks the job as finished without running it, e.g. because it was
+	 * rejected or it failed before the engine could start.
+	 * 
+	 * @param failure the reason or <tt>null</tt>
+	 */
+	void abort(Java2TeXException failure) {
+		this.failure = failure;
+		finish();
+	}
+	
+	private void finish() {
+		
+		finished.countDown();
+		
+		if (failure != null) {
+			future.completeExceptionally(failure);
+		} else if (isCancelled) {
+			future.cancel(false);
+		} else {
+			future.complete(result);
+		}
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the job has been executed, aborted, or cancelled before it started
+	 */
+	public boolean isDone() {
+		return finished.getCount() == 0;
+	}
+	
+	/**
+	 * @return the result of the job; it is complete once the job is done
+	 */
+	public CompileResult getResult() {
+		return result;
+	}
+	
+	/**
+	 * @return the compileCache
+	 */
+	public CompileCache getCompileCache() {
+		return compileCache;
+	}
+
+	/**
+	 * @param compileCache the compileCache to set before the job is executed, 
+	 *        or <tt>null</tt> for always running the engine
+	 */
+	public void setCompileCache(CompileCache compileCache) {
+		this.compileCache = compileCache;
+	}
+	
+	/**
+	 * @return the preambleFormats
+	 */
+	public PreambleFormatCache getPreambleFormats() {
+		return preambleFormats;
+	}
+
+	/**
+	 * @param preambleFormats the cache that provides the format of the document,
+	 *        if the document has been saved without its static preamble
+	 */
+	public void setPreambleFormats(PreambleFormatCache preambleFormats) {
+		this.preambleFormats = preambleFormats;
+	}
+	
+	/**
+	 * @return the isCancelled
+	 */
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+	
+	/**
+	 * @return the engine of this job
+	 */
+	public TeXEngine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * @return the document of this job
+	 */
+	public LatexDocument getDocument() {
+		return doc;
+	}
+	
+	/**
+	 * @return the working directory of this job
+	 */
+	public File getWorkDir() {
+		return workDir;
+	}
+	
+	/**
+	 * @return the PDF file that the engine produces for this job
+	 */
+	public File getPdfFile() {
+		return new File(workDir, getBaseName() + ".pdf");
+	}
+	
+	/**
+	 * @return the file name of the document without the <tt>.tex</tt> extension
+	 */
+	private String getBaseName() {
+		
+		String name = doc.getFilename();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		return name;
+	}
+	
+	private void rewrite(File texFile) throws Java2TeXException {
+		try {
+			doc.writeTo(texFile.toPath());
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not save "+texFile+": "+ioX.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the exit code of the engine or <tt>-1</tt>, if it could not run
+	 */
+	private int run(boolean isDraft) {
+		
+		OutputPump pump = engine.newOutputPump(doc.getFilename());
+		
+		try {
+			if (engine.isInProcess()) {
+				int exitCode = engine.runInProcess(workDir, doc.getFilename(), isDraft, pump);
+				pump.copyTo(result);
+				return exitCode;
+			}
+			
+			List<String> args = engine.getCommandLine(doc.getFilename(), isDraft, 
+					compileCache != null, doc.getPreambleFormat(), null);
+			log.debug("Output: \n" + args);
+			
+			ProcessBuilder pb = new ProcessBuilder(args);
+			
+			pb.directory(workDir);
+			
+			String teXCommandDir = engine.getCommandDir();
+			if (teXCommandDir != null) {
+				String os = System.getProperty("os.name");
+				String PATH;
+				if (os.startsWith("Windows")) {
+					PATH = "Path";
+				} else {
+					PATH = "PATH";
+				}
+				log.info(PATH+": "+ pb.environment().get(PATH));
+				pb.environment().put(PATH,
+						pb.environment().get(PATH) + File.pathSeparator + teXCommandDir);				
+				log.info(PATH+": "+ pb.environment().get(PATH));
+			}
+
+			// Save the reference of process object.
+			// To be used for cancellation if needed.
+			process = pb.start();
+			
+			// We may have been cancelled while the process was starting
+			if (isCancelled) {
+				process.destroy();
+			}
+			
+			// Drain both streams, so that the engine never blocks on a full pipe
+			pump.drain(process);
+			
+			int exitCode = process.waitFor();
+			process = null;
+			
+			pump.copyTo(result);
+			
+			return exitCode;
+		} catch (IOException ioX) {
+			log.error(ioX.getMessage());
+		} catch (InterruptedException iX) {
+			Thread.currentThread().interrupt();
+			cancel();
+		}
+		return -1;
+	}
+}
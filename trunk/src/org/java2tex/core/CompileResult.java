@@ -0,0 +1,220 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a <CODE>CompileJob</CODE>.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class CompileResult {
+
+	private final String filename;
+	
+	private final File pdfFile;
+	
+	private int exitCode = -1;
+	
+	private int passes = 0;
+	
+	private boolean isFromCache = false;
+	
+	private long elapsedMillis = 0;
+	
+	private int pageCount = -1;
+	
+	private long outputBytes = -1;
+	
+	private List<String> errors = Collections.emptyList();
+	
+	private List<String> warnings = Collections.emptyList();
+	
+	private List<String> outputTail = Collections.emptyList();
+	
+	public CompileResult(String filename, File pdfFile) {
+		this.filename = filename;
+		this.pdfFile = pdfFile;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the engine exited cleanly, or the PDF came from the compile cache
+	 */
+	public boolean isSuccess() {
+		return isFromCache || exitCode == 0;
+	}
+
+	/**
+	 * @return the file name of the LaTeX source
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @return the pdfFile
+	 */
+	public File getPdfFile() {
+		return pdfFile;
+	}
+
+	/**
+	 * @return the exit code of the last pass of the engine, or <tt>-1</tt> if it did not run
+	 */
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * @param exitCode the exitCode to set
+	 */
+	public void setExitCode(int exitCode) {
+		this.exitCode = exitCode;
+	}
+
+	/**
+	 * @return the number of times that the engine ran
+	 */
+	public int getPasses() {
+		return passes;
+	}
+
+	/**
+	 * @param passes the passes to set
+	 */
+	public void setPasses(int passes) {
+		this.passes = passes;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the PDF was restored from the compile cache
+	 */
+	public boolean isFromCache() {
+		return isFromCache;
+	}
+
+	/**
+	 * @param isFromCache the isFromCache to set
+	 */
+	public void setFromCache(boolean isFromCache) {
+		this.isFromCache = isFromCache;
+	}
+
+	/**
+	 * @return the wall time of the job in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @param elapsedMillis the elapsedMillis to set
+	 */
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	/**
+	 * @return the number of pages, as reported by the engine, or <tt>-1</tt> if it is unknown
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * @param pageCount the pageCount to set
+	 */
+	public void setPageCount(int pageCount) {
+		this.pageCount = pageCount;
+	}
+
+	/**
+	 * @return the size of the PDF, as reported by the engine, or <tt>-1</tt> if it is unknown
+	 */
+	public long getOutputBytes() {
+		return outputBytes;
+	}
+
+	/**
+	 * @param outputBytes the outputBytes to set
+	 */
+	public void setOutputBytes(long outputBytes) {
+		this.outputBytes = outputBytes;
+	}
+
+	/**
+	 * @return the errors of the last pass of the engine
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @param errors the errors to set
+	 */
+	public void setErrors(List<String> errors) {
+		this.errors = errors;
+	}
+
+	/**
+	 * @return the warnings of the last pass of the engine
+	 */
+	public List<String> getWarnings() {
+		return warnings;
+	}
+
+	/**
+	 * @param warnings the warnings to set
+	 */
+	public void setWarnings(List<String> warnings) {
+		this.warnings = warnings;
+	}
+
+	/**
+	 * @return the last lines that the engine wrote in its last pass
+	 */
+	public List<String> getOutputTail() {
+		return outputTail;
+	}
+
+	/**
+	 * @param outputTail the outputTail to set
+	 */
+	public void setOutputTail(List<String> outputTail) {
+		this.outputTail = outputTail;
+	}
+	
+	@Override
+	public String toString() {
+		return filename+": exit code "+exitCode+", "+passes+" pass(es)"
+			+(isFromCache ? " (cached)" : "")+", "+elapsedMillis+" ms"
+			+(pageCount >= 0 ? ", "+pageCount+" page(s), "+outputBytes+" bytes" : "")
+			+", "+errors.size()+" error(s), "+warnings.size()+" warning(s)";
+	}
+}
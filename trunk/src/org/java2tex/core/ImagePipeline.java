@@ -0,0 +1,543 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Prepares the images of <CODE>LatexGraphics</CODE> for inclusion. An image 
+ * that has many more pixels than its printed size needs, at the target 
+ * resolution, is resampled and recompressed; a 20 megapixel photo that prints 
+ * at 5cm and 300 dpi needs less than half a megapixel. The printed size comes 
+ * from the <CODE>width</CODE>, <CODE>height</CODE> and <CODE>scale</CODE> of 
+ * the figure. JPEG images remain JPEG and PNG images remain PNG; other formats 
+ * are included as they are.
+ * <P>
+ * The pipeline can also normalize PNG images. pdfTeX copies the compressed 
+ * data of a PNG image straight into the PDF, but only if the image has no 
+ * alpha channel, no transparency, no gamma, at most 8 bits per sample and 
+ * no interlacing; otherwise it decodes and deflates every pixel again. 
+ * A normalized image is flattened onto white, stripped of its <tt>gAMA</tt> 
+ * chunk and written without interlacing, so pdfTeX takes its fast path.
+ * <P>
+ * The converted images are stored in a cache directory, under a hash of the 
+ * source file (path, size and modification time) and of the target size, 
+ * so every image is converted only once. The conversions run in parallel, 
+ * on the threads of the pipeline: <CODE>submit</CODE> points the figure to 
+ * its converted image right away and returns before the image is written. 
+ * A document with a pipeline submits its figures as they are added and waits 
+ * for them before it writes its body, see <CODE>LatexDocument.setImagePipeline</CODE>.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class ImagePipeline {
+
+	private static final Logger log = Logger.getLogger(ImagePipeline.class);
+	
+	/** The default resolution of the printed images */
+	public static final int DEFAULT_DPI = 300;
+	
+	/** The default quality of the recompressed JPEG images, between 0 and 1 */
+	public static final float DEFAULT_JPEG_QUALITY = 0.85f;
+	
+	/** The default number of conversion threads, one per available processor */
+	public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+	
+	private static final Pattern LENGTH = Pattern.compile(
+			"\\s*([0-9]*\\.?[0-9]+)?\\s*(pt|bp|mm|cm|in|pc|\\\\textwidth|\\\\linewidth|\\\\columnwidth|\\\\textheight)\\s*");
+	
+	private static final AtomicInteger pipelineCount = new AtomicInteger(0);
+	
+	private final File cacheDir;
+	
+	private final ExecutorService executor;
+	
+	/** The conversions that are queued or running, by their key */
+	private final ConcurrentHashMap<String, Future<File>> conversions = new ConcurrentHashMap<String, Future<File>>();
+	
+	private volatile int dpi = DEFAULT_DPI;
+	
+	private volatile float jpegQuality = DEFAULT_JPEG_QUALITY;
+	
+	private volatile boolean isNormalizingPng = false;
+	
+	/**
+	 * @param cacheDir the directory of the converted images; it is created if it does not exist
+	 * @throws Java2TeXException if the directory cannot be created
+	 */
+	public ImagePipeline(File cacheDir) throws Java2TeXException {
+		this(cacheDir, DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * @param cacheDir the directory of the converted images; it is created if it does not exist
+	 * @param poolSize the number of images that are converted concurrently
+	 * @throws Java2TeXException if the directory cannot be created
+	 */
+	public ImagePipeline(File cacheDir, int poolSize) throws Java2TeXException {
+		
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("The pool size must be positive! Found: "+poolSize);
+		}
+		
+		if ( ! cacheDir.isDirectory() && ! cacheDir.mkdirs() ) {
+			throw new Java2TeXException("Could not create directory: "+cacheDir);
+		}
+		
+		this.cacheDir = cacheDir;
+		this.executor = Executors.newFixedThreadPool(poolSize, Utils.daemonThreads("java2tex-images-"+pipelineCount.incrementAndGet()+"-"));
+	}
+	
+	/**
+	 * Points the figure to the image that it should include and, unless that 
+	 * image is already in the cache, queues its conversion. Figures whose image 
+	 * is small enough, and normalized if it is a PNG image, unreadable, or of 
+	 * another format than JPEG and PNG, keep their image.
+	 * 
+	 * @param figure the figure; its image file changes if the image is resampled
+	 * @param textArea the text of the document, for figures that are sized relative to it
+	 * @return the image that the figure includes, once it has been written
+	 */
+	public Future<File> submit(LatexGraphics figure, TextArea textArea) {
+		
+		final File source = new File(figure.getImgFile());
+		
+		final String format = getFormat(source);
+		
+		if (format == null || ! source.isFile()) {
+			return CompletableFuture.completedFuture(source);
+		}
+		
+		ImageProbe probe;
+		try {
+			probe = ImageProbe.probe(source);
+		} catch (IOException ioX) {
+			log.error("Could not read the image: "+source);
+			log.error(ioX.getMessage());
+			return CompletableFuture.completedFuture(source);
+		}
+		
+		final boolean isNormalized = isNormalizingPng && "png".equals(format);
+		
+		int[] size = {probe.getWidth(), probe.getHeight()};
+		
+		double factor = getScaleFactor(figure, probe, textArea);
+		
+		final String key;
+		try {
+			if (factor >= 1) {
+				if ( ! isNormalized || ! needsNormalization(source) ) {
+					return CompletableFuture.completedFuture(source);
+				}
+				factor = 1;
+			}
+			
+			key = Utils.sha256(source.getCanonicalPath()+"|"+source.length()+"|"+source.lastModified()
+					+"|"+Math.round(size[0] * factor)+"x"+Math.round(size[1] * factor)
+					+"|"+jpegQuality+"|"+isNormalized);
+		} catch (IOException ioX) {
+			log.error(ioX.getMessage());
+			return CompletableFuture.completedFuture(source);
+		}
+		
+		final int width = Math.max(1, (int) Math.round(size[0] * factor));
+		final int height = Math.max(1, (int) Math.round(size[1] * factor));
+		
+		final File target = new File(cacheDir, key+("jpeg".equals(format) ? ".jpg" : ".png")).getAbsoluteFile();
+		
+		figure.setImgFile(Utils.toLatexPath(target));
+		
+		if (target.isFile()) {
+			return CompletableFuture.completedFuture(target);
+		}
+		
+		FutureTask<File> conversion = new FutureTask<File>(new Callable<File>() {
+			
+			public File call() {
+				try {
+					convert(source, target, format, width, height, isNormalized);
+				} finally {
+					conversions.remove(key);
+				}
+				return target;
+			}
+		});
+		
+		Future<File> queued = conversions.putIfAbsent(key, conversion);
+		if (queued != null) {
+			return queued;
+		}
+		
+		executor.execute(conversion);
+		
+		return conversion;
+	}
+	
+	/**
+	 * Releases the threads of the pipeline; queued conversions are abandoned.
+	 */
+	public void terminate() {
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * @return the directory of the converted images
+	 */
+	public File getCacheDir() {
+		return cacheDir;
+	}
+	
+	/**
+	 * @return the resolution of the printed images, in dots per inch
+	 */
+	public int getDpi() {
+		return dpi;
+	}
+	
+	/**
+	 * @param dpi the resolution of the printed images, in dots per inch
+	 */
+	public void setDpi(int dpi) {
+		
+		if (dpi < 1) {
+			throw new IllegalArgumentException("The resolution must be positive! Found: "+dpi);
+		}
+		this.dpi = dpi;
+	}
+	
+	/**
+	 * @return the quality of the recompressed JPEG images, between 0 and 1
+	 */
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+	
+	/**
+	 * @param jpegQuality the quality of the recompressed JPEG images, between 0 and 1
+	 */
+	public void setJpegQuality(float jpegQuality) {
+		
+		if ( ! (jpegQuality > 0 && jpegQuality <= 1) ) {
+			throw new IllegalArgumentException("The JPEG quality must be in (0, 1]! Found: "+jpegQuality);
+		}
+		this.jpegQuality = jpegQuality;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if PNG images are normalized for the fast path of pdfTeX
+	 */
+	public boolean isNormalizingPng() {
+		return isNormalizingPng;
+	}
+
+	/**
+	 * @param isNormalizingPng <tt>true</tt> if PNG images should be normalized for the fast path of pdfTeX
+	 */
+	public void setNormalizingPng(boolean isNormalizingPng) {
+		this.isNormalizingPng = isNormalizingPng;
+	}
+	
+	/**
+	 * Reads the chunks of a PNG image up to its data and checks whether 
+	 * pdfTeX can copy the data as they are.
+	 * 
+	 * @return <tt>true</tt> if the image has alpha, transparency, gamma, 
+	 *         16 bits per sample or interlacing
+	 */
+	static boolean needsNormalization(File png) throws IOException {
+		
+		RandomAccessFile in = new RandomAccessFile(png, "r");
+		try {
+			// The signature, the length and the type of the IHDR chunk, its width and height
+			in.seek(8 + 8 + 8);
+			
+			int bitDepth = in.readUnsignedByte();
+			int colorType = in.readUnsignedByte();
+			in.skipBytes(2);
+			int interlace = in.readUnsignedByte();
+			
+			// Color types 4 and 6 carry an alpha channel
+			if (bitDepth > 8 || (colorType & 4) != 0 || interlace != 0) {
+				return true;
+			}
+			
+			// The CRC of IHDR
+			long position = in.getFilePointer() + 4;
+			
+			while (position + 8 <= in.length()) {
+				
+				in.seek(position);
+				long length = in.readInt() & 0xffffffffL;
+				int type = in.readInt();
+				
+				if (type == 0x67414d41 || type == 0x74524e53) {
+					// gAMA or tRNS
+					return true;
+				} else if (type == 0x49444154) {
+					// IDAT; the chunks that matter come before the data
+					return false;
+				}
+				position += 12 + length;
+			}
+			return false;
+			
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * @return the ratio of the pixels that the printed image needs to the 
+	 *         pixels of the image; values below 1 call for resampling
+	 */
+	double getScaleFactor(LatexGraphics figure, ImageProbe probe, TextArea textArea) {
+		
+		double widthIn = toInches(figure.getWidth(), textArea);
+		double heightIn = toInches(figure.getHeight(), textArea);
+		
+		double scale = 1;
+		if (figure.getScale() != null) {
+			try {
+				scale = Double.parseDouble(figure.getScale().trim());
+			} catch (NumberFormatException nfX) {
+				return 1;
+			}
+		}
+		
+		if (widthIn < 0 && heightIn < 0) {
+			// The natural size of the image, at its own resolution or the one that pdfTeX assumes
+			return scale * dpi * probe.getWidthInches(LatexGraphics.DEFAULT_DPI) / probe.getWidth();
+		}
+		
+		// If both are given, the image is stretched; neither side may lose resolution
+		double factor = 0;
+		if (widthIn > 0) {
+			factor = Math.max(factor, widthIn * dpi / probe.getWidth());
+		}
+		if (heightIn > 0) {
+			factor = Math.max(factor, heightIn * dpi / probe.getHeight());
+		}
+		return factor * scale;
+	}
+	
+	/**
+	 * @param length a LaTeX length, e.g. <tt>5cm</tt> or <tt>0.5\textwidth</tt>
+	 * @param textArea the text that relative lengths refer to
+	 * @return the length in inches or <tt>-1</tt> if it is missing or not understood
+	 */
+	private static double toInches(String length, TextArea textArea) {
+		
+		if (length == null) {
+			return -1;
+		}
+		
+		Matcher m = LENGTH.matcher(length);
+		if ( ! m.matches() ) {
+			return -1;
+		}
+		
+		double value = m.group(1) == null ? 1 : Double.parseDouble(m.group(1));
+		String unit = m.group(2);
+		
+		if ("pt".equals(unit)) {
+			return value / 72.27;
+		} else if ("bp".equals(unit)) {
+			return value / 72;
+		} else if ("mm".equals(unit)) {
+			return value / 25.4;
+		} else if ("cm".equals(unit)) {
+			return value / 2.54;
+		} else if ("in".equals(unit)) {
+			return value;
+		} else if ("pc".equals(unit)) {
+			return value * 12 / 72.27;
+		} else if ("\\textheight".equals(unit)) {
+			return value * textArea.getHeight() / 2.54;
+		}
+		return value * textArea.getWidth() / 2.54;
+	}
+	
+	/**
+	 * @return <tt>jpeg</tt>, <tt>png</tt> or <tt>null</tt> for the formats that are not converted
+	 */
+	private static String getFormat(File f) {
+		
+		String name = f.getName().toLowerCase(Locale.ENGLISH);
+		
+		if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+			return "jpeg";
+		} else if (name.endsWith(".png")) {
+			return "png";
+		}
+		return null;
+	}
+	
+	/**
+	 * Writes the resampled, or normalized, image into <CODE>target</CODE>. If that 
+	 * fails, the source is copied instead, so that the document can still include it.
+	 */
+	private void convert(File source, File target, String format, int width, int height, boolean isNormalized) {
+		
+		long start = System.currentTimeMillis();
+		
+		// The image is published only once it is complete
+		File tmp = new File(cacheDir, target.getName()+"."+Thread.currentThread().getId()+".tmp");
+		
+		try {
+			BufferedImage image = ImageIO.read(source);
+			if (image == null) {
+				throw new IOException("Unsupported image: "+source);
+			}
+			
+			// JPEG has no alpha and normalized images lose theirs
+			int type;
+			if ("png".equals(format) && ! isNormalized && image.getColorModel().hasAlpha()) {
+				type = BufferedImage.TYPE_INT_ARGB;
+			} else if (image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+				type = BufferedImage.TYPE_BYTE_GRAY;
+			} else {
+				type = BufferedImage.TYPE_INT_RGB;
+			}
+			
+			BufferedImage resampled = resample(image, width, height, type);
+			
+			if ("jpeg".equals(format)) {
+				writeJpeg(resampled, tmp);
+			} else if ( ! ImageIO.write(resampled, "png", tmp) ) {
+				throw new IOException("No PNG writer is available!");
+			}
+			
+			Utils.publish(tmp, target);
+			
+			log.debug("Resampled "+source+" from "+image.getWidth()+"x"+image.getHeight()
+					+" to "+width+"x"+height+" in "+(System.currentTimeMillis() - start)+" ms");
+			
+		} catch (IOException ioX) {
+			
+			log.error("FAILED TO RESAMPLE AN IMAGE: "+source);
+			log.error(ioX.getMessage());
+			
+			try {
+				Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				Utils.publish(tmp, target);
+			} catch (IOException copyX) {
+				log.error(copyX.getMessage());
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+	
+	/**
+	 * Halves the image until the next step reaches the target size. Bilinear 
+	 * steps of at most 2:1 use every source pixel, so fine detail is averaged 
+	 * rather than aliased, at a fraction of the cost of a bicubic filter.
+	 * An image that keeps its size is drawn once, into the new type.
+	 */
+	private static BufferedImage resample(BufferedImage image, int width, int height, int type) {
+		
+		boolean hasAlpha = type == BufferedImage.TYPE_INT_ARGB;
+		
+		BufferedImage current = image;
+		int w = image.getWidth();
+		int h = image.getHeight();
+		
+		do {
+			w = Math.max(w / 2, width);
+			h = Math.max(h / 2, height);
+			
+			BufferedImage step = new BufferedImage(w, h, type);
+			Graphics2D g = step.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				if ( ! hasAlpha ) {
+					// Transparent pixels are flattened on the white page
+					g.setColor(Color.WHITE);
+					g.fillRect(0, 0, w, h);
+				}
+				g.drawImage(current, 0, 0, w, h, null);
+			} finally {
+				g.dispose();
+			}
+			current = step;
+			
+		} while (w != width || h != height);
+		
+		return current;
+	}
+	
+	private void writeJpeg(BufferedImage image, File f) throws IOException {
+		
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if ( ! writers.hasNext() ) {
+			throw new IOException("No JPEG writer is available!");
+		}
+		
+		ImageWriter writer = writers.next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(f);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(jpegQuality);
+			
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+}
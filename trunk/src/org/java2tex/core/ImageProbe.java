@@ -0,0 +1,286 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the size and the resolution of JPEG and PNG images from their headers, 
+ * i.e. the <tt>SOF</tt> and <tt>JFIF</tt> segments of a JPEG image and the 
+ * <tt>IHDR</tt> and <tt>pHYs</tt> chunks of a PNG image, without decoding 
+ * any pixels. Usually that is the first few hundred bytes of the file.
+ * <P>
+ * The results of the most recently probed files are cached, by the path, 
+ * the size and the modification time of the file.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class ImageProbe {
+
+	/** The number of probed files that are cached */
+	private static final int CACHE_SIZE = 256;
+	
+	private static final Map<String, ImageProbe> cache = new LinkedHashMap<String, ImageProbe>(64, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ImageProbe> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	private final int width;
+	
+	private final int height;
+	
+	private final double dpiX;
+	
+	private final double dpiY;
+	
+	private ImageProbe(int width, int height, double dpiX, double dpiY) {
+		this.width = width;
+		this.height = height;
+		this.dpiX = dpiX;
+		this.dpiY = dpiY;
+	}
+	
+	/**
+	 * @param f a JPEG or PNG image
+	 * @return the size and the resolution of the image
+	 * @throws IOException if the file cannot be read, or it is not a JPEG or PNG image
+	 */
+	public static ImageProbe probe(File f) throws IOException {
+		
+		String key = f.getAbsolutePath()+"|"+f.length()+"|"+f.lastModified();
+		
+		synchronized (cache) {
+			ImageProbe probe = cache.get(key);
+			if (probe != null) {
+				return probe;
+			}
+		}
+		
+		ImageProbe probe;
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 4096));
+		try {
+			int signature = in.readUnsignedShort();
+			
+			if (signature == 0xffd8) {
+				probe = probeJpeg(in);
+			} else if (signature == 0x8950) {
+				probe = probePng(in);
+			} else {
+				throw new IOException("Not a JPEG or PNG image: "+f);
+			}
+		} catch (EOFException eofX) {
+			throw new IOException("Truncated image: "+f);
+		} finally {
+			in.close();
+		}
+		
+		synchronized (cache) {
+			cache.put(key, probe);
+		}
+		return probe;
+	}
+	
+	/**
+	 * Walks the segments up to the first <tt>SOF</tt>, which holds the size of the frame.
+	 */
+	private static ImageProbe probeJpeg(DataInputStream in) throws IOException {
+		
+		double dpiX = 0;
+		double dpiY = 0;
+		
+		while (true) {
+			
+			int marker = in.readUnsignedByte();
+			if (marker != 0xff) {
+				throw new IOException("Corrupt JPEG image; expected a marker");
+			}
+			
+			// Any number of fill bytes may precede a marker
+			do {
+				marker = in.readUnsignedByte();
+			} while (marker == 0xff);
+			
+			// Markers without a segment
+			if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+				continue;
+			}
+			
+			int length = in.readUnsignedShort() - 2;
+			
+			if (marker == 0xe0 && length >= 12) {
+				
+				byte[] app0 = new byte[length];
+				in.readFully(app0);
+				
+				if (app0[0] == 'J' && app0[1] == 'F' && app0[2] == 'I' && app0[3] == 'F' && app0[4] == 0) {
+					
+					int units = app0[7] & 0xff;
+					int densityX = ((app0[8] & 0xff) << 8) | (app0[9] & 0xff);
+					int densityY = ((app0[10] & 0xff) << 8) | (app0[11] & 0xff);
+					
+					// 1 for dots per inch, 2 for dots per cm, 0 for the aspect ratio only
+					if (units == 1) {
+						dpiX = densityX;
+						dpiY = densityY;
+					} else if (units == 2) {
+						dpiX = densityX * 2.54;
+						dpiY = densityY * 2.54;
+					}
+				}
+				
+			} else if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+				
+				// SOF0 to SOF15, except DHT, JPG and DAC: precision, height, width
+				in.readUnsignedByte();
+				int height = in.readUnsignedShort();
+				int width = in.readUnsignedShort();
+				
+				return new ImageProbe(width, height, dpiX, dpiY);
+				
+			} else if (marker == 0xd9 || marker == 0xda) {
+				
+				throw new IOException("Corrupt JPEG image; no frame header before the scan");
+				
+			} else {
+				skip(in, length);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the <tt>IHDR</tt> chunk and the chunks before the data, for <tt>pHYs</tt>.
+	 */
+	private static ImageProbe probePng(DataInputStream in) throws IOException {
+		
+		// The rest of the signature, the length and the type of IHDR
+		skip(in, 6 + 8);
+		
+		int width = in.readInt();
+		int height = in.readInt();
+		
+		// The rest of IHDR and its CRC
+		skip(in, 5 + 4);
+		
+		while (true) {
+			
+			long length = in.readInt() & 0xffffffffL;
+			int type = in.readInt();
+			
+			if (type == 0x70485973 && length == 9) {
+				
+				// pHYs: pixels per unit along x and y, and the unit; 1 is the meter
+				long ppuX = in.readInt() & 0xffffffffL;
+				long ppuY = in.readInt() & 0xffffffffL;
+				int unit = in.readUnsignedByte();
+				
+				if (unit == 1) {
+					return new ImageProbe(width, height, ppuX * 0.0254, ppuY * 0.0254);
+				}
+				skip(in, 4);
+				
+			} else if (type == 0x49444154 || type == 0x49454e44) {
+				
+				// IDAT or IEND; pHYs must come before the data
+				return new ImageProbe(width, height, 0, 0);
+				
+			} else {
+				skip(in, length + 4);
+			}
+		}
+	}
+	
+	private static void skip(DataInputStream in, long n) throws IOException {
+		
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				// skip gives up at the end of the stream, but read tells it apart
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * @return the width of the image, in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height of the image, in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the horizontal resolution of the image, in dots per inch, or <tt>0</tt> if it is not known
+	 */
+	public double getDpiX() {
+		return dpiX;
+	}
+
+	/**
+	 * @return the vertical resolution of the image, in dots per inch, or <tt>0</tt> if it is not known
+	 */
+	public double getDpiY() {
+		return dpiY;
+	}
+	
+	/**
+	 * @param defaultDpi the resolution of images that do not declare one, e.g. <tt>72</tt> for pdfTeX
+	 * @return the width of the image at its natural size, in inches
+	 */
+	public double getWidthInches(double defaultDpi) {
+		return width / (dpiX > 0 ? dpiX : defaultDpi);
+	}
+	
+	/**
+	 * @param defaultDpi the resolution of images that do not declare one, e.g. <tt>72</tt> for pdfTeX
+	 * @return the height of the image at its natural size, in inches
+	 */
+	public double getHeightInches(double defaultDpi) {
+		return height / (dpiY > 0 ? dpiY : defaultDpi);
+	}
+}
@@ -22,8 +22,19 @@
  */
 package org.java2tex.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
@@ -48,6 +59,12 @@ public abstract class LatexDocument {
  */    
 	private static final Logger log = Logger.getLogger( LatexDocument.class );
 	
+	/** 
+	 * The number of characters that are handed to a <CODE>Writer</CODE> at a time.
+	 * It is also the size of the segments that hold the body of the document.
+	 */
+	protected static final int WRITE_CHUNK_SIZE = 8192;
+	
 	/** This is a counter for figures in the document */
 	private int numberOfFigures=0;
 	
@@ -100,7 +117,15 @@ public abstract class LatexDocument {
 	
 	private String notes;
 	
-	private StringBuffer body;
+	private SegmentedText body;
+	
+	/** 
+	 * The tables that are rendered only when the document is written, 
+	 * and the offsets of the body where they belong.
+	 */
+	private List<LatexTable> deferredTables = new ArrayList<LatexTable>();
+	
+	private List<Integer> deferredOffsets = new ArrayList<Integer>();
 	
 	private String filename;
 	
@@ -114,6 +139,27 @@ public abstract class LatexDocument {
 	
 	private List<String> declaredTrueTypeFonts = new ArrayList<String>();
 	
+	/**
+	 * The name of the precompiled format that holds the static preamble,
+	 * or <tt>null</tt> if the document carries its whole preamble.
+	 */
+	private String preambleFormat;
+	
+	/** The size of the text, which figures and tables are sized for */
+	private TextArea textArea = TextArea.DEFAULT;
+	
+	/** If it is not <tt>null</tt>, the images of the figures are prepared by this pipeline */
+	private ImagePipeline imagePipeline;
+	
+	/** The images that must be ready before the body is written */
+	private List<Future<File>> pendingImages = new ArrayList<Future<File>>();
+	
+	/** If it is not <tt>null</tt>, the images of the figures are staged from this store */
+	private AssetStore assetStore;
+	
+	/** The files that are staged into the working directory, by their name there */
+	private Map<String, File> assets = new LinkedHashMap<String, File>();
+	
 	public LatexDocument() {		
 		this("");
 	}
@@ -126,7 +172,7 @@ public abstract class LatexDocument {
 		
 		this.filename = title+".tex";
 		
-		this.body = new StringBuffer();
+		this.body = new SegmentedText(WRITE_CHUNK_SIZE);
 		
 		this.packages = new ArrayList<String>();
 
@@ -187,6 +233,122 @@ public abstract class LatexDocument {
 		body.append(latex);		
 	}
 	
+	/**
+	 * Adds a table whose rows are rendered when the document is written, 
+	 * rather than now. Subclasses use it for streaming tables, whose rows 
+	 * are never held in memory as a whole.
+	 * 
+	 * @param table the table; it must not change until the document is written
+	 */
+	protected void addDeferred(LatexTable table) {
+		deferredOffsets.add(body.length());
+		deferredTables.add(table);
+		body.append("\n");
+	}
+	
+	/**
+	 * Sizes a figure that should fit automatically, loads the packages that it 
+	 * needs, lets it draw its own image, if it has one, and hands its image to 
+	 * the image pipeline and to the asset store, if there are any. Subclasses 
+	 * call it in <CODE>addFigure</CODE>, before they render the figure, because 
+	 * both may point the figure to another image. With an asset store, the 
+	 * figure refers to its image by a name in the working directory, where 
+	 * <CODE>stageAssets</CODE> places the image.
+	 * 
+	 * @param graphics the figure that is being added
+	 */
+	protected void prepareFigure(LatexGraphics graphics) {
+		
+		if (graphics.isAutoFit()) {
+			try {
+				graphics.autoFit(getTextArea());
+			} catch (Java2TeXException j2tX) {
+				log.error("FAILED TO FIT A FIGURE!");
+				log.error(j2tX.getMessage());
+			}
+		}
+		
+		for (String latexPackage : graphics.getRequiredPackages()) {
+			if ( ! packages.contains(latexPackage) ) {
+				usePackage(latexPackage);
+			}
+		}
+		
+		String original = graphics.getImgFile();
+		
+		Future<File> drawn = graphics.prepareImage();
+		
+		if (drawn != null) {
+			pendingImages.add(drawn);
+		} else if (imagePipeline != null && original != null) {
+			pendingImages.add(imagePipeline.submit(graphics, getTextArea()));
+		}
+		
+		if (assetStore == null || graphics.getImgFile() == null) {
+			return;
+		}
+		
+		File image = new File(graphics.getImgFile());
+		
+		if ( ! graphics.getImgFile().equals(original) ) {
+			
+			// The images of the pipeline, and the drawn ones, have unique names already
+			assets.put(image.getName(), image);
+			graphics.setImgFile(image.getName());
+			
+		} else if (assetStore.contains(original)) {
+			
+			assets.put(original, assetStore.getFile(original));
+			
+		} else if (image.isFile()) {
+			
+			try {
+				String name = assetStore.add(image);
+				assets.put(name, assetStore.getFile(name));
+				graphics.setImgFile(name);
+			} catch (Java2TeXException j2tX) {
+				log.error("FAILED TO STORE AN IMAGE: "+image);
+				log.error(j2tX.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Places the images of the figures into the working directory of a job; 
+	 * the processors call it after they write the document.
+	 * 
+	 * @param workDir the directory where the document is compiled
+	 * @throws Java2TeXException if an image cannot be staged
+	 */
+	public void stageAssets(File workDir) throws Java2TeXException {
+		
+		awaitImages();
+		
+		for (Map.Entry<String, File> asset : assets.entrySet()) {
+			AssetStore.stage(asset.getValue(), new File(workDir, asset.getKey()));
+		}
+	}
+	
+	/**
+	 * Waits until the images of the figures that have been added are written.
+	 */
+	protected void awaitImages() {
+		
+		for (Future<File> image : pendingImages) {
+			try {
+				image.get();
+			} catch (InterruptedException iX) {
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while waiting for the images of the figures!");
+				return;
+			} catch (ExecutionException eX) {
+				log.error("FAILED TO PREPARE AN IMAGE!");
+				log.error(eX.getCause().getMessage());
+			}
+		}
+		pendingImages.clear();
+	}
+	
 	/**
 	 * The <CODE>pdflatex</CODE> compiler supports PNG, PDF, JPEG, and MPS image formats.
 	 * PNG is good for screenshots and other images with few colors. 
@@ -203,10 +365,52 @@ public abstract class LatexDocument {
 	 */
 	public abstract void addFigure(LatexGraphics graphics); 
 	
+	/**
+	 * The static preamble is the part of the preamble that a precompiled format
+	 * can hold: the <tt>\documentclass</tt> and the packages, with options that 
+	 * do not depend on the content of the document.
+	 * 
+	 * @return the static part of the preamble
+	 */
+	public abstract String getStaticPreamble();
+	
+	/**
+	 * @return the preamble of the document; it omits the static preamble, 
+	 *         if the document is compiled with a precompiled format
+	 */
 	public abstract String initLatex();
 	
 	public abstract String getLatex();
 	
+	/**
+	 * Renders the complete LaTeX source of this document to <CODE>out</CODE>.
+	 * Subclasses should override this method and stream the preamble, the body
+	 * and the trailer, so that the document is never copied as a whole.
+	 * The default implementation simply writes the result of <CODE>getLatex()</CODE>.
+	 * 
+	 * @param out the destination of the LaTeX source; it is not closed
+	 * @throws IOException
+	 */
+	public void writeTo(Writer out) throws IOException {
+		out.write(getLatex());
+	}
+	
+	/**
+	 * Renders the complete LaTeX source of this document into a UTF-8 file.
+	 * 
+	 * @param path the file that will hold the LaTeX source
+	 * @throws IOException
+	 */
+	public void writeTo(Path path) throws IOException {
+		
+		Writer out = Files.newBufferedWriter(path, Charset.forName("UTF-8"));
+		try {
+			writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+	
 	public abstract void addPackages();
 	
 	/**
@@ -261,10 +465,79 @@ public abstract class LatexDocument {
 	// GETTERS + SETTERS
 	//--------------------------------------------------------------------------
 	/**
-	 * @return the body of this LaTeX document
+	 * @return the body of this LaTeX document, including the deferred tables
 	 */
 	public String getBody() {
-		return body.toString();
+		
+		if (deferredTables.isEmpty()) {
+			awaitImages();
+			return body.toString();
+		}
+		
+		StringWriter out = new StringWriter();
+		try {
+			writeBody(out);
+		} catch (IOException ioX) {
+			// A StringWriter never throws; a table that could not be written does
+			log.error("FAILED TO WRITE THE BODY!");
+			log.error(ioX.getMessage());
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Notice that the body is stored in segments of <CODE>WRITE_CHUNK_SIZE</CODE> 
+	 * characters. Iterating over them avoids copying the whole body into a 
+	 * <CODE>String</CODE>, which is what <CODE>getBody()</CODE> does.
+	 * 
+	 * Deferred tables are not part of the segments.
+	 * 
+	 * @return read-only views of the body segments, in order
+	 */
+	public Iterable<CharSequence> getBodySegments() {
+		return body.segments();
+	}
+	
+	/**
+	 * @return the number of characters in the body of this document, 
+	 *         without the deferred tables
+	 */
+	public int getBodyLength() {
+		return body.length();
+	}
+
+	/**
+	 * Writes the body of this document to <CODE>out</CODE> one segment at a time, 
+	 * without copying it into a <CODE>String</CODE>. Deferred tables are 
+	 * rendered in place.
+	 * 
+	 * @param out the destination of the body
+	 * @throws IOException if <CODE>out</CODE> fails or a deferred table cannot 
+	 *         be written, e.g. a table over an <CODE>Iterator</CODE> that has 
+	 *         already been consumed
+	 */
+	protected void writeBody(Writer out) throws IOException {
+		
+		awaitImages();
+		
+		int start = 0;
+		
+		for (int i=0; i < deferredTables.size(); i++) {
+			
+			int offset = deferredOffsets.get(i);
+			body.writeTo(out, start, offset);
+			start = offset;
+			
+			LatexTable table = deferredTables.get(i);
+			try {
+				table.writeTo(out);
+			} catch (Java2TeXException j2tX) {
+				// A document without one of its tables is a broken document
+				throw new IOException("Could not write a table: "+j2tX.getMessage(), j2tX);
+			}
+		}
+		
+		body.writeTo(out, start, body.length());
 	}
 
 	/**
@@ -350,6 +623,81 @@ public abstract class LatexDocument {
 	public void setStyleOptions(String styleOptions) {
 		this.styleOptions = styleOptions;
 	}
+
+	/**
+	 * @return the size of the text of this document
+	 */
+	public TextArea getTextArea() {
+		return textArea;
+	}
+
+	/**
+	 * The preamble sets the size of the text from it, and figures and tables 
+	 * are sized for it. Set it before the figures and tables are added.
+	 * 
+	 * @param textArea the size of the text
+	 */
+	public void setTextArea(TextArea textArea) {
+		
+		if (textArea == null) {
+			throw new IllegalArgumentException("The size of the text is required!");
+		}
+		this.textArea = textArea;
+	}
+	
+	/**
+	 * @return the name of the precompiled format or <tt>null</tt>
+	 */
+	public String getPreambleFormat() {
+		return preambleFormat;
+	}
+
+	/**
+	 * When a precompiled format is set, the LaTeX source of the document
+	 * does not include the static preamble; the engine must then be 
+	 * invoked with that format.
+	 * 
+	 * @param preambleFormat the name of the format or <tt>null</tt>
+	 */
+	public void setPreambleFormat(String preambleFormat) {
+		this.preambleFormat = preambleFormat;
+	}
+	
+	/**
+	 * @return the image pipeline or <tt>null</tt>
+	 */
+	public ImagePipeline getImagePipeline() {
+		return imagePipeline;
+	}
+
+	/**
+	 * When an image pipeline is set, the images of the figures that are added 
+	 * afterwards are resampled in the background, and the document waits 
+	 * for them before it writes its body.
+	 * 
+	 * @param imagePipeline the pipeline or <tt>null</tt>
+	 */
+	public void setImagePipeline(ImagePipeline imagePipeline) {
+		this.imagePipeline = imagePipeline;
+	}
+	
+	/**
+	 * @return the asset store or <tt>null</tt>
+	 */
+	public AssetStore getAssetStore() {
+		return assetStore;
+	}
+
+	/**
+	 * When an asset store is set, the images of the figures that are added 
+	 * afterwards are stored in it and staged into the working directory of the 
+	 * document, so the LaTeX source does not depend on where they came from.
+	 * 
+	 * @param assetStore the store or <tt>null</tt>
+	 */
+	public void setAssetStore(AssetStore assetStore) {
+		this.assetStore = assetStore;
+	}
 	
 	public String getLocaleDate() {
 		return localeDate;
@@ -362,38 +710,27 @@ public abstract class LatexDocument {
 	
 	//-------------------------------------------------------------
 	
+	/**
+	 * Escapes the LaTeX special characters of the given value.
+	 * See <CODE>LatexEscaper</CODE> for the variants that append
+	 * straight into a caller-supplied buffer.
+	 *
+	 * @param val the text to escape
+	 * @return the escaped text or <CODE>val</CODE> itself, if there is nothing to escape
+	 */
 	public static String replaceSpecialCharacters(String val) {
-
-		StringBuilder sB = new StringBuilder();
-		
-		char[] string2char = val.toCharArray();
-		
-		ArrayList<Character> specialCharacters = getSpecialCharacters();
-		
-		for (Character c : string2char) {
-			
-			if (specialCharacters.contains(c)) {
-				sB.append("\\").append(c);
-			} else {
-				sB.append(c);
-			}
-		}
-		return sB.toString();
+		return LatexEscaper.escape(val);
 	}
-	
+
 	public static ArrayList<Character> getSpecialCharacters() {
-		ArrayList<Character> specialCharacters = new ArrayList<Character>();
-		
-		specialCharacters.add(new Character('\\'));
-		specialCharacters.add(new Character('#'));
-		specialCharacters.add(new Character('$'));
-		specialCharacters.add(new Character('%'));
-		specialCharacters.add(new Character('^'));
-		specialCharacters.add(new Character('&'));
-		specialCharacters.add(new Character('_'));
-		specialCharacters.add(new Character('{'));
-		specialCharacters.add(new Character('}'));
-		specialCharacters.add(new Character('~'));
+
+		char[] chars = LatexEscaper.getSpecialCharacters();
+
+		ArrayList<Character> specialCharacters = new ArrayList<Character>(chars.length);
+
+		for (char c : chars) {
+			specialCharacters.add(Character.valueOf(c));
+		}
 
 		return specialCharacters;
 	}
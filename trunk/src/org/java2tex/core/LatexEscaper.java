@@ -0,0 +1,191 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.IOException;
+
+/**
+ * Escapes the LaTeX special characters of plain text. The set of special
+ * characters is kept in a lookup table that is built once, so escaping a
+ * value does not allocate anything beyond the result itself. If the value
+ * does not contain any special characters, the very same <CODE>String</CODE>
+ * instance is returned.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public final class LatexEscaper {
+
+	/**
+	 * The characters that have a special meaning for LaTeX. Each one of them
+	 * is escaped by prefixing it with a backslash.
+	 */
+	private static final char[] SPECIAL_CHARACTERS = 
+		{'\\', '#', '$', '%', '^', '&', '_', '{', '}', '~'};
+	
+	/**
+	 * Lookup table indexed by the character value. All special characters
+	 * are ASCII, so anything beyond the table is never special.
+	 */
+	private static final boolean[] IS_SPECIAL = new boolean[128];
+	
+	static {
+		for (char c : SPECIAL_CHARACTERS) {
+			IS_SPECIAL[c] = true;
+		}
+	}
+	
+	private LatexEscaper() {
+	}
+
+	/**
+	 * @param c the character to check
+	 * @return <tt>true</tt> if <CODE>c</CODE> must be escaped in LaTeX source
+	 */
+	public static boolean isSpecial(char c) {
+		return c < IS_SPECIAL.length && IS_SPECIAL[c];
+	}
+
+	/**
+	 * @return a copy of the special characters, in the order of the lookup table
+	 */
+	public static char[] getSpecialCharacters() {
+		return SPECIAL_CHARACTERS.clone();
+	}
+	
+	/**
+	 * @param val the text to escape
+	 * @return the escaped text or <CODE>val</CODE> itself, if there is nothing to escape
+	 */
+	public static String escape(String val) {
+		
+		if (val == null) {
+			return null;
+		}
+		
+		int first = indexOfSpecial(val);
+		
+		if (first < 0) {
+			return val;
+		}
+		
+		StringBuilder sB = new StringBuilder(val.length() + 16);
+		sB.append(val, 0, first);
+		appendEscaped(val, first, val.length(), sB);
+		
+		return sB.toString();
+	}
+	
+	/**
+	 * Appends the escaped form of <CODE>val</CODE> directly to the caller's buffer.
+	 * 
+	 * @param val the text to escape
+	 * @param sB the buffer that receives the escaped text
+	 * @return <CODE>sB</CODE> for chaining
+	 */
+	public static StringBuilder escape(CharSequence val, StringBuilder sB) {
+		
+		if (val != null) {
+			appendEscaped(val, 0, val.length(), sB);
+		}
+		return sB;
+	}
+	
+	/**
+	 * Writes the escaped form of <CODE>val</CODE> to any <CODE>Appendable</CODE>,
+	 * e.g. a <CODE>Writer</CODE>. Runs of plain characters are appended in one call.
+	 * 
+	 * @param val the text to escape
+	 * @param out the destination of the escaped text
+	 * @return <CODE>out</CODE> for chaining
+	 * @throws IOException if <CODE>out</CODE> fails
+	 */
+	public static Appendable escape(CharSequence val, Appendable out) throws IOException {
+		
+		if (val == null) {
+			return out;
+		}
+		
+		int start = 0;
+		int n = val.length();
+		
+		for (int i=0; i < n; i++) {
+			
+			char c = val.charAt(i);
+			
+			if (c < IS_SPECIAL.length && IS_SPECIAL[c]) {
+				if (i > start) {
+					out.append(val, start, i);
+				}
+				out.append('\\').append(c);
+				start = i + 1;
+			}
+		}
+		
+		if (start < n) {
+			out.append(val, start, n);
+		}
+		return out;
+	}
+	
+	/**
+	 * @param val the text to scan
+	 * @return the index of the first special character or <tt>-1</tt> if there is none
+	 */
+	public static int indexOfSpecial(CharSequence val) {
+		
+		int n = val.length();
+		
+		for (int i=0; i < n; i++) {
+			char c = val.charAt(i);
+			if (c < IS_SPECIAL.length && IS_SPECIAL[c]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void appendEscaped(CharSequence val, int from, int to, StringBuilder sB) {
+		
+		int start = from;
+		
+		for (int i=from; i < to; i++) {
+			
+			char c = val.charAt(i);
+			
+			if (c < IS_SPECIAL.length && IS_SPECIAL[c]) {
+				if (i > start) {
+					sB.append(val, start, i);
+				}
+				sB.append('\\').append(c);
+				start = i + 1;
+			}
+		}
+		
+		if (start < to) {
+			sB.append(val, start, to);
+		}
+	}
+}
@@ -22,6 +22,13 @@
  */
 package org.java2tex.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
 /**
  * Instances of this class encapsulate a graphics object in a LaTeX document.
  * 
@@ -32,6 +39,15 @@ package org.java2tex.core;
  */
 public class LatexGraphics {
 
+	/** The resolution that pdfTeX assumes for images that do not declare one */
+	static final double DEFAULT_DPI = 72;
+	
+	/** The share of the text height that a figure may take; the rest is left to the caption */
+	private static final double FIGURE_HEIGHT_SHARE = 0.85;
+	
+	/** How much larger a figure must print on a landscape page before it turns */
+	private static final double LANDSCAPE_GAIN = 1.2;
+
 	/** 
 	 * This ID is set by the <CODE>LatexDocument</CODE>, it can be used for
 	 * reference of this figure from anywhere else inside the document.
@@ -50,6 +66,8 @@ public class LatexGraphics {
 	
 	private boolean isLandscape=false;
 	
+	private boolean isAutoFit=false;
+	
 	public LatexGraphics(String file) {
 		
 		this.latex = new StringBuilder(); 		
@@ -90,6 +108,96 @@ public class LatexGraphics {
 		return latex.toString();
 	}
 	
+	/**
+	 * Sizes this figure for the default text, i.e. <CODE>TextArea.DEFAULT</CODE>.
+	 * 
+	 * @throws Java2TeXException if the image is not a readable JPEG or PNG image
+	 * @see #autoFit(TextArea)
+	 */
+	public void autoFit() throws Java2TeXException {
+		autoFit(TextArea.DEFAULT);
+	}
+	
+	/**
+	 * Sizes this figure from the header of its image, without decoding it. 
+	 * An image that is larger than the text is scaled down to fit, and a wide 
+	 * image that would print much larger on a landscape page turns the figure 
+	 * to landscape. A figure that has a width, a height or a scale keeps them,
+	 * and so does a figure without an image file, e.g. a chart that is drawn
+	 * in the document.
+	 * 
+	 * @param textArea the text of the document, as in <CODE>LatexDocument.getTextArea()</CODE>
+	 * @throws Java2TeXException if the image is not a readable JPEG or PNG image
+	 */
+	public void autoFit(TextArea textArea) throws Java2TeXException {
+		
+		if (imgFile == null || width != null || height != null || scale != null) {
+			return;
+		}
+		
+		ImageProbe probe;
+		try {
+			probe = ImageProbe.probe(new File(imgFile));
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not probe the image "+imgFile+": "+ioX.getMessage());
+		}
+		
+		double widthCm = probe.getWidthInches(DEFAULT_DPI) * 2.54;
+		double heightCm = probe.getHeightInches(DEFAULT_DPI) * 2.54;
+		
+		double textWidth = textArea.getWidth();
+		double textHeight = textArea.getHeight();
+		
+		double portraitFit = Math.min(1, Math.min(textWidth / widthCm, textHeight * FIGURE_HEIGHT_SHARE / heightCm));
+		
+		// On a landscape page the text height is the width of the figure and vice versa
+		double landscapeFit = Math.min(1, Math.min(textHeight / widthCm, textWidth * FIGURE_HEIGHT_SHARE / heightCm));
+		
+		if ( ! isLandscape && landscapeFit > portraitFit * LANDSCAPE_GAIN ) {
+			isLandscape = true;
+		}
+		
+		double fit = isLandscape ? landscapeFit : portraitFit;
+		
+		if (fit < 1) {
+			// Rounded down, so that the figure never overflows the text
+			width = String.format(Locale.ENGLISH, "%.2fcm", Math.floor(widthCm * fit * 100) / 100);
+		}
+	}
+	
+	/**
+	 * Figures that draw their own image, e.g. charts, start drawing it here; 
+	 * documents call it when the figure is added and wait for the image 
+	 * before they write their body.
+	 * 
+	 * @return the image, once it is written, or <tt>null</tt> if the figure includes an existing file
+	 */
+	public Future<File> prepareImage() {
+		return null;
+	}
+	
+	/**
+	 * @return the packages that the LaTeX code of this figure needs, 
+	 *         as in <CODE>LatexDocument.usePackage</CODE>, e.g. <tt>{tikz}</tt>
+	 */
+	public List<String> getRequiredPackages() {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the document sizes this figure with <CODE>autoFit</CODE> when it is added
+	 */
+	public boolean isAutoFit() {
+		return isAutoFit;
+	}
+
+	/**
+	 * @param isAutoFit <tt>true</tt> if the document should size this figure with <CODE>autoFit</CODE> when it is added
+	 */
+	public void setAutoFit(boolean isAutoFit) {
+		this.isAutoFit = isAutoFit;
+	}
+	
 	/**
 	 * @return the imgFile
 	 */
@@ -22,16 +22,11 @@
  */
 package org.java2tex.core;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.util.Arrays;
 import java.util.Calendar;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -57,13 +52,28 @@ public class LatexProcessor implements TeXProcessor{
 	 */
 	private String latexRootDir;
 
-	private boolean isTerminated = false;
+	private volatile boolean isTerminated = false;
 	
-	private Process pdfLatexProcess = null;
+	/**
+	 * The job that is currently running, if any.
+	 * To be used for cancellation if needed.
+	 */
+	private volatile CompileJob currentJob = null;
+	
+	/** Compiles the documents of <CODE>processAsync</CODE>; it is created on first use */
+	private LatexProcessorPool asyncPool = null;
 	
-	private String teXCommand;
+	/** The engine that compiles the documents */
+	private TeXEngine engine;
 	
-	private String teXCommandDir;
+	/** Decides how many times the engine runs on each document */
+	private RerunPlanner rerunPlanner = new RerunPlanner();
+	
+	/** If it is not <tt>null</tt>, unchanged documents are not compiled again */
+	private CompileCache compileCache = null;
+	
+	/** If it is not <tt>null</tt>, the static preamble is loaded from a precompiled format */
+	private PreambleFormatCache preambleFormats = null;
 	
 	/**
 	 * If the root directory is not supplied, 
@@ -77,20 +87,25 @@ public class LatexProcessor implements TeXProcessor{
 	public LatexProcessor() throws Java2TeXException {
 		
 		this.setupLatexRootDir(null);
-		this.teXCommand = "pdflatex";
+		this.engine = new PdfLatexEngine();
 		log.info("Created LatexProcessor instance ...");		
 	}
 	
 	public LatexProcessor(String rootDir) {
-		latexRootDir = rootDir;
-		this.teXCommand = "pdflatex";
-		log.info("Created LatexProcessor instance ...");
+		this(rootDir, new PdfLatexEngine());
 	}
 	
 	public LatexProcessor(String rootDir, String teXCommand, String teXCommandDir) {
+		this(rootDir, TeXEngine.forCommand(teXCommand, teXCommandDir));
+	}
+	
+	/**
+	 * @param rootDir the root directory for storing the generated LaTeX files
+	 * @param engine the engine that compiles the documents, e.g. <CODE>XeLatexEngine</CODE>
+	 */
+	public LatexProcessor(String rootDir, TeXEngine engine) {
 		latexRootDir = rootDir;
-		this.teXCommandDir= teXCommandDir;
-		this.teXCommand = teXCommand;
+		this.engine = engine;
 		log.info("Created LatexProcessor instance ...");
 	}
 	
@@ -198,74 +213,93 @@ public class LatexProcessor implements TeXProcessor{
 
 		String os = System.getProperty("os.name");
 
-		if (os.startsWith("Windows")) {
+		if (engine.isInProcess()) {
+			
+			log.debug("Running the in-process engine "+ engine.getName());
+			
+		} else if (os.startsWith("Windows")) {
 
 			log.warn("***  Make sure that you installed MikTeX. This will not work without installing MikTeX!  ***");
 		
 		} else {
 		
-			log.debug("Running on a Unix clone? \n You should have "+ teXCommand +" in your path.");
-			log.info("Type \n >> which  "+ teXCommand +"  \n on a terminal to check if you have "+ teXCommand +" on your PATH");
+			log.debug("Running on a Unix clone? \n You should have "+ engine.getName() +" in your path.");
+			log.info("Type \n >> which  "+ engine.getName() +"  \n on a terminal to check if you have "+ engine.getName() +" on your PATH");
 		}
-		// By default teXCommand waits for an user input on error. The -halt-on-error option 
-		// will terminate teXCommand execution on error.
-		if (teXCommandDir != null) {
-			teXCommand = teXCommandDir + File.separator + teXCommand;
+		CompileJob job = new CompileJob(doc, new File(getLatexRootDir()), engine, rerunPlanner);
+		
+		// Do not run if we have been terminated.
+		if ( isTerminated ) {
+			return;
 		}
-		String[] args = { teXCommand, "-halt-on-error", doc.getFilename()};
-		log.debug("Output: \n" + Arrays.toString(args));
 		
-		ProcessBuilder pb = new ProcessBuilder(args);
+		job.setCompileCache(compileCache);
+		job.setPreambleFormats(preambleFormats);
 		
-		pb.directory(new File(getLatexRootDir()));
-		// Do not run if we have been terminated.
-		if ( ! isTerminated ) {
-			run(pb);
+		currentJob = job;
+		if ( isTerminated ) {
+			job.cancel();
 		}
-		if ( ! isTerminated ) {
-			//Run twice to get the references right
-			run(pb);
+		try {
+			job.execute();
+		} finally {
+			currentJob = null;
 		}
 	}
 
-	public void terminate() {
-		if ( pdfLatexProcess != null ) {
-			pdfLatexProcess.destroy();
-		}
-		isTerminated = true;
+	/**
+	 * Compiles the document in a thread of the processor, just like 
+	 * <CODE>LatexProcessorPool.processAsync</CODE> does: the document is saved
+	 * in its own working directory, there is no need to call <CODE>save</CODE>
+	 * first, and at most <CODE>LatexProcessorPool.DEFAULT_POOL_SIZE</CODE>
+	 * engine processes run at any time. Cancelling the future, or missing the 
+	 * deadline, does not affect the rest of the jobs and does not terminate 
+	 * the processor.
+	 */
+	public CompletableFuture<CompileResult> processAsync(LatexDocument doc) throws Java2TeXException {
+		return getAsyncPool().processAsync(doc);
 	}
 	
-	private void run(ProcessBuilder pb) {
-		try {
-			if (teXCommandDir != null) {
-				String os = System.getProperty("os.name");
-				String PATH;
-				if (os.startsWith("Windows")) {
-					PATH = "Path";
-				} else {
-					PATH = "PATH";
-				}
-				log.info(PATH+": "+ pb.environment().get(PATH));
-				pb.environment().put(PATH,
-						pb.environment().get(PATH) + File.pathSeparator + teXCommandDir);				
-				log.info(PATH+": "+ pb.environment().get(PATH));
+	public CompletableFuture<CompileResult> processAsync(LatexDocument doc, long timeout, TimeUnit unit) throws Java2TeXException {
+		return getAsyncPool().processAsync(doc, timeout, unit);
+	}
+	
+	/**
+	 * @return the pool of <CODE>processAsync</CODE>, with the settings of this processor
+	 */
+	private synchronized LatexProcessorPool getAsyncPool() throws Java2TeXException {
+		
+		if ( isTerminated ) {
+			throw new Java2TeXException("The processor has been terminated!");
+		}
+		
+		if (asyncPool == null || asyncPool.getEngine() != engine) {
+			if (asyncPool != null) {
+				// The jobs of the previous engine run to their end
+				asyncPool.shutdown();
 			}
+			asyncPool = new LatexProcessorPool(getLatexRootDir(), LatexProcessorPool.DEFAULT_POOL_SIZE, engine);
+		}
+		
+		asyncPool.setCompileCache(compileCache);
+		asyncPool.setPreambleFormats(preambleFormats);
+		asyncPool.setRerunPlanner(rerunPlanner);
+		
+		return asyncPool;
+	}
 
-			// Save the reference of process object.
-			// To be used for cancellation if needed.
-			pdfLatexProcess = pb.start();
-			InputStream is = pdfLatexProcess.getInputStream();
-			InputStreamReader isr = new InputStreamReader(is);
-			BufferedReader br = new BufferedReader(isr);
-			String line = null;
-
-			while ((line = br.readLine()) != null) {
-				log.debug(line + "\n");
+	public void terminate() {
+		CompileJob job = currentJob;
+		if ( job != null ) {
+			job.cancel();
+		}
+		isTerminated = true;
+		
+		synchronized (this) {
+			if (asyncPool != null) {
+				asyncPool.terminate();
 			}
-			pdfLatexProcess = null;
-		} catch (IOException ioX) {
-			log.error(ioX.getMessage());
-		}		
+		}
 	}
 
 	public void save(LatexDocument doc) throws Java2TeXException {
@@ -277,17 +311,85 @@ public class LatexProcessor implements TeXProcessor{
 
 		File file = new File(filename.toString());
 
+		if (preambleFormats != null && engine.supportsFormats()) {
+			doc.setPreambleFormat(preambleFormats.getFormatName(doc, engine));
+		}
+		
 		try {
-			// FileWriter fw = new FileWriter(file);
-			FileOutputStream fos = new FileOutputStream(file);
-			Writer out = new OutputStreamWriter(fos, "UTF8");
-			out.write(doc.getLatex());
-			out.close();
+			// Stream the document, instead of building the whole source in memory
+			doc.writeTo(file.toPath());
 		} catch (IOException ioX) {
-			log.error(ioX.getMessage());
+			// A truncated source must not be compiled
+			throw new Java2TeXException("Could not save "+doc.getFilename()+" in "+getLatexRootDir()+": "+ioX.getMessage());
 		}
+		
+		doc.stageAssets(new File(getLatexRootDir()));
+	}
+
+	/**
+	 * @return the engine
+	 */
+	public TeXEngine getEngine() {
+		return engine;
 	}
 
+	/**
+	 * @param engine the engine that compiles the documents from now on
+	 */
+	public void setEngine(TeXEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * @return the compileCache
+	 */
+	public CompileCache getCompileCache() {
+		return compileCache;
+	}
+
+	/**
+	 * The compile cache is opt-in. Once it is set, the engine runs with 
+	 * <tt>-recorder</tt> and documents whose source and inputs did not change
+	 * get their PDF from the cache, without running the engine at all.
+	 * 
+	 * @param compileCache the compileCache to set or <tt>null</tt> to disable caching
+	 */
+	public void setCompileCache(CompileCache compileCache) {
+		this.compileCache = compileCache;
+	}
+
+	/**
+	 * @return the preambleFormats
+	 */
+	public PreambleFormatCache getPreambleFormats() {
+		return preambleFormats;
+	}
+
+	/**
+	 * Once the format cache is set, documents are saved without their static 
+	 * preamble, which the engine loads from a precompiled format instead.
+	 * The format is dumped the first time that it is needed.
+	 * 
+	 * @param preambleFormats the preambleFormats to set or <tt>null</tt> to disable formats
+	 */
+	public void setPreambleFormats(PreambleFormatCache preambleFormats) {
+		this.preambleFormats = preambleFormats;
+	}
+
+	/**
+	 * @return the rerunPlanner
+	 */
+	public RerunPlanner getRerunPlanner() {
+		return rerunPlanner;
+	}
+
+	/**
+	 * @param rerunPlanner the rerunPlanner to set; it decides how many passes each document gets
+	 */
+	public void setRerunPlanner(RerunPlanner rerunPlanner) {
+		this.rerunPlanner = rerunPlanner;
+	}
+	
 	private static boolean mkdir(File f) {
 		
 		boolean dirCreated=false;
@@ -0,0 +1,465 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A <CODE>TeXProcessor</CODE> that compiles many documents concurrently. 
+ * At most <CODE>poolSize</CODE> engine processes run at any time; the rest of
+ * the documents wait in a queue. Every document is saved and compiled inside 
+ * its own working directory, which is created under the root directory,
+ * and every job can be cancelled individually through the <CODE>CompileJob</CODE>
+ * that <CODE>submit</CODE> returns. Once a job is over, its working directory 
+ * is cleaned up: the PDF of a document that compiled is left in it, and so 
+ * is the log of a document that did not. The directory of a submitted job 
+ * belongs to the caller from then on; <CODE>process</CODE> moves the PDF to 
+ * the root directory, where <CODE>LatexProcessor</CODE> leaves it, and 
+ * deletes the working directory.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class LatexProcessorPool implements TeXProcessor {
+
+	private static final Logger log = Logger.getLogger(LatexProcessorPool.class);
+	
+	/** The default number of engine processes, one per available processor */
+	public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+	
+	private static final AtomicInteger poolCount = new AtomicInteger(0);
+	
+	private final LatexProcessor delegate;
+	
+	private final int poolSize;
+	
+	private final ExecutorService executor;
+	
+	private final TeXEngine engine;
+	
+	/** Decides how many times the engine runs on each document */
+	private volatile RerunPlanner rerunPlanner = new RerunPlanner();
+	
+	/** If it is not <tt>null</tt>, unchanged documents are not compiled again */
+	private volatile CompileCache compileCache = null;
+	
+	/** If it is not <tt>null</tt>, the static preamble is loaded from a precompiled format */
+	private volatile PreambleFormatCache preambleFormats = null;
+	
+	private final Set<CompileJob> activeJobs = Collections.synchronizedSet(new HashSet<CompileJob>());
+	
+	private volatile boolean isTerminated = false;
+	
+	/** If it is <tt>true</tt>, the working directories of finished jobs are left as they are */
+	private volatile boolean isKeepingWorkFiles = false;
+	
+	public LatexProcessorPool(String rootDir) {
+		this(rootDir, DEFAULT_POOL_SIZE);
+	}
+	
+	public LatexProcessorPool(String rootDir, int poolSize) {
+		this(rootDir, poolSize, "pdflatex", null);
+	}
+	
+	/**
+	 * @param rootDir the root directory; the working directories of the jobs are created inside it
+	 * @param poolSize the maximum number of engine processes that run concurrently
+	 * @param teXCommand the name of the engine executable, e.g. <tt>pdflatex</tt>
+	 * @param teXCommandDir the directory of the engine executable or <tt>null</tt>
+	 */
+	public LatexProcessorPool(String rootDir, int poolSize, String teXCommand, String teXCommandDir) {
+		this(rootDir, poolSize, TeXEngine.forCommand(teXCommand, teXCommandDir));
+	}
+	
+	/**
+	 * @param rootDir the root directory; the working directories of the jobs are created inside it
+	 * @param poolSize the maximum number of engine processes that run concurrently
+	 * @param engine the engine that compiles the documents
+	 */
+	public LatexProcessorPool(String rootDir, int poolSize, TeXEngine engine) {
+		
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("The pool size must be positive! Found: "+poolSize);
+		}
+		
+		this.delegate = new LatexProcessor(rootDir, engine);
+		this.poolSize = poolSize;
+		this.engine = engine;
+		this.executor = Executors.newFixedThreadPool(poolSize, Utils.daemonThreads("java2tex-pool-"+poolCount.incrementAndGet()+"-"));
+		
+		log.info("Created LatexProcessorPool instance with "+poolSize+" engine processes ...");
+	}
+	
+	/**
+	 * Saves the document in a new working directory and queues it for compilation.
+	 * 
+	 * @param doc the document to compile
+	 * @return the job, which can be used for waiting on the result or cancelling it
+	 * @throws Java2TeXException if the document could not be saved or the pool has been terminated
+	 */
+	public CompileJob submit(LatexDocument doc) throws Java2TeXException {
+		
+		if (isTerminated) {
+			throw new Java2TeXException("The processor pool has been terminated!");
+		}
+		
+		File workDir = createWorkDir(doc);
+		
+		if (preambleFormats != null && engine.supportsFormats()) {
+			doc.setPreambleFormat(preambleFormats.getFormatName(doc, engine));
+		}
+		
+		try {
+			doc.writeTo(new File(workDir, doc.getFilename()).toPath());
+		} catch (IOException ioX) {
+			delete(workDir);
+			throw new Java2TeXException("Could not save "+doc.getFilename()+" in "+workDir+": "+ioX.getMessage());
+		}
+		
+		doc.stageAssets(workDir);
+		
+		final CompileJob job = new CompileJob(doc, workDir, engine, rerunPlanner);
+		
+		job.setCompileCache(compileCache);
+		job.setPreambleFormats(preambleFormats);
+		
+		activeJobs.add(job);
+		
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						job.execute();
+					} catch (Java2TeXException j2tX) {
+						log.error(j2tX.getMessage());
+					} finally {
+						activeJobs.remove(job);
+						cleanUp(job);
+					}
+				}
+			});
+		} catch (RejectedExecutionException reX) {
+			activeJobs.remove(job);
+			cleanUp(job);
+			Java2TeXException j2tX = new Java2TeXException("The processor pool has been terminated!");
+			job.abort(j2tX);
+			throw j2tX;
+		}
+		
+		return job;
+	}
+	
+	/**
+	 * Compiles the document and blocks until the compilation is over.
+	 * The document is saved in its own working directory; there is no need to call 
+	 * <CODE>save</CODE> first. The PDF is then moved to the root directory, 
+	 * as <tt>&lt;root&gt;/&lt;name&gt;.pdf</tt>, just like <CODE>LatexProcessor</CODE> leaves it.
+	 */
+	public void process(LatexDocument doc) throws Java2TeXException {
+		
+		CompileJob job = submit(doc);
+		job.waitFor();
+		
+		publish(job);
+	}
+	
+	/**
+	 * Queues the document, just like <CODE>submit</CODE> does, and returns the future of its job.
+	 */
+	public CompletableFuture<CompileResult> processAsync(LatexDocument doc) throws Java2TeXException {
+		return submit(doc).getFuture();
+	}
+	
+	/**
+	 * Queues the document, just like <CODE>submit</CODE> does, and returns the future of its job.
+	 * The time that the job waits in the queue counts against its deadline.
+	 */
+	public CompletableFuture<CompileResult> processAsync(LatexDocument doc, long timeout, TimeUnit unit) throws Java2TeXException {
+		
+		CompileJob job = submit(doc);
+		job.setDeadline(timeout, unit);
+		
+		return job.getFuture();
+	}
+
+	/**
+	 * Saves the document in the root directory, just like <CODE>LatexProcessor</CODE> does.
+	 */
+	public void save(LatexDocument doc) throws Java2TeXException {
+		delegate.save(doc);
+	}
+
+	public void setupLatexRootDir(String rootDir) throws Java2TeXException {
+		delegate.setupLatexRootDir(rootDir);
+	}
+
+	public String getLatexRootDir() throws Java2TeXException {
+		return delegate.getLatexRootDir();
+	}
+
+	/**
+	 * Cancels every queued or running job and releases the threads of the pool.
+	 */
+	public void terminate() {
+		
+		isTerminated = true;
+		
+		executor.shutdownNow();
+		
+		CompileJob[] jobs;
+		synchronized (activeJobs) {
+			jobs = activeJobs.toArray(new CompileJob[activeJobs.size()]);
+		}
+		
+		for (CompileJob job : jobs) {
+			job.cancel();
+			// Jobs that never started must not keep their callers waiting, nor their directories
+			if ( ! job.isDone() ) {
+				job.abort(null);
+				activeJobs.remove(job);
+				cleanUp(job);
+			}
+		}
+	}
+	
+	/**
+	 * Lets the queued and running jobs finish, but accepts no more jobs.
+	 */
+	void shutdown() {
+		isTerminated = true;
+		executor.shutdown();
+	}
+	
+	/**
+	 * @return the maximum number of engine processes that run concurrently
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+	
+	/**
+	 * @return the engine that compiles the documents
+	 */
+	public TeXEngine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * @return the number of jobs that are queued or running
+	 */
+	public int getActiveJobCount() {
+		return activeJobs.size();
+	}
+	
+	/**
+	 * @return the compileCache
+	 */
+	public CompileCache getCompileCache() {
+		return compileCache;
+	}
+
+	/**
+	 * The compile cache is opt-in. Once it is set, the engine runs with 
+	 * <tt>-recorder</tt> and documents whose source and inputs did not change
+	 * get their PDF from the cache, without running the engine at all.
+	 * 
+	 * @param compileCache the compileCache to set or <tt>null</tt> to disable caching
+	 */
+	public void setCompileCache(CompileCache compileCache) {
+		this.compileCache = compileCache;
+	}
+
+	/**
+	 * @return the preambleFormats
+	 */
+	public PreambleFormatCache getPreambleFormats() {
+		return preambleFormats;
+	}
+
+	/**
+	 * Once the format cache is set, documents are saved without their static 
+	 * preamble, which the engine loads from a precompiled format instead.
+	 * The format is dumped the first time that it is needed.
+	 * 
+	 * @param preambleFormats the preambleFormats to set or <tt>null</tt> to disable formats
+	 */
+	public void setPreambleFormats(PreambleFormatCache preambleFormats) {
+		this.preambleFormats = preambleFormats;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the working directories of finished jobs are left as they are
+	 */
+	public boolean isKeepingWorkFiles() {
+		return isKeepingWorkFiles;
+	}
+
+	/**
+	 * By default, the working directory of a finished job is cleaned up: 
+	 * the directory of a job that produced a PDF holds just that PDF, while
+	 * the directory of a job that failed, or was cancelled, is deleted.
+	 * Keeping the work files helps when a document does not compile.
+	 * 
+	 * @param isKeepingWorkFiles <tt>true</tt> to keep the sources, logs and auxiliary files of every job
+	 */
+	public void setKeepingWorkFiles(boolean isKeepingWorkFiles) {
+		this.isKeepingWorkFiles = isKeepingWorkFiles;
+	}
+
+	/**
+	 * @return the rerunPlanner
+	 */
+	public RerunPlanner getRerunPlanner() {
+		return rerunPlanner;
+	}
+
+	/**
+	 * @param rerunPlanner the rerunPlanner to set; it decides how many passes each document gets
+	 */
+	public void setRerunPlanner(RerunPlanner rerunPlanner) {
+		this.rerunPlanner = rerunPlanner;
+	}
+	
+	private File createWorkDir(LatexDocument doc) throws Java2TeXException {
+		
+		String name = doc.getFilename();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		
+		File rootDir = new File(getLatexRootDir());
+		
+		if ( ! rootDir.isDirectory() && ! rootDir.mkdirs() ) {
+			throw new Java2TeXException("Could not create directory: "+rootDir);
+		}
+		
+		// A fresh directory for every job, even across pools that share the root
+		try {
+			return Files.createTempDirectory(rootDir.toPath(), name + "-").toFile();
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not create a working directory in "+rootDir+": "+ioX.getMessage());
+		}
+	}
+	
+	/**
+	 * Moves the PDF of a job to the root directory and deletes the working 
+	 * directory of the job, unless the work files are kept.
+	 */
+	private void publish(CompileJob job) throws Java2TeXException {
+		
+		File pdfFile = job.getPdfFile();
+		File target = new File(getLatexRootDir(), pdfFile.getName());
+		
+		synchronized (job) {
+			
+			if (job.isCancelled() || ! job.getResult().isSuccess() || ! pdfFile.isFile()) {
+				return;
+			}
+			
+			try {
+				if (isKeepingWorkFiles) {
+					Files.copy(pdfFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.move(pdfFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					delete(job.getWorkDir());
+				}
+			} catch (IOException ioX) {
+				throw new Java2TeXException("Could not move "+pdfFile+" to "+target+": "+ioX.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Deletes everything in the working directory of a finished job, except 
+	 * for its PDF or, if there is none, for its log. The directory of a 
+	 * cancelled job is deleted altogether.
+	 */
+	private void cleanUp(CompileJob job) {
+		
+		if (isKeepingWorkFiles) {
+			return;
+		}
+		
+		File pdfFile = job.getPdfFile();
+		
+		synchronized (job) {
+			
+			File kept;
+			if (job.isCancelled()) {
+				kept = null;
+			} else if (job.getResult().isSuccess() && pdfFile.isFile()) {
+				kept = pdfFile;
+			} else {
+				// The log is the only evidence of the failure
+				String name = pdfFile.getName();
+				kept = new File(job.getWorkDir(), name.substring(0, name.length() - 4) + ".log");
+			}
+			
+			if (kept == null || ! kept.isFile()) {
+				delete(job.getWorkDir());
+				return;
+			}
+			
+			File[] files = job.getWorkDir().listFiles();
+			if (files != null) {
+				for (File f : files) {
+					if ( ! f.equals(kept) ) {
+						delete(f);
+					}
+				}
+			}
+		}
+	}
+	
+	private static void delete(File f) {
+		
+		// Staged assets may be links into a shared store; only the links are deleted
+		File[] children = Files.isSymbolicLink(f.toPath()) ? null : f.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		
+		if ( ! f.delete() && f.exists() ) {
+			log.warn("Could not delete "+f);
+		}
+	}
+}
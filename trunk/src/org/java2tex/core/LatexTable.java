@@ -1,5 +1,7 @@
 package org.java2tex.core;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 
 public interface LatexTable {
@@ -32,6 +34,23 @@ public interface LatexTable {
 	 */
 	public abstract String getLatex() throws Java2TeXException;
 
+	/**
+	 * Writes the LaTeX source of this table to <CODE>out</CODE>. 
+	 * Tables that stream their rows render them here, one at a time.
+	 * 
+	 * @param out the destination of the LaTeX source; it is not closed
+	 * @throws Java2TeXException
+	 * @throws IOException
+	 */
+	public abstract void writeTo(Writer out) throws Java2TeXException, IOException;
+
+	/**
+	 * @return <tt>true</tt> if the rows of this table are pulled from a row source
+	 *         while the table is written; the document must then defer the table 
+	 *         until the document itself is written, instead of calling <CODE>getLatex()</CODE>
+	 */
+	public abstract boolean isStreaming();
+
 	public abstract void addHorizontalLine();
 
 	/**
@@ -0,0 +1,269 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Drains the standard output and the standard error of an engine process
+ * concurrently, so that the engine never blocks on a full pipe. 
+ * Only the last lines of the output are kept, in a ring buffer. 
+ * The lines are parsed as they arrive for errors, warnings, and the 
+ * <tt>Output written on ...</tt> summary of the engine.
+ * <P>
+ * A pump is meant for a single run of the engine.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class OutputPump {
+
+	private static final Logger log = Logger.getLogger(OutputPump.class);
+	
+	/** The default number of output lines that are kept */
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	/** The maximum number of errors, or warnings, that are kept */
+	public static final int MAX_DIAGNOSTICS = 100;
+	
+	private static final Pattern OUTPUT_WRITTEN = 
+		Pattern.compile("Output written on (.+) \\((\\d+) pages?(, (\\d+) bytes)?\\)\\.");
+	
+	private final String name;
+	
+	private final String[] ring;
+	
+	private int next = 0;
+	
+	private long lineCount = 0;
+	
+	private final List<String> errors = new ArrayList<String>();
+	
+	private final List<String> warnings = new ArrayList<String>();
+	
+	private int pageCount = -1;
+	
+	private long outputBytes = -1;
+	
+	/** The start of a summary line that the engine wrapped */
+	private String wrapped = null;
+	
+	/**
+	 * @param name the name of the job, for the log and the names of the threads
+	 */
+	public OutputPump(String name) {
+		this(name, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param name the name of the job, for the log and the names of the threads
+	 * @param capacity the number of output lines that are kept
+	 */
+	public OutputPump(String name, int capacity) {
+		
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive! Found: "+capacity);
+		}
+		this.name = name;
+		this.ring = new String[capacity];
+	}
+	
+	/**
+	 * Drains both streams of the process, until the process closes them. 
+	 * The standard error is drained in a separate thread and the standard 
+	 * output in the calling thread.
+	 * 
+	 * @param process the engine process
+	 * @throws IOException if the standard output could not be read
+	 * @throws InterruptedException if the calling thread was interrupted
+	 */
+	public void drain(Process process) throws IOException, InterruptedException {
+		
+		final InputStream err = process.getErrorStream();
+		
+		Thread errPump = new Thread(new Runnable() {
+			public void run() {
+				try {
+					read(err, true);
+				} catch (IOException ioX) {
+					// The stream is closed when the process is destroyed
+					log.debug(ioX.getMessage());
+				}
+			}
+		}, "java2tex-stderr-" + name);
+		
+		errPump.setDaemon(true);
+		errPump.start();
+		
+		read(process.getInputStream(), false);
+		
+		errPump.join();
+	}
+	
+	private void read(InputStream in, boolean isStdErr) throws IOException {
+		
+		BufferedReader br = new BufferedReader(new InputStreamReader(in));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				accept(line, isStdErr);
+			}
+		} finally {
+			br.close();
+		}
+	}
+	
+	/**
+	 * Feeds a line of output to the pump, e.g. from an engine that runs in-process.
+	 * 
+	 * @param line
+	 */
+	public void accept(String line) {
+		accept(line, false);
+	}
+	
+	private synchronized void accept(String line, boolean isStdErr) {
+		
+		if (log.isDebugEnabled()) {
+			log.debug(isStdErr ? name + " [stderr] " + line : line);
+		}
+		
+		ring[next] = line;
+		next = (next + 1) % ring.length;
+		lineCount++;
+		
+		if (isStdErr) {
+			// Diagnostics of TeX go to the standard output; the rest is only kept in the tail
+			return;
+		}
+		
+		if (wrapped != null) {
+			// TeX breaks its lines at 79 characters, without a space
+			line = wrapped + line;
+			wrapped = null;
+		}
+		
+		if (line.startsWith("!")) {
+			add(errors, line);
+		} else if (line.indexOf("Warning:") >= 0) {
+			add(warnings, line);
+		} else if (line.startsWith("Output written on ")) {
+			Matcher m = OUTPUT_WRITTEN.matcher(line);
+			if (m.find()) {
+				pageCount = Integer.parseInt(m.group(2));
+				// XeTeX does not report the size
+				outputBytes = m.group(4) == null ? -1 : Long.parseLong(m.group(4));
+			} else if ( ! line.endsWith(".") ) {
+				wrapped = line;
+			}
+		} else if (line.startsWith("No pages of output.")) {
+			pageCount = 0;
+			outputBytes = 0;
+		}
+	}
+	
+	private static void add(List<String> diagnostics, String line) {
+		if (diagnostics.size() < MAX_DIAGNOSTICS) {
+			diagnostics.add(line);
+		}
+	}
+	
+	/**
+	 * Copies the diagnostics of this run into the result of the job. 
+	 * The page count and the size of the output are copied only if the engine reported them.
+	 * 
+	 * @param result
+	 */
+	public synchronized void copyTo(CompileResult result) {
+		
+		result.setErrors(new ArrayList<String>(errors));
+		result.setWarnings(new ArrayList<String>(warnings));
+		result.setOutputTail(getTail());
+		
+		if (pageCount >= 0) {
+			result.setPageCount(pageCount);
+			result.setOutputBytes(outputBytes);
+		}
+	}
+	
+	/**
+	 * @return the last lines of the output, oldest first
+	 */
+	public synchronized List<String> getTail() {
+		
+		int size = (int) Math.min(lineCount, ring.length);
+		List<String> tail = new ArrayList<String>(size);
+		
+		int first = (next - size + ring.length) % ring.length;
+		for (int i=0; i < size; i++) {
+			tail.add(ring[(first + i) % ring.length]);
+		}
+		return tail;
+	}
+	
+	/**
+	 * @return the number of lines that the process has written
+	 */
+	public synchronized long getLineCount() {
+		return lineCount;
+	}
+	
+	/**
+	 * @return the errors, i.e. the lines of the output that start with <tt>!</tt>
+	 */
+	public synchronized List<String> getErrors() {
+		return new ArrayList<String>(errors);
+	}
+	
+	/**
+	 * @return the warnings, i.e. the lines of the output that contain <tt>Warning:</tt>
+	 */
+	public synchronized List<String> getWarnings() {
+		return new ArrayList<String>(warnings);
+	}
+	
+	/**
+	 * @return the number of pages of the output or <tt>-1</tt>, if the engine did not report it
+	 */
+	public synchronized int getPageCount() {
+		return pageCount;
+	}
+	
+	/**
+	 * @return the size of the output in bytes or <tt>-1</tt>, if the engine did not report it
+	 */
+	public synchronized long getOutputBytes() {
+		return outputBytes;
+	}
+}
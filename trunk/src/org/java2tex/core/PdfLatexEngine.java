@@ -0,0 +1,59 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+/**
+ * The pdfTeX engine, i.e. <tt>pdflatex</tt>.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class PdfLatexEngine extends TeXEngine {
+
+	public PdfLatexEngine() {
+		this(null);
+	}
+	
+	/**
+	 * @param commandDir the directory of <tt>pdflatex</tt> or <tt>null</tt>,
+	 *        if it is on the <CODE>PATH</CODE>
+	 */
+	public PdfLatexEngine(String commandDir) {
+		this("pdflatex", commandDir);
+	}
+	
+	/**
+	 * @param command the name of the executable
+	 * @param commandDir the directory of the executable or <tt>null</tt>
+	 */
+	public PdfLatexEngine(String command, String commandDir) {
+		super(command, commandDir);
+	}
+
+	@Override
+	protected String getDraftModeOption() {
+		return "-draftmode";
+	}
+}
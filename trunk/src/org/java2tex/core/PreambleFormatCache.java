@@ -0,0 +1,192 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Precompiled formats for the static preamble of documents, i.e. the 
+ * <tt>\documentclass</tt> and the packages. Parsing the packages accounts for
+ * most of the compile time of a short document; with a format, the engine
+ * loads them from a memory dump instead.
+ * <P>
+ * The name of a format is derived from the hash of the engine and the static
+ * preamble. Hence, a change in the document class, the packages, or their 
+ * options yields a new format, which is dumped (with <tt>-ini</tt>) the first 
+ * time that a document needs it.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class PreambleFormatCache {
+
+	private static final Logger log = Logger.getLogger(PreambleFormatCache.class);
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final String FORMAT_PREFIX = "j2t-";
+	
+	private final File formatDir;
+	
+	/**
+	 * @param formatDir the directory that holds the formats; it is created if it does not exist
+	 * @throws Java2TeXException if the directory cannot be created
+	 */
+	public PreambleFormatCache(File formatDir) throws Java2TeXException {
+		
+		if ( ! formatDir.isDirectory() && ! formatDir.mkdirs() ) {
+			throw new Java2TeXException("Could not create directory: "+formatDir);
+		}
+		this.formatDir = formatDir;
+	}
+	
+	/**
+	 * @param doc the document
+	 * @param engine the engine that compiles the document
+	 * @return the name of the format that holds the static preamble of <CODE>doc</CODE>
+	 */
+	public String getFormatName(LatexDocument doc, TeXEngine engine) {
+		
+		MessageDigest md = Utils.newDigest("SHA-1");
+		
+		md.update(engine.getFormatName().getBytes(UTF8));
+		md.update((byte) '\n');
+		md.update(doc.getStaticPreamble().getBytes(UTF8));
+		
+		return FORMAT_PREFIX + Utils.toHex(md.digest(), 8);
+	}
+	
+	/**
+	 * Dumps the format of the document, unless it exists already, and
+	 * places it inside the working directory, where the engine looks for it.
+	 * 
+	 * @param doc the document, whose <CODE>preambleFormat</CODE> has been set
+	 * @param workDir the working directory of the compilation
+	 * @param engine the engine that compiles the document
+	 * @throws Java2TeXException if the format could not be dumped
+	 */
+	public void prepare(LatexDocument doc, File workDir, TeXEngine engine) throws Java2TeXException {
+		
+		if ( ! engine.supportsFormats() ) {
+			throw new Java2TeXException(engine.getName()+" cannot load formats");
+		}
+		
+		String name = doc.getPreambleFormat();
+		
+		File fmt = dump(name, doc.getStaticPreamble(), engine);
+		
+		File staged = new File(workDir, fmt.getName());
+		
+		if (staged.isFile() && staged.length() == fmt.length()) {
+			return;
+		}
+		
+		try {
+			try {
+				Files.deleteIfExists(staged.toPath());
+				Files.createLink(staged.toPath(), fmt.toPath());
+			} catch (IOException ioX) {
+				// e.g. the format directory is on a different file system
+				Files.copy(fmt.toPath(), staged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (UnsupportedOperationException uoX) {
+				Files.copy(fmt.toPath(), staged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not place the format "+fmt+" in "+workDir+": "+ioX.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the formatDir
+	 */
+	public File getFormatDir() {
+		return formatDir;
+	}
+	
+	private synchronized File dump(String name, String staticPreamble, TeXEngine engine) throws Java2TeXException {
+		
+		File fmt = new File(formatDir, name + ".fmt");
+		
+		if (fmt.isFile()) {
+			return fmt;
+		}
+		
+		log.info("Dumping the preamble format "+name+" ...");
+		
+		File ini = new File(formatDir, name + ".ltx");
+		
+		try {
+			Writer out = Files.newBufferedWriter(ini.toPath(), UTF8);
+			try {
+				out.write(staticPreamble);
+				out.write("\\dump\n");
+			} finally {
+				out.close();
+			}
+			
+			List<String> args = engine.getFormatCommandLine(name, ini.getName());
+			
+			ProcessBuilder pb = new ProcessBuilder(args);
+			pb.directory(formatDir);
+			pb.redirectErrorStream(true);
+			
+			Process p = pb.start();
+			
+			BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (log.isDebugEnabled()) {
+					log.debug(line);
+				}
+			}
+			
+			int exitCode = p.waitFor();
+			
+			if (exitCode != 0 || ! fmt.isFile()) {
+				fmt.delete();
+				throw new Java2TeXException("Could not dump the format "+name+" (exit code: "+exitCode+")");
+			}
+			
+		} catch (IOException ioX) {
+			throw new Java2TeXException("Could not dump the format "+name+": "+ioX.getMessage());
+		} catch (InterruptedException iX) {
+			Thread.currentThread().interrupt();
+			throw new Java2TeXException("Interrupted while dumping the format "+name);
+		}
+		
+		return fmt;
+	}
+}
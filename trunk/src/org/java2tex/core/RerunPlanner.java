@@ -0,0 +1,183 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Decides how many times the engine must run on a document. Instead of always
+ * running twice, the planner takes a snapshot of the auxiliary files 
+ * (<tt>.aux</tt>, <tt>.toc</tt>, <tt>.lof</tt>, <tt>.lot</tt>) after every pass
+ * and asks for another pass only while they keep changing, up to 
+ * <CODE>maxPasses</CODE>. A document without any references settles after a 
+ * single pass, while a document that needs a third pass gets it.
+ * <P>
+ * In draft mode, every pass except the last one uses the draft mode of the engine,
+ * e.g. <tt>-draftmode</tt>, so that the engine neither writes the PDF nor reads the images. Since nobody 
+ * knows in advance which pass settles the auxiliary files, draft mode costs 
+ * an extra (full) pass once they settle; it pays off for documents with many 
+ * or large images and does not for short documents, hence it is off by default.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class RerunPlanner {
+
+	private static final Logger log = Logger.getLogger(RerunPlanner.class);
+	
+	/** The number of passes that can settle a table of contents whose page numbers move */
+	public static final int DEFAULT_MAX_PASSES = 3;
+	
+	/** The auxiliary files whose content feeds back into the next pass */
+	private static final String[] AUX_EXTENSIONS = {".aux", ".toc", ".lof", ".lot"};
+	
+	private final int maxPasses;
+	
+	private final boolean useDraftMode;
+	
+	public RerunPlanner() {
+		this(DEFAULT_MAX_PASSES, false);
+	}
+	
+	/**
+	 * @param maxPasses the maximum number of passes, at least one
+	 * @param useDraftMode <tt>true</tt> if the passes before the last one should use <tt>-draftmode</tt>
+	 */
+	public RerunPlanner(int maxPasses, boolean useDraftMode) {
+		
+		if (maxPasses < 1) {
+			throw new IllegalArgumentException("At least one pass is required! Found: "+maxPasses);
+		}
+		this.maxPasses = maxPasses;
+		this.useDraftMode = useDraftMode;
+	}
+	
+	/**
+	 * @param pass the number of the pass, starting from one
+	 * @param engine the engine that will run the pass
+	 * @return <tt>true</tt> if the pass should run in draft mode
+	 */
+	public boolean isDraftPass(int pass, TeXEngine engine) {
+		return useDraftMode && pass < maxPasses && engine.supportsDraftMode();
+	}
+	
+	/**
+	 * @param pass the number of the pass that just finished, starting from one
+	 * @return <tt>true</tt> if no more passes are allowed
+	 */
+	public boolean isLastPass(int pass) {
+		return pass >= maxPasses;
+	}
+	
+	/**
+	 * Computes a digest of the auxiliary files of a document. Two snapshots 
+	 * are equal if and only if another pass would read the same auxiliary data.
+	 * Empty files, and <tt>.aux</tt> files that hold nothing but <tt>\relax</tt>,
+	 * are treated as if they did not exist.
+	 * 
+	 * @param workDir the directory of the document
+	 * @param baseName the file name of the document, without the <tt>.tex</tt> extension
+	 * @return the snapshot
+	 */
+	public String snapshot(File workDir, String baseName) {
+		
+		StringBuilder s = new StringBuilder();
+		
+		for (String ext : AUX_EXTENSIONS) {
+			
+			File f = new File(workDir, baseName + ext);
+			
+			s.append(ext).append('=');
+			
+			try {
+				appendDigest(f, s);
+			} catch (IOException ioX) {
+				// Unreadable is as good as changed; another pass will tell
+				log.warn("Could not read "+f+": "+ioX.getMessage());
+				s.append("?").append(System.nanoTime());
+			}
+			s.append(';');
+		}
+		return s.toString();
+	}
+	
+	/**
+	 * @return the maxPasses
+	 */
+	public int getMaxPasses() {
+		return maxPasses;
+	}
+
+	/**
+	 * @return the useDraftMode
+	 */
+	public boolean useDraftMode() {
+		return useDraftMode;
+	}
+
+	private static void appendDigest(File f, StringBuilder s) throws IOException {
+		
+		if ( ! f.isFile() ) {
+			s.append('-');
+			return;
+		}
+		
+		MessageDigest md = Utils.newDigest("SHA-1");
+		
+		boolean isEmpty = true;
+		
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				
+				String trimmed = line.trim();
+				if (trimmed.length() == 0 || trimmed.equals("\\relax")) {
+					continue;
+				}
+				
+				isEmpty = false;
+				md.update(line.getBytes("UTF-8"));
+				md.update((byte) '\n');
+			}
+		} finally {
+			br.close();
+		}
+		
+		if (isEmpty) {
+			s.append('-');
+			return;
+		}
+		
+		s.append(Utils.toHex(md.digest()));
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An append-only temporary file of rows, for tables that do not fit in memory.
+ * Every row is stored as its length in bytes, followed by its UTF-8 encoding.
+ * The rows are read back in order through memory-mapped windows of the file, 
+ * hence reading does not copy the file through the heap.
+ * <P>
+ * The file is deleted by <CODE>close()</CODE>, which the owner of the file must call.
+ * Instances of this class are not thread-safe.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class RowSpillFile implements Iterable<String> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** The size of the memory-mapped windows, for reading the rows back */
+	public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+	
+	private final File file;
+	
+	private DataOutputStream out;
+	
+	private long rowCount = 0;
+	
+	private long byteCount = 0;
+	
+	/**
+	 * @param dir the directory of the temporary file or <tt>null</tt> for the default temporary directory
+	 * @throws IOException if the file cannot be created
+	 */
+	public RowSpillFile(File dir) throws IOException {
+		
+		file = File.createTempFile("java2tex-rows-", ".bin", dir);
+		
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), LatexDocument.WRITE_CHUNK_SIZE));
+	}
+	
+	/**
+	 * @param row the row to append
+	 * @throws IOException
+	 */
+	public void append(String row) throws IOException {
+		
+		if (out == null) {
+			throw new IOException("The spill file "+file+" has been closed!");
+		}
+		
+		byte[] bytes = row.getBytes(UTF8);
+		
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		
+		rowCount++;
+		byteCount += 4 + bytes.length;
+	}
+	
+	/**
+	 * The rows that are appended while iterating are not visited.
+	 * If the file cannot be read, the iterator throws an <CODE>UncheckedIOException</CODE>.
+	 * 
+	 * @return the rows, in the order that they were appended
+	 */
+	public Iterator<String> iterator() {
+		
+		if (out == null) {
+			throw new IllegalStateException("The spill file "+file+" has been closed!");
+		}
+		
+		try {
+			out.flush();
+		} catch (IOException ioX) {
+			throw new UncheckedIOException(ioX);
+		}
+		
+		final long end = byteCount;
+		
+		return new Iterator<String>() {
+
+			private long position = 0;
+			
+			private long windowStart = 0;
+			
+			private MappedByteBuffer window = null;
+			
+			private byte[] buffer = new byte[256];
+			
+			public boolean hasNext() {
+				return position < end;
+			}
+
+			public String next() {
+				
+				if ( ! hasNext() ) {
+					throw new NoSuchElementException();
+				}
+				
+				try {
+					int length = readInt();
+					
+					if (buffer.length < length) {
+						buffer = new byte[Math.max(length, 2 * buffer.length)];
+					}
+					
+					map(length);
+					window.position((int) (position - windowStart));
+					window.get(buffer, 0, length);
+					position += length;
+					
+					return new String(buffer, 0, length, UTF8);
+					
+				} catch (IOException ioX) {
+					throw new UncheckedIOException(ioX);
+				}
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+			
+			private int readInt() throws IOException {
+				
+				map(4);
+				int length = window.getInt((int) (position - windowStart));
+				position += 4;
+				
+				return length;
+			}
+			
+			/**
+			 * Makes sure that the current window holds the next <CODE>n</CODE> bytes.
+			 */
+			private void map(int n) throws IOException {
+				
+				if (window != null && position + n <= windowStart + window.limit()) {
+					return;
+				}
+				
+				long size = Math.min(Math.max(WINDOW_SIZE, n), end - position);
+				
+				FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				try {
+					window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				} finally {
+					// The mapping stays valid after the channel is closed
+					channel.close();
+				}
+				windowStart = position;
+			}
+		};
+	}
+	
+	/**
+	 * @return the number of rows in the file
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+	
+	/**
+	 * @return the temporary file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Closes and deletes the file.
+	 */
+	public void close() {
+		
+		try {
+			if (out != null) {
+				out.close();
+			}
+		} catch (IOException ioX) {
+			// The file is deleted anyway
+		} finally {
+			out = null;
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable sequence of characters that is stored as a list of fixed-size
+ * segments, rather than a single array. Appending never copies the text that
+ * has already been stored, hence it is amortized O(1) per character regardless 
+ * of the total length. The segments can be visited (or written to a 
+ * <CODE>Writer</CODE>) without materializing the whole text as a <CODE>String</CODE>.
+ * 
+ * Instances of this class are not thread-safe.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class SegmentedText implements CharSequence {
+
+	/** The default number of characters in each segment */
+	public static final int DEFAULT_SEGMENT_SIZE = 8192;
+	
+	private final int segmentSize;
+	
+	private final ArrayList<char[]> segments = new ArrayList<char[]>();
+	
+	/** The number of characters used in the last segment */
+	private int tailLength;
+	
+	private int length;
+	
+	public SegmentedText() {
+		this(DEFAULT_SEGMENT_SIZE);
+	}
+	
+	public SegmentedText(int segmentSize) {
+		
+		if (segmentSize < 1) {
+			throw new IllegalArgumentException("The segment size must be positive! Found: "+segmentSize);
+		}
+		this.segmentSize = segmentSize;
+		this.tailLength = segmentSize;
+	}
+	
+	/**
+	 * @param txt the text to append; <tt>null</tt> is appended as <tt>"null"</tt>,
+	 *        just like <CODE>StringBuilder</CODE> does
+	 * @return this instance for chaining
+	 */
+	public SegmentedText append(String txt) {
+		
+		if (txt == null) {
+			txt = "null";
+		}
+		
+		int n = txt.length();
+		int offset = 0;
+		
+		while (offset < n) {
+			
+			char[] tail = tail();
+			
+			int count = Math.min(n - offset, segmentSize - tailLength);
+			txt.getChars(offset, offset + count, tail, tailLength);
+			
+			tailLength += count;
+			offset += count;
+		}
+		
+		length += n;
+		
+		return this;
+	}
+	
+	/**
+	 * @param txt the text to append
+	 * @return this instance for chaining
+	 */
+	public SegmentedText append(CharSequence txt) {
+		
+		if (txt == null || txt instanceof String) {
+			return append((String) txt);
+		}
+		
+		int n = txt.length();
+		
+		for (int i=0; i < n; i++) {
+			append(txt.charAt(i));
+		}
+		return this;
+	}
+	
+	/**
+	 * @param c the character to append
+	 * @return this instance for chaining
+	 */
+	public SegmentedText append(char c) {
+		
+		char[] tail = tail();
+		tail[tailLength++] = c;
+		length++;
+		
+		return this;
+	}
+	
+	/**
+	 * Writes the text, one segment at a time, to <CODE>out</CODE>.
+	 * 
+	 * @param out the destination of the text
+	 * @throws IOException
+	 */
+	public void writeTo(Writer out) throws IOException {
+		
+		int last = segments.size() - 1;
+		
+		for (int i=0; i <= last; i++) {
+			out.write(segments.get(i), 0, i < last ? segmentSize : tailLength);
+		}
+	}
+	
+	/**
+	 * Writes the characters from <CODE>start</CODE> (inclusive) to <CODE>end</CODE>
+	 * (exclusive) to <CODE>out</CODE>, one segment at a time.
+	 * 
+	 * @param out the destination of the text
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	public void writeTo(Writer out, int start, int end) throws IOException {
+		
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Range: ["+start+","+end+"), length: "+length);
+		}
+		
+		int i = start;
+		
+		while (i < end) {
+			
+			int offset = i % segmentSize;
+			int count = Math.min(end - i, segmentSize - offset);
+			
+			out.write(segments.get(i / segmentSize), offset, count);
+			i += count;
+		}
+	}
+	
+	/**
+	 * @return read-only views of the segments, in order; the views share
+	 *         the storage of this instance, so nothing is copied
+	 */
+	public Iterable<CharSequence> segments() {
+		
+		return new Iterable<CharSequence>() {
+			
+			public Iterator<CharSequence> iterator() {
+				
+				return new Iterator<CharSequence>() {
+
+					private int cursor = 0;
+					
+					public boolean hasNext() {
+						return cursor < segments.size();
+					}
+
+					public CharSequence next() {
+						
+						if ( ! hasNext() ) {
+							throw new NoSuchElementException();
+						}
+						
+						int n = cursor < segments.size() - 1 ? segmentSize : tailLength;
+						
+						return CharBuffer.wrap(segments.get(cursor++), 0, n).asReadOnlyBuffer();
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * @return the number of segments that hold the text
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+	
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int index) {
+		
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: "+index+", length: "+length);
+		}
+		return segments.get(index / segmentSize)[index % segmentSize];
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Range: ["+start+","+end+"), length: "+length);
+		}
+		
+		StringBuilder sB = new StringBuilder(end - start);
+		copyTo(sB, start, end);
+		
+		return sB.toString();
+	}
+	
+	@Override
+	public String toString() {
+		
+		StringBuilder sB = new StringBuilder(length);
+		copyTo(sB, 0, length);
+		
+		return sB.toString();
+	}
+	
+	private void copyTo(StringBuilder sB, int start, int end) {
+		
+		int i = start;
+		
+		while (i < end) {
+			
+			int offset = i % segmentSize;
+			int count = Math.min(end - i, segmentSize - offset);
+			
+			sB.append(segments.get(i / segmentSize), offset, count);
+			i += count;
+		}
+	}
+	
+	/**
+	 * @return the last segment, after making sure that it has room for at least one character
+	 */
+	private char[] tail() {
+		
+		if (tailLength == segmentSize) {
+			segments.add(new char[segmentSize]);
+			tailLength = 0;
+		}
+		return segments.get(segments.size() - 1);
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * An engine that runs inside the JVM and does not need TeX at all. 
+ * It reads the LaTeX source, writes the auxiliary files, and a one page 
+ * placeholder PDF. It is meant for load tests and benchmarks of the Java 
+ * side of the pipeline, i.e. the documents, the processors, and the caches, 
+ * on machines without a TeX installation.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class StubEngine extends TeXEngine {
+
+	/** The name of the stub engine, for <CODE>TeXEngine.forCommand</CODE> */
+	public static final String NAME = "stub";
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	public StubEngine() {
+		super(NAME, null);
+	}
+	
+	@Override
+	protected String getDraftModeOption() {
+		return "-draftmode";
+	}
+	
+	@Override
+	public boolean supportsFormats() {
+		return false;
+	}
+	
+	@Override
+	public boolean isInProcess() {
+		return true;
+	}
+	
+	@Override
+	public int runInProcess(File workDir, String filename, boolean isDraft, OutputPump pump) throws IOException {
+		
+		File texFile = new File(workDir, filename);
+		
+		String baseName = filename;
+		int dot = baseName.lastIndexOf('.');
+		if (dot > 0) {
+			baseName = baseName.substring(0, dot);
+		}
+		
+		pump.accept("This is the Java2TeX stub engine");
+		
+		if ( ! texFile.isFile() ) {
+			pump.accept("! I can't find file `" + filename + "'.");
+			return 1;
+		}
+		
+		// Consume the source, as an engine would
+		long length = 0;
+		char[] buffer = new char[LatexDocument.WRITE_CHUNK_SIZE];
+		Reader in = Files.newBufferedReader(texFile.toPath(), UTF8);
+		try {
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				length += n;
+			}
+		} finally {
+			in.close();
+		}
+		
+		write(new File(workDir, baseName + ".aux"), "\\relax \n");
+		
+		File pdfFile = new File(workDir, baseName + ".pdf");
+		
+		// The compile cache reads the inputs and outputs from the recorder file
+		StringBuilder fls = new StringBuilder();
+		fls.append("PWD ").append(workDir.getAbsolutePath()).append('\n');
+		fls.append("INPUT ").append(filename).append('\n');
+		fls.append("OUTPUT ").append(baseName).append(".aux\n");
+		
+		if (isDraft) {
+			write(new File(workDir, baseName + ".fls"), fls.toString());
+			pump.accept("No pages of output.");
+			return 0;
+		}
+		
+		fls.append("OUTPUT ").append(pdfFile.getName()).append('\n');
+		write(new File(workDir, baseName + ".fls"), fls.toString());
+		
+		byte[] pdf = placeholderPdf(filename, length);
+		OutputStream out = new FileOutputStream(pdfFile);
+		try {
+			out.write(pdf);
+		} finally {
+			out.close();
+		}
+		
+		pump.accept("Output written on " + pdfFile.getName() + " (1 page, " + pdf.length + " bytes).");
+		
+		return 0;
+	}
+	
+	private static void write(File f, String text) throws IOException {
+		
+		Writer out = Files.newBufferedWriter(f.toPath(), UTF8);
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * @return a valid PDF with one page, which shows the name and the length of the source
+	 */
+	private static byte[] placeholderPdf(String filename, long length) {
+		
+		String text = "Java2TeX stub: " + filename.replaceAll("[()\\\\]", "") + ", " + length + " characters";
+		String content = "BT /F1 12 Tf 72 720 Td (" + text + ") Tj ET";
+		
+		String[] objects = {
+			"<< /Type /Catalog /Pages 2 0 R >>",
+			"<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+			"<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Contents 4 0 R /Resources << /Font << /F1 5 0 R >> >> >>",
+			"<< /Length " + content.length() + " >>\nstream\n" + content + "\nendstream",
+			"<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>"
+		};
+		
+		StringBuilder pdf = new StringBuilder("%PDF-1.4\n");
+		int[] offsets = new int[objects.length];
+		for (int i=0; i < objects.length; i++) {
+			offsets[i] = pdf.length();
+			pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+		}
+		
+		int xref = pdf.length();
+		pdf.append("xref\n0 ").append(objects.length + 1).append('\n');
+		pdf.append("0000000000 65535 f \n");
+		for (int offset : offsets) {
+			pdf.append(String.format("%010d 00000 n \n", offset));
+		}
+		pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\n");
+		pdf.append("startxref\n").append(xref).append("\n%%EOF\n");
+		
+		// The name of the file may not be ASCII; the offsets count characters
+		return pdf.toString().replaceAll("[^\\x00-\\x7f]", "?").getBytes(ASCII);
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TeX engine, e.g. <tt>pdflatex</tt>. The engine knows its command line,
+ * the options that it supports, and how to read its output. 
+ * The default implementation describes the command line of the 
+ * <tt>web2c</tt> engines of TeX Live and MiKTeX.
+ * <P>
+ * Engines that are not external programs run in-process, through 
+ * <CODE>runInProcess</CODE>.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public abstract class TeXEngine {
+
+	private final String name;
+	
+	private final String commandDir;
+	
+	/**
+	 * @param name the name of the executable, e.g. <tt>pdflatex</tt>
+	 * @param commandDir the directory of the executable or <tt>null</tt>,
+	 *        if the executable is on the <CODE>PATH</CODE>
+	 */
+	protected TeXEngine(String name, String commandDir) {
+		this.name = name;
+		this.commandDir = commandDir;
+	}
+	
+	/**
+	 * @param teXCommand the name of the executable, e.g. <tt>xelatex</tt>
+	 * @param teXCommandDir the directory of the executable or <tt>null</tt>
+	 * @return the engine that runs <CODE>teXCommand</CODE>
+	 */
+	public static TeXEngine forCommand(String teXCommand, String teXCommandDir) {
+		
+		String name = new File(teXCommand).getName().toLowerCase();
+		
+		if (name.endsWith(".exe")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		
+		if (name.startsWith("xe")) {
+			return new XeLatexEngine(teXCommand, teXCommandDir);
+		} else if (name.startsWith("lua")) {
+			return new LuaLatexEngine(teXCommand, teXCommandDir);
+		} else if (name.equals(StubEngine.NAME)) {
+			return new StubEngine();
+		} else {
+			return new PdfLatexEngine(teXCommand, teXCommandDir);
+		}
+	}
+	
+	/**
+	 * @return the name of the executable, e.g. <tt>pdflatex</tt>
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the directory of the executable or <tt>null</tt>
+	 */
+	public String getCommandDir() {
+		return commandDir;
+	}
+	
+	/**
+	 * @return the executable, with its directory if there is one
+	 */
+	public String getCommand() {
+		
+		if (commandDir == null) {
+			return name;
+		}
+		return commandDir + File.separator + name;
+	}
+	
+	/**
+	 * @return the name of the engine and of its standard format, without 
+	 *         any directory or extension, e.g. <tt>pdflatex</tt>
+	 */
+	public String getFormatName() {
+		
+		String format = new File(name).getName();
+		
+		if (format.toLowerCase().endsWith(".exe")) {
+			format = format.substring(0, format.length() - 4);
+		}
+		return format;
+	}
+	
+	/**
+	 * @return the option that updates the auxiliary files without producing 
+	 *         a PDF, or <tt>null</tt> if the engine has no such option
+	 */
+	protected String getDraftModeOption() {
+		return null;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the engine has a draft mode
+	 */
+	public boolean supportsDraftMode() {
+		return getDraftModeOption() != null;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the engine can write its output in another directory
+	 */
+	public boolean supportsOutputDirectory() {
+		return true;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the engine can load a precompiled format
+	 */
+	public boolean supportsFormats() {
+		return true;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the engine runs inside the JVM
+	 */
+	public boolean isInProcess() {
+		return false;
+	}
+	
+	/**
+	 * @param filename the LaTeX source, relative to the working directory
+	 * @param isDraft <tt>true</tt> for a pass in draft mode; it is ignored if the engine has no draft mode
+	 * @param isRecorder <tt>true</tt> for recording the input files in a <tt>.fls</tt> file
+	 * @param format the precompiled format or <tt>null</tt> for the standard format
+	 * @param outputDir the directory of the output or <tt>null</tt> for the working directory
+	 * @return the command line of a pass
+	 */
+	public List<String> getCommandLine(String filename, boolean isDraft, boolean isRecorder, String format, File outputDir) {
+		
+		// By default the engine waits for an user input on error. The -halt-on-error option 
+		// will terminate the engine on error.
+		List<String> args = new ArrayList<String>();
+		args.add(getCommand());
+		args.add("-halt-on-error");
+		if (isDraft && supportsDraftMode()) {
+			args.add(getDraftModeOption());
+		}
+		if (isRecorder) {
+			args.add("-recorder");
+		}
+		if (format != null) {
+			args.add("-fmt=" + format);
+		}
+		if (outputDir != null && supportsOutputDirectory()) {
+			args.add("-output-directory=" + outputDir.getPath());
+		}
+		args.add(filename);
+		
+		return args;
+	}
+	
+	/**
+	 * @param format the name of the format to dump
+	 * @param iniFile the file that holds the preamble, followed by <tt>\dump</tt>
+	 * @return the command line that dumps a format
+	 */
+	public List<String> getFormatCommandLine(String format, String iniFile) {
+		
+		List<String> args = new ArrayList<String>();
+		args.add(getCommand());
+		args.add("-ini");
+		args.add("-halt-on-error");
+		args.add("-interaction=nonstopmode");
+		args.add("-jobname=" + format);
+		args.add("&" + getFormatName());
+		args.add(iniFile);
+		
+		return args;
+	}
+	
+	/**
+	 * @param jobName the name of the job
+	 * @return the pump that reads the output of a pass
+	 */
+	public OutputPump newOutputPump(String jobName) {
+		return new OutputPump(jobName);
+	}
+	
+	/**
+	 * Runs a pass inside the JVM. It is called only if <CODE>isInProcess()</CODE>.
+	 * 
+	 * @param workDir the working directory
+	 * @param filename the LaTeX source, relative to the working directory
+	 * @param isDraft <tt>true</tt> for a pass in draft mode
+	 * @param pump receives the output of the pass
+	 * @return the exit code of the pass
+	 * @throws IOException
+	 */
+	public int runInProcess(File workDir, String filename, boolean isDraft, OutputPump pump) throws IOException {
+		throw new UnsupportedOperationException(name+" does not run in-process");
+	}
+	
+	@Override
+	public String toString() {
+		return getCommand();
+	}
+}
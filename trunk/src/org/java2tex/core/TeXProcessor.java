@@ -23,7 +23,11 @@
  
 package org.java2tex.core;
 
-
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * A Interface for processors. 
@@ -44,6 +48,59 @@ public interface TeXProcessor {
 	 */
 	public void process(LatexDocument doc) throws Java2TeXException;
 	
+	/**
+	 * Compiles the document without blocking the calling thread. 
+	 * Cancelling the future kills the engine processes of this document only.
+	 * <P>
+	 * The default implementation runs <CODE>process</CODE> in the common pool 
+	 * and expects the PDF in the root directory. It cannot be cancelled and 
+	 * it knows nothing about the run but whether there is a PDF; processors 
+	 * that can do better override it.
+	 * 
+	 * @param doc
+	 * @return the future result of the compilation
+	 * @throws Java2TeXException if the compilation could not be started
+	 */
+	public default CompletableFuture<CompileResult> processAsync(final LatexDocument doc) throws Java2TeXException {
+		
+		String name = doc.getFilename();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		
+		final File pdfFile = new File(getLatexRootDir(), name + ".pdf");
+		
+		return CompletableFuture.supplyAsync(new Supplier<CompileResult>() {
+			public CompileResult get() {
+				try {
+					process(doc);
+				} catch (Java2TeXException j2tX) {
+					throw new CompletionException(j2tX);
+				}
+				
+				CompileResult result = new CompileResult(doc.getFilename(), pdfFile);
+				result.setExitCode(pdfFile.isFile() ? 0 : -1);
+				return result;
+			}
+		});
+	}
+	
+	/**
+	 * Compiles the document without blocking the calling thread. If the 
+	 * compilation is not over within the given time, it is cancelled and 
+	 * the future completes with a <CODE>TimeoutException</CODE>.
+	 * 
+	 * @param doc
+	 * @param timeout
+	 * @param unit
+	 * @return the future result of the compilation
+	 * @throws Java2TeXException if the compilation could not be started
+	 */
+	public default CompletableFuture<CompileResult> processAsync(LatexDocument doc, long timeout, TimeUnit unit) throws Java2TeXException {
+		return processAsync(doc).orTimeout(timeout, unit);
+	}
+	
 	/**
 	 * @param rootDir
 	 * @throws Java2TeXException
@@ -0,0 +1,94 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The size of the text on a page, i.e. the room that figures and tables have.
+ * Documents set <tt>\textwidth</tt> and <tt>\textheight</tt> from it, and 
+ * <CODE>LatexGraphics.autoFit</CODE>, the <CODE>ImagePipeline</CODE> and the 
+ * <CODE>PaginatedTable</CODE> size their output for it, so that all of them 
+ * agree on the layout of the page.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class TextArea {
+
+	/** The text of the documents, unless they set another one */
+	public static final TextArea DEFAULT = new TextArea(15, 21);
+	
+	private final double width;
+	
+	private final double height;
+	
+	/**
+	 * @param width the width of the text, in centimeters
+	 * @param height the height of the text, in centimeters
+	 */
+	public TextArea(double width, double height) {
+		
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("The text must have a positive size! Found: "+width+"x"+height);
+		}
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * @return the width of the text, in centimeters
+	 */
+	public double getWidth() {
+		return width;
+	}
+	
+	/**
+	 * @return the height of the text, in centimeters
+	 */
+	public double getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return the LaTeX code that sets the size of the text, in the preamble of a document
+	 */
+	public String getLatex() {
+		return "\\textwidth "+format(width)+"cm \n\\textheight "+format(height)+"cm \n";
+	}
+	
+	@Override
+	public String toString() {
+		return format(width)+"cm x "+format(height)+"cm";
+	}
+	
+	/**
+	 * @return the length with at most two decimals and without trailing zeros, e.g. <tt>15</tt> or <tt>12.65</tt>
+	 */
+	private static String format(double cm) {
+		return BigDecimal.valueOf(cm).setScale(2, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+	}
+}
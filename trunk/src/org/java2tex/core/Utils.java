@@ -0,0 +1,160 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The small helpers that the caches and the background workers of Java2TeX 
+ * share: content hashes in hex, files that appear atomically, paths as LaTeX
+ * expects them, and daemon threads.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public final class Utils {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private Utils() {
+	}
+	
+	/**
+	 * @param algorithm e.g. <tt>SHA-256</tt>
+	 * @return a new digest; every Java platform supports <tt>SHA-1</tt> and <tt>SHA-256</tt>
+	 */
+	public static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException nsaX) {
+			throw new IllegalStateException(nsaX.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the bytes in lower case hex, two digits per byte
+	 */
+	public static String toHex(byte[] bytes) {
+		return toHex(bytes, bytes.length);
+	}
+	
+	/**
+	 * @param n the number of leading bytes to convert
+	 * @return the first <CODE>n</CODE> bytes in lower case hex, two digits per byte
+	 */
+	public static String toHex(byte[] bytes, int n) {
+		
+		StringBuilder hex = new StringBuilder(2 * n);
+		for (int i=0; i < n; i++) {
+			hex.append(HEX[(bytes[i] >> 4) & 0xf]).append(HEX[bytes[i] & 0xf]);
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * @return the SHA-256 hash of the UTF-8 encoding of <CODE>s</CODE>, in hex
+	 */
+	public static String sha256(String s) {
+		return toHex(newDigest("SHA-256").digest(s.getBytes(UTF8)));
+	}
+	
+	/**
+	 * @return the SHA-256 hash of the content of <CODE>f</CODE>, in hex
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String sha256(File f) throws IOException {
+		
+		MessageDigest md = newDigest("SHA-256");
+		
+		byte[] buffer = new byte[65536];
+		
+		InputStream in = new FileInputStream(f);
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				md.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(md.digest());
+	}
+	
+	/**
+	 * Moves a complete file, usually a temporary one next to <CODE>target</CODE>, 
+	 * into place; readers of <CODE>target</CODE> never see a partial file, 
+	 * unless the file system cannot move files atomically.
+	 * 
+	 * @param from the complete file
+	 * @param target the destination; it is replaced, if it exists
+	 * @throws IOException
+	 */
+	public static void publish(File from, File target) throws IOException {
+		try {
+			Files.move(from.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException amnsX) {
+			Files.move(from.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * @return the path of <CODE>f</CODE> with forward slashes, which LaTeX 
+	 *         expects on every platform, e.g. in <tt>\includegraphics</tt>
+	 */
+	public static String toLatexPath(File f) {
+		return f.getPath().replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * @param prefix the prefix of the names of the threads, e.g. <tt>java2tex-images-1-</tt>
+	 * @return a factory of daemon threads, which do not keep the JVM alive, 
+	 *         named after <CODE>prefix</CODE> and a counter
+	 */
+	public static ThreadFactory daemonThreads(final String prefix) {
+		
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
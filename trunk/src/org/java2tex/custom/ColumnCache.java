@@ -0,0 +1,91 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+import java.util.List;
+
+import org.java2tex.core.ColumnMeta;
+
+/**
+ * The LaTeX source that a table derives from its columns, e.g. the column 
+ * specification or the whole table, cached until a column changes. A change 
+ * is detected by a key over the identity and the <CODE>getModCount()</CODE> 
+ * of every <CODE>ColumnMeta</CODE>, along with a number that the table 
+ * passes for its own state, e.g. its number of rows.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+final class ColumnCache {
+
+	private String value = null;
+	
+	private long key;
+	
+	/**
+	 * @param columns the columns of the table or <tt>null</tt>
+	 * @param state the part of the state of the table that the value depends on
+	 * @return the cached value or <tt>null</tt>, if it is missing or stale
+	 */
+	String get(List<ColumnMeta> columns, long state) {
+		
+		if (value != null && key == getKey(columns, state)) {
+			return value;
+		}
+		return null;
+	}
+	
+	/**
+	 * @param columns the columns of the table or <tt>null</tt>
+	 * @param state the part of the state of the table that the value depends on
+	 * @param value
+	 * @return <CODE>value</CODE>
+	 */
+	String put(List<ColumnMeta> columns, long state, String value) {
+		
+		this.key = getKey(columns, state);
+		this.value = value;
+		
+		return value;
+	}
+	
+	void clear() {
+		value = null;
+	}
+	
+	private static long getKey(List<ColumnMeta> columns, long state) {
+		
+		long key = state;
+		
+		if (columns != null) {
+			key = 31 * key + columns.size();
+			for (ColumnMeta colMeta : columns) {
+				key = 31 * key + (colMeta == null ? 0 : System.identityHashCode(colMeta));
+				key = 31 * key + (colMeta == null ? 0 : colMeta.getModCount());
+			}
+		}
+		return key;
+	}
+}
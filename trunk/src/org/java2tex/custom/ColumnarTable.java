@@ -0,0 +1,817 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+import org.java2tex.core.CellFormat;
+import org.java2tex.core.ColumnMeta;
+import org.java2tex.core.Java2TeXException;
+import org.java2tex.core.LatexTable;
+
+/**
+ * A table that stores its cells by column, in primitive arrays, rather than
+ * as a <CODE>String</CODE> per cell. Numeric columns are <CODE>double[]</CODE>, 
+ * <CODE>long[]</CODE> or <CODE>int[]</CODE>; text columns are dictionary 
+ * encoded, i.e. every distinct value is stored once and the cells hold its code. 
+ * The values are formatted, according to the <CODE>CellFormat</CODE> of the 
+ * <CODE>ColumnMeta</CODE> of their column, straight into the output when the 
+ * table is written.
+ * <P>
+ * The rows can be appended one at a time, with <CODE>newRow()</CODE> and 
+ * the <CODE>set</CODE> methods, or a whole column can be added at once.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class ColumnarTable implements LatexTable {
+
+	private static final Logger log = Logger.getLogger(ColumnarTable.class);
+	
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private static final int WRITE_CHUNK_SIZE = 8192;
+	
+	/** 
+	 * This ID is set by the <CODE>LatexDocument</CODE>, it can be used for
+	 * reference of the table from anywhere else inside the document.
+	 */ 
+	private String id=null;
+	
+	// GENERAL
+	private int nRows=0;
+	private String caption=null;
+	
+	// COLUMNS
+	private ArrayList<ColumnMeta> columnMeta=new ArrayList<ColumnMeta>();
+	private ArrayList<Column> columns=new ArrayList<Column>();
+	
+	//ROWS
+	private String shadeColor="lightgray";
+	
+	/** The maximum number of rows per environment or <tt>-1</tt> for a single environment */
+	private int maxRowsPerEnvironment = -1;
+	
+	private StringBuilder latex = new StringBuilder(); 
+	
+	/** The specification of the columns, until the columns change */
+	private ColumnCache cachedAlignment = new ColumnCache();
+	
+	private boolean isLongTable=false;
+	private boolean isLandscape = false;
+	private boolean hasHorizontalLines=false;
+	private boolean hasShading=false;
+	
+	public ColumnarTable(String caption) {
+		this.caption = caption;
+	}
+	
+	/**
+	 * @param meta the description of the column
+	 * @return the index of the new column
+	 */
+	public int addDoubleColumn(ColumnMeta meta) {
+		return add(meta, new DoubleColumn(new double[Math.max(nRows, INITIAL_CAPACITY)]), nRows);
+	}
+	
+	/**
+	 * @param meta the description of the column
+	 * @return the index of the new column
+	 */
+	public int addLongColumn(ColumnMeta meta) {
+		return add(meta, new LongColumn(new long[Math.max(nRows, INITIAL_CAPACITY)]), nRows);
+	}
+	
+	/**
+	 * @param meta the description of the column
+	 * @return the index of the new column
+	 */
+	public int addIntColumn(ColumnMeta meta) {
+		return add(meta, new IntColumn(new int[Math.max(nRows, INITIAL_CAPACITY)]), nRows);
+	}
+	
+	/**
+	 * @param meta the description of the column
+	 * @return the index of the new column
+	 */
+	public int addTextColumn(ColumnMeta meta) {
+		
+		int[] codes = new int[Math.max(nRows, INITIAL_CAPACITY)];
+		Arrays.fill(codes, -1);
+		
+		return add(meta, new TextColumn(codes), nRows);
+	}
+	
+	/**
+	 * Adds a whole column. The array is used as is, not copied.
+	 * 
+	 * @param meta the description of the column
+	 * @param values the cells of the column, one per row
+	 * @return the index of the new column
+	 * @throws Java2TeXException if the number of values differs from the number of rows
+	 */
+	public int addColumn(ColumnMeta meta, double[] values) throws Java2TeXException {
+		checkLength(values.length);
+		return add(meta, new DoubleColumn(values), values.length);
+	}
+	
+	/**
+	 * Adds a whole column. The array is used as is, not copied.
+	 * 
+	 * @param meta the description of the column
+	 * @param values the cells of the column, one per row
+	 * @return the index of the new column
+	 * @throws Java2TeXException if the number of values differs from the number of rows
+	 */
+	public int addColumn(ColumnMeta meta, long[] values) throws Java2TeXException {
+		checkLength(values.length);
+		return add(meta, new LongColumn(values), values.length);
+	}
+	
+	/**
+	 * Adds a whole column. The array is used as is, not copied.
+	 * 
+	 * @param meta the description of the column
+	 * @param values the cells of the column, one per row
+	 * @return the index of the new column
+	 * @throws Java2TeXException if the number of values differs from the number of rows
+	 */
+	public int addColumn(ColumnMeta meta, int[] values) throws Java2TeXException {
+		checkLength(values.length);
+		return add(meta, new IntColumn(values), values.length);
+	}
+	
+	/**
+	 * Adds a whole text column, which is dictionary encoded.
+	 * 
+	 * @param meta the description of the column
+	 * @param values the cells of the column, one per row
+	 * @return the index of the new column
+	 * @throws Java2TeXException if the number of values differs from the number of rows
+	 */
+	public int addColumn(ColumnMeta meta, String[] values) throws Java2TeXException {
+		
+		checkLength(values.length);
+		
+		// Every code is set below; rows added later are filled with -1 as the array grows
+		TextColumn column = new TextColumn(new int[values.length]);
+		for (int i=0; i < values.length; i++) {
+			column.set(i, values[i]);
+		}
+		return add(meta, column, values.length);
+	}
+	
+	/**
+	 * Appends an empty row; its cells are set with the <CODE>set</CODE> methods.
+	 * 
+	 * @return the index of the new row
+	 */
+	public int newRow() {
+		
+		for (Column column : columns) {
+			column.ensureCapacity(nRows + 1);
+		}
+		return nRows++;
+	}
+	
+	/**
+	 * Sets a cell of the last row.
+	 * 
+	 * @param col the index of the column
+	 * @param value
+	 */
+	public void set(int col, double value) {
+		columns.get(col).set(lastRow(), value);
+	}
+	
+	/**
+	 * Sets a cell of the last row.
+	 * 
+	 * @param col the index of the column
+	 * @param value
+	 */
+	public void set(int col, long value) {
+		columns.get(col).set(lastRow(), value);
+	}
+	
+	/**
+	 * Sets a cell of the last row.
+	 * 
+	 * @param col the index of the column
+	 * @param value
+	 */
+	public void set(int col, String value) {
+		columns.get(col).set(lastRow(), value);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#initLatex()
+	 */
+	public void initLatex() throws Java2TeXException {
+		
+		if (isLandscape()) {
+			add("\\begin{landscape}");
+		}
+
+		add("\\begin{table}[h!b!p!]");
+		add("\\caption{"+getCaption()+"}");
+
+		if (hasShading()) {
+			add("\\rowcolors{2}{"+getShadeColor()+"}{}");
+		}
+		
+		if ( isLongTable() ) {
+			insert("\\begin{supertabular}");
+		} else {
+			insert("\\begin{tabular}");
+		}
+		add(getColumnAlignment());		
+	}
+
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#getLatex()
+	 */
+	public String getLatex() throws Java2TeXException {
+		
+		StringWriter out = new StringWriter();
+		try {
+			writeTo(out);
+		} catch (IOException ioX) {
+			// A StringWriter never throws
+			log.error(ioX.getMessage());
+		}
+		return out.toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#writeTo(java.io.Writer)
+	 */
+	public void writeTo(Writer out) throws Java2TeXException, IOException {
+		
+		if (columns.isEmpty()) {
+			throw new Java2TeXException("Add the columns before using the table!");
+		}
+		
+		latex.setLength(0);
+		
+		initLatex();
+		
+		addHorizontalLine();
+		
+		if (hasHeaders()) {
+			printHeaders();
+		}
+		
+		if ( hasHorizontalLines()) {
+			addHorizontalLine();
+		}
+		
+		flush(out);
+		
+		String rowEnd = hasHorizontalLines() ? "\\\\ \\hline\n" : "\\\\\n";
+		
+		int nCols = columns.size();
+		CellFormat[] formats = new CellFormat[nCols];
+		for (int j=0; j < nCols; j++) {
+			formats[j] = columnMeta.get(j).getFormat();
+		}
+		
+		// The rows are rendered into a reusable buffer, which is written in chunks
+		StringBuilder rows = new StringBuilder(2 * WRITE_CHUNK_SIZE);
+		char[] chunk = new char[2 * WRITE_CHUNK_SIZE];
+		
+		for (int i=0; i < nRows; i++) {
+			
+			if (TableChunks.isBoundary(i, maxRowsPerEnvironment)) {
+				chunk = write(rows, chunk, out);
+				addEnvironmentBreak(i);
+				flush(out);
+			}
+			
+			for (int j=0; j < nCols; j++) {
+				if (j > 0) {
+					rows.append(" & ");
+				}
+				columns.get(j).format(i, formats[j], rows);
+			}
+			rows.append(rowEnd);
+			
+			if (rows.length() >= WRITE_CHUNK_SIZE) {
+				chunk = write(rows, chunk, out);
+			}
+		}
+		write(rows, chunk, out);
+		
+		addHorizontalLine();
+		
+		if ( isLongTable() ) {
+			add("\\end{supertabular}");
+		} else {
+			add("\\end{tabular}");
+		}
+
+		add("\\label{"+getId()+"}");
+		
+		add("\\end{table}");
+		
+		if (isLandscape()) {
+			add("\\end{landscape}");
+		}
+		
+		flush(out);
+	}
+	
+	/**
+	 * Writes the buffer to <CODE>out</CODE> and empties it, without creating a <CODE>String</CODE>.
+	 * 
+	 * @return the chunk, which may have grown
+	 */
+	private static char[] write(StringBuilder buffer, char[] chunk, Writer out) throws IOException {
+		
+		int n = buffer.length();
+		if (chunk.length < n) {
+			chunk = new char[n];
+		}
+		buffer.getChars(0, n, chunk, 0);
+		out.write(chunk, 0, n);
+		buffer.setLength(0);
+		
+		return chunk;
+	}
+	
+	/**
+	 * Ends the current environment and begins the next one, which continues 
+	 * the shading and the vertical lines of the table. 
+	 * 
+	 * @param rowsBefore the number of rows that have been written
+	 */
+	private void addEnvironmentBreak(long rowsBefore) throws Java2TeXException {
+		
+		if ( isLongTable() ) {
+			add("\\end{supertabular}");
+		} else {
+			add("\\end{tabular}\\par\\nointerlineskip");
+		}
+		
+		if (hasShading()) {
+			add(TableChunks.getRowColors(getShadeColor(), rowsBefore, hasHeaders() ? 1 : 0));
+		}
+		
+		if ( isLongTable() ) {
+			add("\\begin{supertabular}"+getColumnAlignment());
+		} else {
+			add("\\begin{tabular}"+getColumnAlignment());
+		}
+	}
+	
+	/**
+	 * Writes the buffer of this table to <CODE>out</CODE> and empties it.
+	 */
+	private void flush(Writer out) throws IOException {
+		
+		out.append(latex);
+		latex.setLength(0);
+	}
+	
+	/**
+	 * The rows are formatted from the columns when the table is written.
+	 */
+	public boolean isStreaming() {
+		return true;
+	}
+
+	public String getColumnAlignment() throws Java2TeXException {
+		
+		String cached = cachedAlignment.get(columnMeta, 0);
+		if (cached != null) {
+			return cached;
+		}
+		
+		StringBuilder s = new StringBuilder("{");
+		
+		for (ColumnMeta colMeta : columnMeta) {
+			
+			if (colMeta.getAlignment().length() == 1) {
+				if (colMeta.hasLeftSeparator()) {
+					s.append("|");
+				}
+			
+				if (colMeta.getBackgroundColour() != null) {
+					s.append(">{\\columncolor{"+colMeta.getBackgroundColour()+"}}");
+				}
+				
+				s.append(colMeta.getAlignment());
+
+				if (colMeta.hasRightSeparator()) {
+					s.append("|");
+				}
+			} else {
+				
+				s.append(colMeta.getAlignment());					
+			}
+		}
+		
+		s.append("}");
+		
+		return cachedAlignment.put(columnMeta, 0, s.toString());
+	}
+	
+	private boolean hasHeaders() {
+		
+		for (ColumnMeta colMeta : columnMeta) {
+			if (colMeta.getHeader() != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void printHeaders() {
+		
+		int dummyColumnCount=0;
+
+		for (ColumnMeta colMeta : columnMeta) {
+			
+			String cell = colMeta.getHeader() == null ? "" : colMeta.getHeader();
+			
+			if (dummyColumnCount > 0) {
+				insert(" & \\bf{"+cell+"}");
+			} else {
+				insert("\\bf{"+cell+"}");
+			}
+			dummyColumnCount++;
+		}
+		
+		add("\\\\ \\hline");
+	}
+
+	public void addHorizontalLine() {
+		add("\\hline");
+	}
+	
+	public void addHorizontalLine(int start) {
+		add("\\cline{"+start+"-"+getNCols()+"}");
+	}
+	
+	public void addHorizontalLine(int start,int end) {
+		add("\\cline{"+start+"-"+end+"}");
+	}
+	
+	/**
+	 * The rows of this table come from its columns; there is nothing to end.
+	 */
+	public void endRow() {
+		log.warn("The rows of a columnar table are added with newRow()");
+	}
+	
+	private void add(String txt) {
+		latex.append(txt).append("\n");
+	}
+
+	private void insert(String txt) {
+		latex.append(txt);
+	}
+	
+	/**
+	 * @param rows the number of rows that the column holds; only the first
+	 *        column of a table sets the number of rows
+	 */
+	private int add(ColumnMeta meta, Column column, int rows) {
+		
+		columnMeta.add(meta);
+		columns.add(column);
+		
+		if (columns.size() == 1) {
+			nRows = rows;
+		}
+		return columns.size() - 1;
+	}
+	
+	private void checkLength(int length) throws Java2TeXException {
+		
+		if ( ! columns.isEmpty() && length != nRows ) {
+			throw new Java2TeXException("The table has "+nRows+" rows; the column has "+length+" values!");
+		}
+	}
+	
+	private int lastRow() {
+		
+		if (nRows == 0) {
+			throw new IllegalStateException("Call newRow() before setting the cells of a row!");
+		}
+		return nRows - 1;
+	}
+
+	public String getCaption() {
+		return caption;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the id to set
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public boolean isLandscape() {
+		return isLandscape;
+	}
+
+	public void setLandscape(boolean isLandscape) {
+		this.isLandscape = isLandscape;
+	}
+
+	public boolean hasHorizontalLines() {
+		return hasHorizontalLines;
+	}
+
+	public void hasHorizontalLines(boolean hasHorizontalLines) {
+		this.hasHorizontalLines = hasHorizontalLines;
+	}
+
+	public String[] getHeaders() {
+		
+		String[] headers = new String[columnMeta.size()];
+		for (int j=0; j < headers.length; j++) {
+			headers[j] = columnMeta.get(j).getHeader();
+		}
+		return headers;
+	}
+
+	public ArrayList<ColumnMeta> getColumnMeta() {
+		return columnMeta;
+	}
+
+	/**
+	 * A column without values is a text column.
+	 */
+	public void addColumn(ColumnMeta c) {
+		addTextColumn(c);
+	}
+
+	public int getNRows() {
+		return nRows;
+	}
+
+	public int getNCols() {
+		return columns.size();
+	}
+
+	/**
+	 * @return the maximum number of rows per environment or <tt>-1</tt> for a single environment
+	 */
+	public int getMaxRowsPerEnvironment() {
+		return maxRowsPerEnvironment;
+	}
+
+	/**
+	 * Splits the rows of this table into consecutive environments of at most 
+	 * <CODE>maxRows</CODE> rows each, not counting the header row.
+	 * 
+	 * @param maxRows the maximum number of rows per environment or <tt>-1</tt> for a single environment
+	 */
+	public void setMaxRowsPerEnvironment(int maxRows) {
+		
+		if (maxRows == 0 || maxRows < -1) {
+			throw new IllegalArgumentException("The maximum number of rows must be positive or -1! Found: "+maxRows);
+		}
+		this.maxRowsPerEnvironment = maxRows;
+	}
+
+	/**
+	 * @return the isLongTable
+	 */
+	public boolean isLongTable() {
+		return isLongTable;
+	}
+
+	/**
+	 * @param isLongTable the isLongTable to set
+	 */
+	public void setLongTable(boolean isLongTable) {
+		this.isLongTable = isLongTable;
+	}
+
+	/**
+	 * @return the hasShading
+	 */
+	public boolean hasShading() {
+		return hasShading;
+	}
+
+	/**
+	 * @param hasShading the hasShading to set
+	 */
+	public void hasShading(boolean hasShading) {
+		this.hasShading = hasShading;
+	}
+
+	/**
+	 * @return the shadeColor
+	 */
+	public String getShadeColor() {
+		return shadeColor;
+	}
+
+	/**
+	 * @param shadeColor the shadeColor to set
+	 */
+	public void setShadeColor(String shadeColor) {
+		this.shadeColor = shadeColor;
+	}
+	
+	//--------------------------------------------------------------------------
+	// COLUMNS
+	//--------------------------------------------------------------------------
+	private static abstract class Column {
+		
+		abstract void ensureCapacity(int capacity);
+		
+		abstract void format(int row, CellFormat format, StringBuilder out);
+		
+		void set(int row, double value) {
+			throw new IllegalArgumentException("The column does not hold numbers with decimals!");
+		}
+		
+		void set(int row, long value) {
+			throw new IllegalArgumentException("The column does not hold integer numbers!");
+		}
+		
+		void set(int row, String value) {
+			throw new IllegalArgumentException("The column does not hold text!");
+		}
+		
+		static int grow(int length, int capacity) {
+			return Math.max(capacity, length + (length >> 1));
+		}
+	}
+	
+	private static class DoubleColumn extends Column {
+		
+		private double[] values;
+		
+		DoubleColumn(double[] values) {
+			this.values = values;
+		}
+		
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+		
+		void format(int row, CellFormat format, StringBuilder out) {
+			if (format == null) {
+				out.append(values[row]);
+			} else {
+				format.format(values[row], out);
+			}
+		}
+		
+		void set(int row, double value) {
+			values[row] = value;
+		}
+		
+		void set(int row, long value) {
+			values[row] = value;
+		}
+	}
+	
+	private static class LongColumn extends Column {
+		
+		private long[] values;
+		
+		LongColumn(long[] values) {
+			this.values = values;
+		}
+		
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+		
+		void format(int row, CellFormat format, StringBuilder out) {
+			if (format == null) {
+				out.append(values[row]);
+			} else {
+				format.format(values[row], out);
+			}
+		}
+		
+		void set(int row, long value) {
+			values[row] = value;
+		}
+	}
+	
+	private static class IntColumn extends Column {
+		
+		private int[] values;
+		
+		IntColumn(int[] values) {
+			this.values = values;
+		}
+		
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+		
+		void format(int row, CellFormat format, StringBuilder out) {
+			if (format == null) {
+				out.append(values[row]);
+			} else {
+				format.format(values[row], out);
+			}
+		}
+		
+		void set(int row, long value) {
+			
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("The value "+value+" does not fit in an int column!");
+			}
+			values[row] = (int) value;
+		}
+	}
+	
+	/**
+	 * A dictionary encoded text column; <tt>-1</tt> stands for an empty cell.
+	 */
+	private static class TextColumn extends Column {
+		
+		private int[] codes;
+		
+		private final ArrayList<String> dictionary = new ArrayList<String>();
+		
+		private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+		
+		TextColumn(int[] codes) {
+			this.codes = codes;
+		}
+		
+		void ensureCapacity(int capacity) {
+			if (codes.length < capacity) {
+				int n = codes.length;
+				codes = Arrays.copyOf(codes, grow(n, capacity));
+				Arrays.fill(codes, n, codes.length, -1);
+			}
+		}
+		
+		void format(int row, CellFormat format, StringBuilder out) {
+			int code = codes[row];
+			if (code >= 0) {
+				out.append(dictionary.get(code));
+			}
+		}
+		
+		void set(int row, String value) {
+			
+			ensureCapacity(row + 1);
+			
+			if (value == null) {
+				codes[row] = -1;
+			} else {
+				Integer code = index.get(value);
+				if (code == null) {
+					code = dictionary.size();
+					dictionary.add(value);
+					index.put(value, code);
+				}
+				codes[row] = code;
+			}
+		}
+	}
+}
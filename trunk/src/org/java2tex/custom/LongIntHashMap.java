@@ -0,0 +1,141 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from <CODE>long</CODE> keys to non negative <CODE>int</CODE> 
+ * values, with open addressing, that does not box its keys, nor its values. 
+ * It is used for aggregating millions of records without an object per record.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+final class LongIntHashMap {
+
+	/** The value of an empty slot */
+	static final int MISSING = -1;
+	
+	private long[] keys;
+	
+	private int[] values;
+	
+	private int size = 0;
+	
+	/** The table is grown once it is more than three quarters full */
+	private int threshold;
+	
+	LongIntHashMap(int expectedSize) {
+		
+		int capacity = 16;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+	
+	/**
+	 * @param key
+	 * @return the value of <CODE>key</CODE> or <CODE>MISSING</CODE>
+	 */
+	int get(long key) {
+		
+		int mask = keys.length - 1;
+		
+		for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			if (values[slot] == MISSING) {
+				return MISSING;
+			}
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+		}
+	}
+	
+	/**
+	 * @param key
+	 * @param value a non negative value
+	 * @return the value of <CODE>key</CODE>, if there is one, otherwise <CODE>value</CODE>, which is put in the map
+	 */
+	int putIfAbsent(long key, int value) {
+		
+		int mask = keys.length - 1;
+		
+		for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			if (values[slot] == MISSING) {
+				keys[slot] = key;
+				values[slot] = value;
+				if (++size > threshold) {
+					rehash();
+				}
+				return value;
+			}
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+		}
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	private void rehash() {
+		
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		
+		allocate(keys.length << 1);
+		
+		int mask = keys.length - 1;
+		
+		for (int i=0; i < oldKeys.length; i++) {
+			if (oldValues[i] != MISSING) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != MISSING) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+	
+	private void allocate(int capacity) {
+		
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, MISSING);
+		threshold = capacity * 3 / 4;
+	}
+	
+	private static int hash(long key) {
+		
+		long h = key * 0x9E3779B97F4A7C15L;
+		
+		return (int) (h ^ (h >>> 32));
+	}
+}
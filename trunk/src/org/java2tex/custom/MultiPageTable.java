@@ -22,12 +22,18 @@
  */
 package org.java2tex.custom;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
 
 import org.apache.log4j.Logger;
 import org.java2tex.core.ColumnMeta;
 import org.java2tex.core.Java2TeXException;
 import org.java2tex.core.LatexTable;
+import org.java2tex.core.RowSpillFile;
 
 
 /**
@@ -36,6 +42,20 @@ import org.java2tex.core.LatexTable;
  * Our goal is to (eventually) expose all the versatility and power 
  * of LaTeX through our APIs. Hence, naturally, early adopters of 
  * Java2TeX should expect this class to change significantly.
+ * <P>
+ * By default, all the rows are kept in memory. With a memory cap, the rows
+ * that do not fit are appended to a temporary <CODE>RowSpillFile</CODE> and
+ * are streamed back when the table is written; such a table is rendered by 
+ * the document when the document is written, not when the table is added.
+ * The temporary file is deleted once its rows have been written, hence a 
+ * table that spilled can be written only once; call <CODE>dispose()</CODE> 
+ * for deleting the file of a table that is not written at all.
+ * <P>
+ * The LaTeX source of a table that is kept in memory is cached, along with 
+ * the specification of its columns, until the table or its <CODE>ColumnMeta</CODE> 
+ * change; calling <CODE>getLatex()</CODE> again returns the same source. 
+ * Call <CODE>invalidate()</CODE> after changing the rows of <CODE>getTableRows()</CODE> 
+ * directly, other than by adding rows.
  * 
  * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
  * 
@@ -64,8 +84,33 @@ public class MultiPageTable implements LatexTable {
 	
 	// BODY
 	private ArrayList<String> tableRows; 
+	
+	/** The estimated memory of the rows in <CODE>tableRows</CODE>, in bytes */
+	private long memoryBytes = 0;
+	
+	/** The maximum memory of the rows in <CODE>tableRows</CODE> or <tt>-1</tt> for no limit */
+	private long memoryCap = -1;
+	
+	/** The rows that did not fit in memory, if any */
+	private RowSpillFile spill = null;
+	
+	/** <tt>true</tt> once the spilled rows have been written and deleted */
+	private boolean isSpillConsumed = false;
+	
+	/** The directory of the spill file or <tt>null</tt> for the default temporary directory */
+	private File spillDir = null;
+	
+	/** The maximum number of rows per environment or <tt>-1</tt> for a single environment */
+	private int maxRowsPerEnvironment = -1;
+	
 	private StringBuilder latex; 
 	
+	/** The LaTeX source of the table, until the table changes */
+	private ColumnCache cachedLatex = new ColumnCache();
+	
+	/** The specification of the columns, until the columns change */
+	private ColumnCache cachedAlignment = new ColumnCache();
+	
 	private boolean isLandscape = false;
 	private boolean hasHorizontalLines=false;
 	private boolean hasShading=false;
@@ -83,6 +128,19 @@ public class MultiPageTable implements LatexTable {
 		tableRows    = new ArrayList<String>();
 		latex        = new StringBuilder();
 	}
+	
+	/**
+	 * Creates a table that keeps at most <CODE>memoryCap</CODE> bytes of rows 
+	 * in memory and spills the rest to a temporary file.
+	 * 
+	 * @param caption
+	 * @param memoryCap the memory of the rows, in bytes
+	 */
+	public MultiPageTable(String caption, long memoryCap) {
+		
+		this(caption);
+		setMemoryCap(memoryCap);
+	}
 
 	/**
 	 * This auxiliary method provides the common initialization steps 
@@ -100,9 +158,16 @@ public class MultiPageTable implements LatexTable {
 
 		printTails();
 		
-		add("\\bottomcaption{"+caption+"}\n");
-
-		add("\\label{"+getId()+"}\n");
+		if (isSplit()) {
+			// The caption and the last tail go with the last environment
+			add("\\tablelasttail{}");
+		} else {
+			printLastTail();
+			
+			add("\\bottomcaption{"+caption+"}\n");
+	
+			add("\\label{"+getId()+"}\n");
+		}
 		
 		if (hasShading()) {
 			add("\\rowcolors{2}{"+getShadeColor()+"}{}");
@@ -112,11 +177,20 @@ public class MultiPageTable implements LatexTable {
 	}
 
 	/**
-	 * It prints the headers of the table and adds a double horizontal line
+	 * It prints the headers of the table and adds a double horizontal line.
+	 * The first head is declared too, since a split table clears it for 
+	 * its environments after the first one.
 	 */
 	private void printHeaders() {
 		
-		add("\\tablehead {%");
+		printHeaders("\\tablefirsthead {%");
+		
+		printHeaders("\\tablehead {%");
+	}
+	
+	private void printHeaders(String declaration) {
+		
+		add(declaration);
 		addHorizontalLine();
 		addHorizontalLine();
 		
@@ -138,7 +212,7 @@ public class MultiPageTable implements LatexTable {
 	}
 
 	/**
-	 * It prints the tails of the table and adds some horizontal lines
+	 * It prints the tail of the pages that continue on the next page
 	 * 
 	 * @throws Java2TeXException
 	 */
@@ -152,6 +226,12 @@ public class MultiPageTable implements LatexTable {
 		add("\\\\");
 		addHorizontalLine();
 		add("}");
+	}
+	
+	/**
+	 * It prints the tail of the last page of the table
+	 */
+	private void printLastTail() {
 
 		add("\\tablelasttail{%");
 		addHorizontalLine();
@@ -175,12 +255,38 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public String getLatex() throws Java2TeXException {
 	
+		if (isStreaming()) {
+			StringWriter out = new StringWriter();
+			try {
+				writeTo(out);
+			} catch (IOException ioX) {
+				throw new Java2TeXException("Could not read the rows of table "+getId()+": "+ioX.getMessage());
+			}
+			return out.toString();
+		}
+		
+		String cached = cachedLatex.get(columnMeta, tableRows.size());
+		if (cached != null) {
+			return cached;
+		}
+		
+		// Content that was added manually is kept for the next call
+		int mark = latex.length();
+		
 		initLatex();
 				
 		addHorizontalLine();
+		
+		long rowCount = 0;
+		long nTotal = getRowCount();
 	
 		for (String row : tableRows) {
 			
+			if (TableChunks.isBoundary(rowCount, maxRowsPerEnvironment)) {
+				addEnvironmentBreak(rowCount, rowCount + maxRowsPerEnvironment >= nTotal);
+			}
+			rowCount++;
+			
 			insert(row); endRow();
 			
 			if ( hasHorizontalLines() ) {
@@ -195,7 +301,145 @@ public class MultiPageTable implements LatexTable {
 			add("\\end{landscape}");
 		}
 
-		return latex.toString();
+		String source = latex.toString();
+		latex.setLength(mark);
+		
+		return cachedLatex.put(columnMeta, tableRows.size(), source);
+	}
+	
+	/**
+	 * Discards the cached LaTeX source of this table. The table calls it 
+	 * on every change; call it after changing the rows of <CODE>getTableRows()</CODE> 
+	 * directly.
+	 */
+	public void invalidate() {
+		cachedLatex.clear();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#writeTo(java.io.Writer)
+	 */
+	public void writeTo(Writer out) throws Java2TeXException, IOException {
+		
+		if ( ! isStreaming() ) {
+			out.write(getLatex());
+			return;
+		}
+		
+		if (isSpillConsumed) {
+			throw new Java2TeXException("The spilled rows of table "+getId()+" have been written and deleted already!");
+		}
+		
+		initLatex();
+		
+		addHorizontalLine();
+		
+		flush(out);
+		
+		String rowEnd = hasHorizontalLines() ? " \\tabularnewline \n\\hline\n" : " \\tabularnewline \n";
+		
+		long rowCount = 0;
+		long nTotal = getRowCount();
+		
+		for (String row : tableRows) {
+			
+			if (TableChunks.isBoundary(rowCount, maxRowsPerEnvironment)) {
+				addEnvironmentBreak(rowCount, rowCount + maxRowsPerEnvironment >= nTotal);
+				flush(out);
+			}
+			rowCount++;
+			
+			out.write(row);
+			out.write(rowEnd);
+		}
+		
+		if (spill != null) {
+			try {
+				for (String row : spill) {
+					
+					if (TableChunks.isBoundary(rowCount, maxRowsPerEnvironment)) {
+						addEnvironmentBreak(rowCount, rowCount + maxRowsPerEnvironment >= nTotal);
+						flush(out);
+					}
+					rowCount++;
+					
+					out.write(row);
+					out.write(rowEnd);
+				}
+			} catch (UncheckedIOException uioX) {
+				throw uioX.getCause();
+			} finally {
+				// Nothing but the JVM would delete the file otherwise
+				dispose();
+				isSpillConsumed = true;
+			}
+		}
+		
+		//END statements
+		add("\\end{supertabular}");
+		
+		if ( isLandscape() ) {
+			add("\\end{landscape}");
+		}
+		
+		flush(out);
+	}
+	
+	/**
+	 * Ends the current <tt>supertabular</tt> and begins the next one. The 
+	 * next environment continues the previous one on the same page, hence 
+	 * it starts without a head; the heads and the tails of the following pages 
+	 * are unchanged. Only the last environment ends with the last tail and 
+	 * carries the caption.
+	 * 
+	 * @param rowsBefore the number of rows that have been written
+	 * @param isLast <tt>true</tt> if the next environment is the last one
+	 */
+	private void addEnvironmentBreak(long rowsBefore, boolean isLast) throws Java2TeXException {
+		
+		add("\\end{supertabular}");
+		
+		add("\\tablefirsthead{}");
+		
+		if (isLast) {
+			printLastTail();
+			
+			add("\\bottomcaption{"+caption+"}\n");
+			
+			add("\\label{"+getId()+"}\n");
+		} else {
+			add("\\tablelasttail{}");
+		}
+		
+		if (hasShading()) {
+			// The head of the first environment is one row
+			add(TableChunks.getRowColors(getShadeColor(), rowsBefore, 1));
+		}
+		
+		add("\\begin{supertabular}"+getColumnAlignment());
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the rows of this table span more than one environment
+	 */
+	private boolean isSplit() {
+		return maxRowsPerEnvironment > 0 && getRowCount() > maxRowsPerEnvironment;
+	}
+	
+	/**
+	 * Writes the buffer of this table to <CODE>out</CODE> and empties it.
+	 */
+	private void flush(Writer out) throws IOException {
+		
+		out.append(latex);
+		latex.setLength(0);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#isStreaming()
+	 */
+	public boolean isStreaming() {
+		return memoryCap >= 0;
 	}
 
 	/**
@@ -213,6 +457,11 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public String getColumnAlignment() throws Java2TeXException {
 		
+		String cached = cachedAlignment.get(columnMeta, 0);
+		if (cached != null) {
+			return cached;
+		}
+		
 		StringBuilder s = new StringBuilder("{");
 		
 		if ( columnMeta != null ) {
@@ -246,7 +495,7 @@ public class MultiPageTable implements LatexTable {
 		
 		s.append("}");
 		
-		return s.toString();
+		return cachedAlignment.put(columnMeta, 0, s.toString());
 	}
 
 	public void addHorizontalLine() {
@@ -300,14 +549,49 @@ public class MultiPageTable implements LatexTable {
 	
 	public void add(String txt) {
 		latex.append(txt).append("\n");
+		invalidate();
 	}
 	
 	public void addRow(String row) {
+		
+		// A String costs about two bytes per character, plus its headers
+		long rowBytes = 2L * row.length() + 48;
+		
+		if (memoryCap >= 0 && (spill != null || memoryBytes + rowBytes > memoryCap)) {
+			try {
+				if (spill == null) {
+					spill = new RowSpillFile(spillDir);
+					log.info("Table "+getId()+" exceeded "+memoryCap+" bytes; spilling rows to "+spill.getFile());
+				}
+				spill.append(row);
+				invalidate();
+				return;
+			} catch (IOException ioX) {
+				log.error(ioX.getMessage());
+				log.warn("Keeping the row in memory");
+			}
+		}
+		
 		tableRows.add(row);
+		memoryBytes += rowBytes;
+		invalidate();
+	}
+	
+	/**
+	 * Deletes the temporary file of the rows that did not fit in memory, if any.
+	 * The table must not be written afterwards.
+	 */
+	public void dispose() {
+		
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
 	}
 
 	private void insert(String txt) {
 		latex.append(txt);
+		invalidate();
 	}
 
 	/**
@@ -512,6 +796,7 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public void setId(String id) {
 		this.id = id;
+		invalidate();
 	}
 
 	/**
@@ -526,6 +811,7 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public void setLandscape(boolean isLandscape) {
 		this.isLandscape = isLandscape;
+		invalidate();
 	}
 
 	/**
@@ -540,6 +826,7 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public void hasHorizontalLines(boolean hasHorizontalLines) {
 		this.hasHorizontalLines = hasHorizontalLines;
+		invalidate();
 	}
 
 	/**
@@ -551,6 +838,7 @@ public class MultiPageTable implements LatexTable {
 
 	public void addColumn(ColumnMeta c) {
 		columnMeta.add(c);
+		invalidate();
 	}
 	
 	/**
@@ -568,17 +856,92 @@ public class MultiPageTable implements LatexTable {
 	}
 
 	/**
-	 * @return the tableRows
+	 * @return the rows that are kept in memory; with a memory cap,
+	 *         the rest of the rows are in the spill file
 	 */
 	public ArrayList<String> getTableRows() {
 		return tableRows;
 	}
 
 	/**
+	 * Replaces the rows of the table. Rows that have been spilled are discarded.
+	 * 
 	 * @param tableRows the tableRows to set
 	 */
 	public void setTableRows(ArrayList<String> tableRows) {
+		
+		dispose();
+		invalidate();
+		
+		this.isSpillConsumed = false;
 		this.tableRows = tableRows;
+		this.memoryBytes = 0;
+		for (String row : tableRows) {
+			memoryBytes += 2L * row.length() + 48;
+		}
+	}
+	
+	/**
+	 * @return the number of rows, both in memory and in the spill file
+	 */
+	public long getRowCount() {
+		return tableRows.size() + (spill == null ? 0 : spill.getRowCount());
+	}
+	
+	/**
+	 * @return the memory cap in bytes or <tt>-1</tt>, if all the rows are kept in memory
+	 */
+	public long getMemoryCap() {
+		return memoryCap;
+	}
+
+	/**
+	 * Once the rows in memory exceed the memory cap, the rest of the rows 
+	 * are spilled to a temporary file. 
+	 * 
+	 * @param memoryCap the memoryCap in bytes or <tt>-1</tt> for no limit
+	 */
+	public void setMemoryCap(long memoryCap) {
+		this.memoryCap = memoryCap;
+		invalidate();
+	}
+
+	/**
+	 * @return the maximum number of rows per environment or <tt>-1</tt> for a single environment
+	 */
+	public int getMaxRowsPerEnvironment() {
+		return maxRowsPerEnvironment;
+	}
+
+	/**
+	 * Splits the rows of this table into consecutive <tt>supertabular</tt> 
+	 * environments of at most <CODE>maxRows</CODE> rows each, so that TeX 
+	 * does not run out of memory for very large tables. The output looks 
+	 * like a single table.
+	 * 
+	 * @param maxRows the maximum number of rows per environment or <tt>-1</tt> for a single environment
+	 */
+	public void setMaxRowsPerEnvironment(int maxRows) {
+		
+		if (maxRows == 0 || maxRows < -1) {
+			throw new IllegalArgumentException("The maximum number of rows must be positive or -1! Found: "+maxRows);
+		}
+		this.maxRowsPerEnvironment = maxRows;
+		invalidate();
+	}
+
+	/**
+	 * @return the directory of the spill file or <tt>null</tt> for the default temporary directory
+	 */
+	public File getSpillDirectory() {
+		return spillDir;
+	}
+
+	/**
+	 * @param spillDir the directory of the spill file; it must be set before the first spill
+	 */
+	public void setSpillDirectory(File spillDir) {
+		this.spillDir = spillDir;
 	}
 
 	public StringBuilder getCAlignment() {
@@ -603,6 +966,7 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public void hasShading(boolean hasShading) {
 		this.hasShading = hasShading;
+		invalidate();
 	}
 
 	/**
@@ -617,6 +981,7 @@ public class MultiPageTable implements LatexTable {
 	 */
 	public void setShadeColor(String shadeColor) {
 		this.shadeColor = shadeColor;
+		invalidate();
 	}
 
 }
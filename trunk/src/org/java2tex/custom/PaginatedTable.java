@@ -0,0 +1,631 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+import org.java2tex.core.ColumnMeta;
+import org.java2tex.core.Java2TeXException;
+import org.java2tex.core.LatexConstants;
+import org.java2tex.core.LatexTable;
+import org.java2tex.core.TextArea;
+
+/**
+ * A table that is broken into pages by Java2TeX, rather than by TeX. 
+ * The height of every row is estimated from the length of the text of its 
+ * cells and the width of its columns, as defined by <CODE>ColumnMeta.getMaxWidth()</CODE>,
+ * in centimeters. The rows are then written as one plain <tt>tabular</tt> per
+ * page, with the headers repeated on every page and a <tt>\newpage</tt> 
+ * between the pages; TeX does not have to measure the table, nor to look 
+ * for page breaks in it.
+ * <P>
+ * The estimate is conservative; a page holds fewer rows than TeX could fit. 
+ * A column with a maximum width becomes a paragraph column of that width, 
+ * which wraps its text as the estimate assumes. The table begins on a new page.
+ * <P>
+ * The LaTeX source of the table is cached until the table, or its 
+ * <CODE>ColumnMeta</CODE>, change.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class PaginatedTable implements LatexTable {
+
+	private static final Logger log = Logger.getLogger(PaginatedTable.class);
+	
+	/** The points in a centimeter */
+	private static final double PT_PER_CM = 72.27 / 2.54;
+	
+	/** The average width of a character, relative to the size of the font */
+	private static final double CHAR_WIDTH = 0.5;
+	
+	/** The distance between the baselines of two lines, relative to the size of the font */
+	private static final double BASELINE_SKIP = 1.2;
+	
+	/** The thickness of a horizontal line, in points */
+	private static final double RULE_HEIGHT = 0.4;
+	
+	/** 
+	 * This ID is set by the <CODE>LatexDocument</CODE>, it can be used for
+	 * reference of the table from anywhere else inside the document.
+	 */ 
+	private String id=null;
+	
+	// GENERAL
+	private String caption=null;
+	
+	// COLUMNS
+	private ArrayList<ColumnMeta> columnMeta=new ArrayList<ColumnMeta>();
+	
+	//ROWS
+	private String shadeColor="lightgray";
+	
+	// BODY
+	private ArrayList<String[]> tableRows=new ArrayList<String[]>();
+	
+	// PAGES
+	private double pageHeight=-1;
+	private TextArea textArea=null;
+	private double fontSize=10;
+	private int maxRowsPerPage=-1;
+	
+	private StringBuilder latex = new StringBuilder(); 
+	
+	/** The LaTeX source of the table, until the table changes */
+	private ColumnCache cachedLatex = new ColumnCache();
+	
+	/** The specification of the columns, until the columns change */
+	private ColumnCache cachedAlignment = new ColumnCache();
+	
+	private boolean isLandscape = false;
+	private boolean hasHorizontalLines=false;
+	private boolean hasShading=false;
+	
+	public PaginatedTable(String caption) {
+		this.caption = caption;
+	}
+	
+	/**
+	 * @param row the cells of the row, one per column
+	 */
+	public void addRow(String[] row) {
+		
+		if (row.length != getNCols()) {
+			throw new IllegalArgumentException("The table has "+getNCols()+" columns; the row has "+row.length+" cells!");
+		}
+		tableRows.add(row);
+		invalidate();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#initLatex()
+	 */
+	public void initLatex() throws Java2TeXException {
+		
+		if (columnMeta.isEmpty()) {
+			throw new Java2TeXException("Define the META information for the columns before using the table!");
+		}
+		
+		latex.setLength(0);
+		
+		add("\\newpage");
+		
+		if (isLandscape()) {
+			add("\\begin{landscape}");
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#getLatex()
+	 */
+	public String getLatex() throws Java2TeXException {
+		
+		String cached = cachedLatex.get(columnMeta, tableRows.size());
+		if (cached != null) {
+			return cached;
+		}
+		
+		StringWriter out = new StringWriter();
+		try {
+			writeTo(out);
+		} catch (IOException ioX) {
+			// A StringWriter never throws
+			log.error(ioX.getMessage());
+		}
+		return cachedLatex.put(columnMeta, tableRows.size(), out.toString());
+	}
+	
+	/**
+	 * Discards the cached LaTeX source of this table. 
+	 */
+	public void invalidate() {
+		cachedLatex.clear();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#writeTo(java.io.Writer)
+	 */
+	public void writeTo(Writer out) throws Java2TeXException, IOException {
+		
+		initLatex();
+		
+		int[] pages = paginate();
+		
+		String alignment = getColumnAlignment();
+		String rowEnd = hasHorizontalLines() ? "\\\\ \\hline" : "\\\\";
+		
+		for (int page=0; page < pages.length; page++) {
+			
+			int first = pages[page];
+			int end = page + 1 < pages.length ? pages[page + 1] : tableRows.size();
+			
+			if (page > 0) {
+				add("\\newpage");
+			}
+			
+			if (page == 0) {
+				// A caption outside of a float, numbered and listed as a table
+				add("{\\expandafter\\def\\csname @captype\\endcsname{table}" +
+						"\\caption{"+getCaption()+"}\\label{"+getId()+"}}");
+			}
+			
+			add("\\noindent");
+			
+			if (hasShading()) {
+				// Every other row is shaded, counting across the pages; the header is never shaded
+				int headRows = hasHeaders() ? 1 : 0;
+				if ((first + headRows) % 2 == 1) {
+					add("\\rowcolors{"+(headRows + 1)+"}{"+getShadeColor()+"}{}");
+				} else {
+					add("\\rowcolors{"+(headRows + 1)+"}{}{"+getShadeColor()+"}");
+				}
+			}
+			
+			add("\\begin{tabular}"+alignment);
+			
+			addHorizontalLine();
+			
+			if (hasHeaders()) {
+				printHeaders();
+			}
+			
+			if (hasHorizontalLines()) {
+				addHorizontalLine();
+			}
+			
+			for (int i=first; i < end; i++) {
+				
+				String[] row = tableRows.get(i);
+				
+				for (int j=0; j < row.length; j++) {
+					if (j > 0) {
+						insert(" & ");
+					}
+					insert(row[j]);
+				}
+				add(rowEnd);
+			}
+			
+			addHorizontalLine();
+			
+			add("\\end{tabular}");
+			
+			flush(out);
+		}
+		
+		if (isLandscape()) {
+			add("\\end{landscape}");
+		}
+		
+		flush(out);
+	}
+	
+	/**
+	 * Breaks the rows into pages.
+	 * 
+	 * @return the index of the first row of every page
+	 */
+	public int[] paginate() {
+		
+		double available = getPageHeight() * PT_PER_CM;
+		
+		double baselineSkip = BASELINE_SKIP * fontSize;
+		
+		// The opening and the closing lines, the header and the line below it
+		double frame = 2 * RULE_HEIGHT;
+		if (hasHeaders()) {
+			frame += getLines(getHeaders()) * baselineSkip + RULE_HEIGHT;
+		}
+		if (hasHorizontalLines()) {
+			frame += RULE_HEIGHT;
+		}
+		
+		// The caption and the space around it
+		double captionHeight = 3 * baselineSkip;
+		
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		pages.add(0);
+		
+		double height = frame + captionHeight;
+		int rows = 0;
+		
+		for (int i=0; i < tableRows.size(); i++) {
+			
+			double rowHeight = getLines(tableRows.get(i)) * baselineSkip;
+			if (hasHorizontalLines()) {
+				rowHeight += RULE_HEIGHT;
+			}
+			
+			boolean isFull = height + rowHeight > available || (maxRowsPerPage > 0 && rows == maxRowsPerPage);
+			
+			// A row that is higher than a page gets a page of its own
+			if (isFull && rows > 0) {
+				pages.add(i);
+				height = frame;
+				rows = 0;
+			}
+			
+			height += rowHeight;
+			rows++;
+		}
+		
+		int[] firstRows = new int[pages.size()];
+		for (int p=0; p < firstRows.length; p++) {
+			firstRows[p] = pages.get(p);
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Table "+getId()+": "+tableRows.size()+" rows on "+firstRows.length+" pages");
+		}
+		
+		return firstRows;
+	}
+	
+	/**
+	 * @return the number of pages of the table
+	 */
+	public int getPageCount() {
+		return paginate().length;
+	}
+	
+	/**
+	 * @return the number of lines of the highest cell of <CODE>row</CODE>
+	 */
+	private int getLines(String[] row) {
+		
+		int lines = 1;
+		
+		for (int j=0; j < row.length && j < columnMeta.size(); j++) {
+			
+			int width = columnMeta.get(j).getMaxWidth();
+			
+			if (width > 0 && row[j] != null) {
+				
+				int charsPerLine = (int) Math.max(1, width * PT_PER_CM / (CHAR_WIDTH * fontSize));
+				
+				lines = Math.max(lines, (row[j].length() + charsPerLine - 1) / charsPerLine);
+			}
+		}
+		return lines;
+	}
+	
+	/**
+	 * Writes the buffer of this table to <CODE>out</CODE> and empties it.
+	 */
+	private void flush(Writer out) throws IOException {
+		
+		out.append(latex);
+		latex.setLength(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#isStreaming()
+	 */
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * A column with a maximum width is a paragraph column of that width; 
+	 * its text is centered, or aligned to the right, as its alignment says.
+	 * 
+	 * @see org.java2tex.custom.MultiPageTable#getColumnAlignment()
+	 */
+	public String getColumnAlignment() throws Java2TeXException {
+		
+		String cached = cachedAlignment.get(columnMeta, 0);
+		if (cached != null) {
+			return cached;
+		}
+		
+		StringBuilder s = new StringBuilder("{");
+		
+		for (ColumnMeta colMeta : columnMeta) {
+			
+			if (colMeta.getAlignment().length() == 1) {
+				if (colMeta.hasLeftSeparator()) {
+					s.append("|");
+				}
+			
+				if (colMeta.getBackgroundColour() != null) {
+					s.append(">{\\columncolor{"+colMeta.getBackgroundColour()+"}}");
+				}
+				
+				if (colMeta.getMaxWidth() > 0) {
+					if (LatexConstants.CENTER.equals(colMeta.getAlignment())) {
+						s.append(">{\\centering\\arraybackslash}");
+					} else if (LatexConstants.RIGHT.equals(colMeta.getAlignment())) {
+						s.append(">{\\raggedleft\\arraybackslash}");
+					}
+					s.append("p{"+colMeta.getMaxWidth()+"cm}");
+				} else {
+					s.append(colMeta.getAlignment());
+				}
+
+				if (colMeta.hasRightSeparator()) {
+					s.append("|");
+				}
+			} else {
+				
+				s.append(colMeta.getAlignment());					
+			}
+		}
+		
+		s.append("}");
+		
+		return cachedAlignment.put(columnMeta, 0, s.toString());
+	}
+	
+	private boolean hasHeaders() {
+		
+		for (ColumnMeta colMeta : columnMeta) {
+			if (colMeta.getHeader() != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void printHeaders() {
+		
+		int dummyColumnCount=0;
+
+		for (ColumnMeta colMeta : columnMeta) {
+			
+			String cell = colMeta.getHeader() == null ? "" : colMeta.getHeader();
+			
+			if (dummyColumnCount > 0) {
+				insert(" & \\bf{"+cell+"}");
+			} else {
+				insert("\\bf{"+cell+"}");
+			}
+			dummyColumnCount++;
+		}
+		
+		add("\\\\ \\hline");
+	}
+
+	public void addHorizontalLine() {
+		add("\\hline");
+	}
+	
+	public void addHorizontalLine(int start) {
+		add("\\cline{"+start+"-"+getNCols()+"}");
+	}
+	
+	public void addHorizontalLine(int start,int end) {
+		add("\\cline{"+start+"-"+end+"}");
+	}
+	
+	/**
+	 * The rows of this table are added whole, with <CODE>addRow</CODE>.
+	 */
+	public void endRow() {
+		log.warn("The rows of a paginated table are added with addRow(String[])");
+	}
+	
+	private void add(String txt) {
+		latex.append(txt).append("\n");
+	}
+
+	private void insert(String txt) {
+		latex.append(txt);
+	}
+
+	public String getCaption() {
+		return caption;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the id to set
+	 */
+	public void setId(String id) {
+		this.id = id;
+		invalidate();
+	}
+
+	public boolean isLandscape() {
+		return isLandscape;
+	}
+
+	public void setLandscape(boolean isLandscape) {
+		this.isLandscape = isLandscape;
+		invalidate();
+	}
+
+	public boolean hasHorizontalLines() {
+		return hasHorizontalLines;
+	}
+
+	public void hasHorizontalLines(boolean hasHorizontalLines) {
+		this.hasHorizontalLines = hasHorizontalLines;
+		invalidate();
+	}
+
+	public String[] getHeaders() {
+		
+		String[] headers = new String[columnMeta.size()];
+		for (int j=0; j < headers.length; j++) {
+			headers[j] = columnMeta.get(j).getHeader();
+		}
+		return headers;
+	}
+
+	public ArrayList<ColumnMeta> getColumnMeta() {
+		return columnMeta;
+	}
+
+	public void addColumn(ColumnMeta c) {
+		columnMeta.add(c);
+		invalidate();
+	}
+
+	public int getNRows() {
+		return tableRows.size();
+	}
+
+	public int getNCols() {
+		return columnMeta.size();
+	}
+
+	/**
+	 * @return the text height of a page, in centimeters
+	 */
+	public double getPageHeight() {
+		
+		if (pageHeight > 0) {
+			return pageHeight;
+		}
+		// The text width of the document is the height of a landscape page
+		return isLandscape() ? getTextArea().getWidth() : getTextArea().getHeight();
+	}
+
+	/**
+	 * @param pageHeight the text height of a page, in centimeters; the text 
+	 *        width of the document for a landscape table
+	 */
+	public void setPageHeight(double pageHeight) {
+		this.pageHeight = pageHeight;
+		invalidate();
+	}
+
+	/**
+	 * @return the text of the document that the table is paginated for; 
+	 *         unless it has been set, the one of the document that holds the table
+	 */
+	public TextArea getTextArea() {
+		return textArea == null ? TextArea.DEFAULT : textArea;
+	}
+
+	/**
+	 * @param textArea the text of the document that the table is paginated for
+	 */
+	public void setTextArea(TextArea textArea) {
+		this.textArea = textArea;
+		invalidate();
+	}
+	
+	/**
+	 * Documents hand their text to the table when it is added to them, 
+	 * unless the table has been given one already.
+	 */
+	void fitTo(TextArea documentText) {
+		if (textArea == null) {
+			setTextArea(documentText);
+		}
+	}
+
+	/**
+	 * @return the size of the font of the table, in points
+	 */
+	public double getFontSize() {
+		return fontSize;
+	}
+
+	/**
+	 * @param fontSize the size of the font of the table, in points
+	 */
+	public void setFontSize(double fontSize) {
+		
+		if (fontSize <= 0) {
+			throw new IllegalArgumentException("The size of the font must be positive! Found: "+fontSize);
+		}
+		this.fontSize = fontSize;
+		invalidate();
+	}
+
+	/**
+	 * @return the maximum number of rows per page or <tt>-1</tt> if only the height of the rows counts
+	 */
+	public int getMaxRowsPerPage() {
+		return maxRowsPerPage;
+	}
+
+	/**
+	 * @param maxRowsPerPage the maximum number of rows per page or <tt>-1</tt> if only the height of the rows counts
+	 */
+	public void setMaxRowsPerPage(int maxRowsPerPage) {
+		this.maxRowsPerPage = maxRowsPerPage;
+		invalidate();
+	}
+
+	/**
+	 * @return the hasShading
+	 */
+	public boolean hasShading() {
+		return hasShading;
+	}
+
+	/**
+	 * @param hasShading the hasShading to set
+	 */
+	public void hasShading(boolean hasShading) {
+		this.hasShading = hasShading;
+		invalidate();
+	}
+
+	/**
+	 * @return the shadeColor
+	 */
+	public String getShadeColor() {
+		return shadeColor;
+	}
+
+	/**
+	 * @param shadeColor the shadeColor to set
+	 */
+	public void setShadeColor(String shadeColor) {
+		this.shadeColor = shadeColor;
+		invalidate();
+	}
+}
@@ -0,0 +1,849 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+import org.java2tex.core.CellFormat;
+import org.java2tex.core.ColumnMeta;
+import org.java2tex.core.Java2TeXException;
+import org.java2tex.core.LatexConstants;
+import org.java2tex.core.LatexEscaper;
+import org.java2tex.core.LatexTable;
+
+/**
+ * A cross tabulation of flat records. Every record has a value for each 
+ * one of the row dimensions and for each one of the column dimensions, and a 
+ * number, which is aggregated over the records of the same cell.
+ * <P>
+ * The values of the dimensions are kept once, in a dictionary per dimension; 
+ * the groups and the cells are found through hash maps of primitive keys, so 
+ * the memory of the table depends on the number of its cells, not on the 
+ * number of records. When the table is rendered, the groups of every level 
+ * are sorted and the nested groups are written as <tt>\multirow</tt> and 
+ * <tt>\multicolumn</tt> cells, for any number of dimensions.
+ * <P>
+ * The values of the dimensions are data, not LaTeX, hence they are escaped.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class PivotTable implements LatexTable {
+
+	private static final Logger log = Logger.getLogger(PivotTable.class);
+	
+	/**
+	 * The aggregates of the records of a cell.
+	 */
+	public static enum Aggregate {
+		SUM, COUNT, MIN, MAX, MEAN
+	}
+	
+	/** The format of the values, unless another one is set */
+	private static final CellFormat DEFAULT_FORMAT = CellFormat.fixed(2);
+	
+	/** 
+	 * This ID is set by the <CODE>LatexDocument</CODE>, it can be used for
+	 * reference of the table from anywhere else inside the document.
+	 */ 
+	private String id=null;
+	
+	// GENERAL
+	private String caption=null;
+	
+	private final Aggregate aggregate;
+	
+	private String measure=null;
+	
+	private CellFormat format=null;
+	
+	private Comparator<String> order=null;
+	
+	// DIMENSIONS
+	private final Axis rows;
+	private final Axis columns;
+	
+	// CELLS
+	private LongIntHashMap cells = new LongIntHashMap(1024);
+	private int nCells = 0;
+	private double[] sums = new double[1024];
+	private long[] counts = new long[1024];
+	private double[] mins = new double[1024];
+	private double[] maxs = new double[1024];
+	
+	private StringBuilder latex = new StringBuilder(); 
+	
+	/** The LaTeX source of the table, until a record is added */
+	private ColumnCache cachedLatex = new ColumnCache();
+	
+	private boolean isLandscape = false;
+	private boolean hasHorizontalLines=false;
+	
+	/**
+	 * @param caption
+	 * @param rowDimensions the names of the dimensions of the rows, from the outer to the inner one
+	 * @param columnDimensions the names of the dimensions of the columns, from the outer to the inner one
+	 * @param aggregate the aggregate of the records of a cell
+	 */
+	public PivotTable(String caption, String[] rowDimensions, String[] columnDimensions, Aggregate aggregate) {
+		
+		if (aggregate == null) {
+			throw new IllegalArgumentException("The aggregate of a pivot table is required!");
+		}
+		
+		this.caption = caption;
+		this.aggregate = aggregate;
+		this.rows = new Axis(rowDimensions);
+		this.columns = new Axis(columnDimensions);
+	}
+	
+	/**
+	 * Adds a record to the cell of its dimensions.
+	 * 
+	 * @param rowValues the values of the row dimensions, in their order
+	 * @param columnValues the values of the column dimensions, in their order
+	 * @param value the number of the record; it is ignored by <CODE>COUNT</CODE>
+	 */
+	public void addRecord(String[] rowValues, String[] columnValues, double value) {
+		
+		int row = rows.getLeaf(rowValues);
+		int col = columns.getLeaf(columnValues);
+		
+		int cell = cells.putIfAbsent(((long) row << 32) | col, nCells);
+		
+		if (cell == nCells) {
+			
+			if (nCells == sums.length) {
+				int capacity = nCells << 1;
+				sums = Arrays.copyOf(sums, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+				mins = Arrays.copyOf(mins, capacity);
+				maxs = Arrays.copyOf(maxs, capacity);
+			}
+			
+			mins[cell] = value;
+			maxs[cell] = value;
+			nCells++;
+			
+		} else {
+			
+			if (value < mins[cell]) {
+				mins[cell] = value;
+			}
+			if (value > maxs[cell]) {
+				maxs[cell] = value;
+			}
+		}
+		
+		sums[cell] += value;
+		counts[cell]++;
+		
+		cachedLatex.clear();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#initLatex()
+	 */
+	public void initLatex() throws Java2TeXException {
+		
+		if (isLandscape()) {
+			add("\\begin{landscape}");
+		}
+
+		add("\\begin{table}[h!b!p!]");
+		add("\\caption{"+getCaption()+"}");
+		
+		add("\\begin{tabular}"+getColumnAlignment());		
+	}
+
+	/**
+	 * Sorts the groups and writes the table in one pass over its rows.
+	 * 
+	 * @see org.java2tex.core.LatexTable#getLatex()
+	 */
+	public String getLatex() throws Java2TeXException {
+		
+		String cached = cachedLatex.get(null, nCells);
+		if (cached != null) {
+			return cached;
+		}
+		
+		if (nCells == 0) {
+			throw new Java2TeXException("The pivot table "+getId()+" has no records!");
+		}
+		
+		int[] rowLeaves = rows.sort(order);
+		int[] colLeaves = columns.sort(order);
+		
+		int d = rows.getDepth();
+		int nCols = d + colLeaves.length;
+		
+		latex.setLength(0);
+		
+		initLatex();
+		
+		addHorizontalLine();
+		
+		printHeaders(colLeaves.length, nCols);
+		
+		CellFormat cellFormat = getFormat();
+		
+		int[] path = new int[d];
+		
+		for (int r=0; r < rowLeaves.length; r++) {
+			
+			int row = rowLeaves[r];
+			
+			rows.getPath(row, path);
+			
+			for (int level=0; level < d; level++) {
+				
+				if (level > 0) {
+					insert(" & ");
+				}
+				
+				int group = path[level];
+				
+				if (rows.getFirstLeaf(group) == r) {
+					String label = LatexEscaper.escape(rows.getLabel(group));
+					int span = rows.getSpan(group);
+					if (span > 1) {
+						insert("\\multirow{"+span+"}{*}{"+label+"}");
+					} else {
+						insert(label);
+					}
+				}
+			}
+			
+			for (int c=0; c < colLeaves.length; c++) {
+				
+				if (d > 0 || c > 0) {
+					insert(" & ");
+				}
+				
+				int cell = cells.get(((long) row << 32) | colLeaves[c]);
+				
+				if (cell != LongIntHashMap.MISSING) {
+					appendValue(cell, cellFormat);
+				}
+			}
+			
+			add("\\\\");
+			
+			// The outermost group that ends on this row draws the line below it 
+			if (r < rowLeaves.length - 1) {
+				
+				int ended = d - 1;
+				for (int level = d - 1; level >= 0; level--) {
+					if (rows.getLastLeaf(path[level]) == r) {
+						ended = level;
+					}
+				}
+				
+				if (ended == 0) {
+					addHorizontalLine();
+				} else if (ended < d - 1 || hasHorizontalLines()) {
+					addHorizontalLine(ended + 1, nCols);
+				}
+			}
+		}
+		
+		addHorizontalLine();
+		
+		add("\\end{tabular}");
+
+		add("\\label{"+getId()+"}");
+		
+		add("\\end{table}");
+		
+		if (isLandscape()) {
+			add("\\end{landscape}");
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Pivot table "+getId()+": "+rowLeaves.length+" rows, "+colLeaves.length+" columns, "+nCells+" cells");
+		}
+		
+		String source = latex.toString();
+		latex.setLength(0);
+		
+		return cachedLatex.put(null, nCells, source);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#writeTo(java.io.Writer)
+	 */
+	public void writeTo(Writer out) throws Java2TeXException, IOException {
+		out.write(getLatex());
+	}
+	
+	/**
+	 * One header row per column dimension, with a <tt>\multicolumn</tt> per group; 
+	 * the names of the row dimensions are on the last header row.
+	 */
+	private void printHeaders(int nLeaves, int nCols) {
+		
+		int d = rows.getDepth();
+		int depth = columns.getDepth();
+		
+		if (depth == 0) {
+			printRowDimensions();
+			if (d > 0) {
+				insert(" & ");
+			}
+			insert("\\bf{"+getValueLabel()+"}");
+			add("\\\\ \\hline");
+			return;
+		}
+		
+		for (int level=0; level < depth; level++) {
+			
+			if (level == depth - 1) {
+				printRowDimensions();
+			} else {
+				for (int j=1; j < d; j++) {
+					insert(" & ");
+				}
+			}
+			
+			int[] groups = columns.getGroups(level);
+			
+			for (int g=0; g < groups.length; g++) {
+				
+				if (d > 0 || g > 0) {
+					insert(" & ");
+				}
+				
+				String label = LatexEscaper.escape(columns.getLabel(groups[g]));
+				
+				insert("\\multicolumn{"+columns.getSpan(groups[g])+"}{c|}{\\bf{"+label+"}}");
+			}
+			
+			if (level < depth - 1) {
+				add("\\\\");
+				addHorizontalLine(d + 1, nCols);
+			} else {
+				add("\\\\ \\hline");
+			}
+		}
+	}
+	
+	private void printRowDimensions() {
+		
+		String[] names = rows.getNames();
+		
+		for (int j=0; j < names.length; j++) {
+			if (j > 0) {
+				insert(" & ");
+			}
+			insert("\\bf{"+LatexEscaper.escape(names[j])+"}");
+		}
+	}
+	
+	private void appendValue(int cell, CellFormat cellFormat) {
+		
+		switch (aggregate) {
+		case SUM:
+			cellFormat.format(sums[cell], latex);
+			break;
+		case COUNT:
+			if (format == null) {
+				latex.append(counts[cell]);
+			} else {
+				format.format(counts[cell], latex);
+			}
+			break;
+		case MIN:
+			cellFormat.format(mins[cell], latex);
+			break;
+		case MAX:
+			cellFormat.format(maxs[cell], latex);
+			break;
+		case MEAN:
+			cellFormat.format(sums[cell] / counts[cell], latex);
+			break;
+		}
+	}
+	
+	/**
+	 * @return the header of the values, when there are no column dimensions
+	 */
+	private String getValueLabel() {
+		
+		String name = aggregate.name().charAt(0) + aggregate.name().substring(1).toLowerCase();
+		
+		return measure == null ? name : name+" of "+LatexEscaper.escape(measure);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#isStreaming()
+	 */
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * The dimensions of the rows are aligned to the left, the values to the right.
+	 */
+	public String getColumnAlignment() throws Java2TeXException {
+		
+		StringBuilder s = new StringBuilder("{|");
+		
+		for (int j=0; j < rows.getDepth(); j++) {
+			s.append("l|");
+		}
+		
+		int nValues = Math.max(1, columns.getLeafCount());
+		for (int j=0; j < nValues; j++) {
+			s.append("r|");
+		}
+		
+		s.append("}");
+		
+		return s.toString();
+	}
+	
+	public void addHorizontalLine() {
+		add("\\hline");
+	}
+	
+	public void addHorizontalLine(int start) {
+		add("\\cline{"+start+"-"+getNCols()+"}");
+	}
+	
+	public void addHorizontalLine(int start,int end) {
+		add("\\cline{"+start+"-"+end+"}");
+	}
+	
+	/**
+	 * The rows of this table are the groups of its records.
+	 */
+	public void endRow() {
+		log.warn("The rows of a pivot table are added with addRecord()");
+	}
+	
+	private void add(String txt) {
+		latex.append(txt).append("\n");
+	}
+
+	private void insert(String txt) {
+		latex.append(txt);
+	}
+
+	public String getCaption() {
+		return caption;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the id to set
+	 */
+	public void setId(String id) {
+		this.id = id;
+		cachedLatex.clear();
+	}
+
+	public boolean isLandscape() {
+		return isLandscape;
+	}
+
+	public void setLandscape(boolean isLandscape) {
+		this.isLandscape = isLandscape;
+		cachedLatex.clear();
+	}
+
+	/**
+	 * The groups of the rows are always separated by lines; with horizontal 
+	 * lines, the innermost rows are separated too.
+	 */
+	public boolean hasHorizontalLines() {
+		return hasHorizontalLines;
+	}
+
+	public void hasHorizontalLines(boolean hasHorizontalLines) {
+		this.hasHorizontalLines = hasHorizontalLines;
+		cachedLatex.clear();
+	}
+
+	/**
+	 * @return the names of the row dimensions
+	 */
+	public String[] getHeaders() {
+		return rows.getNames();
+	}
+
+	/**
+	 * @return the columns of the row dimensions, followed by the columns of the values
+	 */
+	public ArrayList<ColumnMeta> getColumnMeta() {
+		
+		ArrayList<ColumnMeta> meta = new ArrayList<ColumnMeta>();
+		
+		for (int j=0; j < getNCols(); j++) {
+			String alignment = j < rows.getDepth() ? LatexConstants.LEFT : LatexConstants.RIGHT;
+			meta.add(new ColumnMeta(j + 1, alignment));
+		}
+		return meta;
+	}
+
+	/**
+	 * The columns of this table are the groups of its records.
+	 */
+	public void addColumn(ColumnMeta c) {
+		log.warn("The columns of a pivot table are the groups of the column dimensions");
+	}
+
+	/**
+	 * @return the number of rows of values
+	 */
+	public int getNRows() {
+		return Math.max(1, rows.getLeafCount());
+	}
+
+	/**
+	 * @return the number of the row dimensions plus the number of the columns of values
+	 */
+	public int getNCols() {
+		return rows.getDepth() + Math.max(1, columns.getLeafCount());
+	}
+
+	/**
+	 * @return the aggregate of the records of a cell
+	 */
+	public Aggregate getAggregate() {
+		return aggregate;
+	}
+
+	/**
+	 * @return the name of the number of the records or <tt>null</tt>
+	 */
+	public String getMeasure() {
+		return measure;
+	}
+
+	/**
+	 * @param measure the name of the number of the records, for the header of the values
+	 */
+	public void setMeasure(String measure) {
+		this.measure = measure;
+		cachedLatex.clear();
+	}
+
+	/**
+	 * @return the format of the values; two decimals, unless another format is set
+	 */
+	public CellFormat getFormat() {
+		return format == null ? DEFAULT_FORMAT : format;
+	}
+
+	/**
+	 * @param format the format of the values; without a format, counts are written as integers
+	 */
+	public void setFormat(CellFormat format) {
+		this.format = format;
+		cachedLatex.clear();
+	}
+
+	/**
+	 * @return the order of the groups of every level or <tt>null</tt> for the natural order of their values
+	 */
+	public Comparator<String> getOrder() {
+		return order;
+	}
+
+	/**
+	 * @param order the order of the groups of every level or <tt>null</tt> for the natural order of their values
+	 */
+	public void setOrder(Comparator<String> order) {
+		this.order = order;
+		cachedLatex.clear();
+	}
+	
+	//--------------------------------------------------------------------------
+	// AXIS
+	//--------------------------------------------------------------------------
+	/**
+	 * The groups of the rows, or of the columns, as a tree; the groups of the 
+	 * outermost dimension are the children of the root and every record ends 
+	 * at a leaf. A group is found by the pair of its parent and its value, 
+	 * packed in a <CODE>long</CODE>.
+	 */
+	private static class Axis {
+		
+		private static final int ROOT = 0;
+		
+		private final String[] names;
+		
+		/** The distinct values of every dimension */
+		private final ArrayList<ArrayList<String>> labels = new ArrayList<ArrayList<String>>();
+		private final ArrayList<HashMap<String, Integer>> codes = new ArrayList<HashMap<String, Integer>>();
+		
+		private final LongIntHashMap groups = new LongIntHashMap(256);
+		
+		private int nGroups = 1;
+		private int nLeaves = 0;
+		private int[] parents = new int[256];
+		private int[] values = new int[256];
+		private int[] levels = new int[256];
+		
+		// The order of the groups, once sorted
+		private int[] firstLeaves;
+		private int[] lastLeaves;
+		private int[][] groupsPerLevel;
+		
+		Axis(String[] names) {
+			
+			this.names = names == null ? new String[0] : names.clone();
+			
+			for (int i=0; i < this.names.length; i++) {
+				labels.add(new ArrayList<String>());
+				codes.add(new HashMap<String, Integer>());
+			}
+			
+			parents[ROOT] = -1;
+			levels[ROOT] = -1;
+		}
+		
+		int getDepth() {
+			return names.length;
+		}
+		
+		String[] getNames() {
+			return names.clone();
+		}
+		
+		/**
+		 * @return the leaf group of <CODE>keys</CODE>, which is added if it is new
+		 */
+		int getLeaf(String[] keys) {
+			
+			int n = keys == null ? 0 : keys.length;
+			
+			if (n != names.length) {
+				throw new IllegalArgumentException("Expected "+names.length+" dimension values; found "+n+"!");
+			}
+			
+			int group = ROOT;
+			
+			for (int level=0; level < n; level++) {
+				
+				int code = encode(level, keys[level]);
+				
+				int child = groups.putIfAbsent(((long) group << 32) | code, nGroups);
+				
+				if (child == nGroups) {
+					
+					if (nGroups == parents.length) {
+						int capacity = nGroups << 1;
+						parents = Arrays.copyOf(parents, capacity);
+						values = Arrays.copyOf(values, capacity);
+						levels = Arrays.copyOf(levels, capacity);
+					}
+					
+					parents[child] = group;
+					values[child] = code;
+					levels[child] = level;
+					nGroups++;
+					
+					if (level == n - 1) {
+						nLeaves++;
+					}
+				}
+				group = child;
+			}
+			return group;
+		}
+		
+		private int encode(int level, String key) {
+			
+			String value = key == null ? "" : key;
+			
+			HashMap<String, Integer> dictionary = codes.get(level);
+			
+			Integer code = dictionary.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.put(value, code);
+				labels.get(level).add(value);
+			}
+			return code;
+		}
+		
+		String getLabel(int group) {
+			return labels.get(levels[group]).get(values[group]);
+		}
+		
+		/**
+		 * @return the number of the leaves; the root is the only leaf of an axis without dimensions
+		 */
+		int getLeafCount() {
+			return names.length == 0 ? 1 : nLeaves;
+		}
+		
+		/**
+		 * @param leaf
+		 * @param path the groups of <CODE>leaf</CODE>, from the outermost dimension to the leaf itself
+		 */
+		void getPath(int leaf, int[] path) {
+			
+			for (int g = leaf; g != ROOT; g = parents[g]) {
+				path[levels[g]] = g;
+			}
+		}
+		
+		/**
+		 * @return the index of the first leaf of <CODE>group</CODE>, in order
+		 */
+		int getFirstLeaf(int group) {
+			return firstLeaves[group];
+		}
+		
+		/**
+		 * @return the index of the last leaf of <CODE>group</CODE>, in order
+		 */
+		int getLastLeaf(int group) {
+			return lastLeaves[group];
+		}
+		
+		/**
+		 * @return the number of the leaves of <CODE>group</CODE>
+		 */
+		int getSpan(int group) {
+			return lastLeaves[group] - firstLeaves[group] + 1;
+		}
+		
+		/**
+		 * @return the groups of a level, in order
+		 */
+		int[] getGroups(int level) {
+			return groupsPerLevel[level];
+		}
+		
+		/**
+		 * Sorts the children of every group, by their values, and numbers the leaves in that order.
+		 * 
+		 * @return the leaves, in order
+		 */
+		int[] sort(final Comparator<String> order) {
+			
+			// The children of every group, in compressed rows
+			int[] childCount = new int[nGroups + 1];
+			for (int g=1; g < nGroups; g++) {
+				childCount[parents[g] + 1]++;
+			}
+			for (int g=0; g < nGroups; g++) {
+				childCount[g + 1] += childCount[g];
+			}
+			
+			Integer[] children = new Integer[nGroups];
+			int[] cursor = Arrays.copyOf(childCount, nGroups);
+			for (int g=1; g < nGroups; g++) {
+				children[cursor[parents[g]]++] = g;
+			}
+			
+			Comparator<Integer> byLabel = new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					if (order == null) {
+						return getLabel(a).compareTo(getLabel(b));
+					}
+					return order.compare(getLabel(a), getLabel(b));
+				}
+			};
+			
+			for (int g=0; g < nGroups; g++) {
+				if (childCount[g + 1] - childCount[g] > 1) {
+					Arrays.sort(children, childCount[g], childCount[g + 1], byLabel);
+				}
+			}
+			
+			// Depth first, without recursion
+			firstLeaves = new int[nGroups];
+			lastLeaves = new int[nGroups];
+			
+			int[] leaves = new int[nGroups];
+			int nOrdered = 0;
+			
+			int[] perLevelCount = new int[names.length];
+			
+			int[][] perLevel = new int[names.length][];
+			for (int g=1; g < nGroups; g++) {
+				perLevelCount[levels[g]]++;
+			}
+			for (int level=0; level < names.length; level++) {
+				perLevel[level] = new int[perLevelCount[level]];
+				perLevelCount[level] = 0;
+			}
+			
+			int[] stack = new int[nGroups];
+			int top = 0;
+			stack[top++] = ROOT;
+			
+			while (top > 0) {
+				
+				int g = stack[--top];
+				
+				if (g != ROOT) {
+					perLevel[levels[g]][perLevelCount[levels[g]]++] = g;
+				}
+				
+				firstLeaves[g] = nOrdered;
+				
+				if (childCount[g + 1] == childCount[g]) {
+					leaves[nOrdered++] = g;
+				} else {
+					// The children are pushed in reverse, so that the first one is visited first
+					for (int c = childCount[g + 1] - 1; c >= childCount[g]; c--) {
+						stack[top++] = children[c];
+					}
+				}
+			}
+			
+			// The last leaf of a group is the first leaf of its next sibling, minus one, 
+			// or the last leaf of its parent; a parent is created before its children
+			lastLeaves[ROOT] = nOrdered - 1;
+			for (int g=0; g < nGroups; g++) {
+				for (int c = childCount[g]; c < childCount[g + 1] - 1; c++) {
+					lastLeaves[children[c]] = firstLeaves[children[c + 1]] - 1;
+				}
+				if (childCount[g + 1] > childCount[g]) {
+					lastLeaves[children[childCount[g + 1] - 1]] = lastLeaves[g];
+				}
+			}
+			
+			groupsPerLevel = perLevel;
+			
+			return Arrays.copyOf(leaves, nOrdered);
+		}
+	}
+}
@@ -22,7 +22,13 @@
  */
 package org.java2tex.custom;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 import org.java2tex.core.ColumnMeta;
@@ -36,6 +42,22 @@ import org.java2tex.core.LatexTable;
  * expose all the versatility and power of LaTeX through our APIs. 
  * Hence, naturally, early adopters of Java2TeX should expect this 
  * class to change significantly.
+ * <P>
+ * A table is either backed by an array of <CODE>nRows</CODE> rows, or by a 
+ * row source, i.e. an <CODE>Iterable</CODE> or an <CODE>Iterator</CODE> of rows.
+ * The rows of a row source are pulled and rendered one at a time, when the 
+ * table is written, so the memory of the table does not depend on the number 
+ * of its rows.
+ * <P>
+ * The rows of an array can be rendered in parallel, in chunks of rows, 
+ * see <CODE>setParallel(boolean)</CODE>; the output is the same as that of 
+ * rendering them one by one.
+ * <P>
+ * The LaTeX source of a table, and the specification of its columns, are 
+ * cached; calling <CODE>getLatex()</CODE> again returns the same source, 
+ * until the table or its <CODE>ColumnMeta</CODE> change. The cells of 
+ * <CODE>getTableArray()</CODE> can be changed behind the back of the 
+ * table, hence call <CODE>invalidate()</CODE> after changing them directly.
  * 
  * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
  * 
@@ -71,9 +93,33 @@ public class SimpleTable implements LatexTable {
 	
 	// BODY
 	private String[][] tableArray;
+	
+	/** The rows of a streaming table, instead of <CODE>tableArray</CODE> */
+	private Iterable<String[]> rowSource = null;
+	
+	/** <tt>true</tt> if the row source wraps an <CODE>Iterator</CODE>, which can be consumed only once */
+	private boolean isOneShot = false;
+	
+	private boolean isConsumed = false;
+	
+	/** The maximum number of rows per environment or <tt>-1</tt> for a single environment */
+	private int maxRowsPerEnvironment = -1;
+	
+	/** The default number of rows that a task renders, when the rows are rendered in parallel */
+	public static final int DEFAULT_PARALLEL_CHUNK_SIZE = 4096;
+	
+	private boolean isParallel = false;
+	
+	private int parallelChunkSize = DEFAULT_PARALLEL_CHUNK_SIZE;
 
 	private StringBuilder latex = new StringBuilder(); 
 	
+	/** The LaTeX source of the table, until the table changes */
+	private ColumnCache cachedLatex = new ColumnCache();
+	
+	/** The specification of the columns, until the columns change */
+	private ColumnCache cachedAlignment = new ColumnCache();
+	
 	private boolean isLandscape = false;
 	private boolean hasHorizontalLines=false;
 	private boolean hasShading=false;
@@ -91,10 +137,46 @@ public class SimpleTable implements LatexTable {
 		
 		tableArray = new String[nRows][nCols];
 	}
+	
+	/**
+	 * Creates a table whose rows are pulled from <CODE>rowSource</CODE> every 
+	 * time that the table is written. The number of rows is unknown, 
+	 * hence <CODE>getNRows()</CODE> returns <tt>-1</tt>.
+	 * 
+	 * @param caption
+	 * @param cols the number of columns; longer rows are truncated
+	 * @param rowSource the rows of the table
+	 */
+	public SimpleTable(String caption, int cols, Iterable<String[]> rowSource) {
+		
+		this.caption = caption;
+		this.nRows = -1;
+		this.nCols = cols;
+		this.rowSource = rowSource;
+	}
+	
+	/**
+	 * Creates a table whose rows are pulled from <CODE>rows</CODE> when the 
+	 * table is written. An <CODE>Iterator</CODE> can be consumed only once, 
+	 * hence the table can be written only once.
+	 * 
+	 * @param caption
+	 * @param cols the number of columns; longer rows are truncated
+	 * @param rows the rows of the table
+	 */
+	public SimpleTable(String caption, int cols, final Iterator<String[]> rows) {
+		
+		this(caption, cols, new Iterable<String[]>() {
+			public Iterator<String[]> iterator() {
+				return rows;
+			}
+		});
+		this.isOneShot = true;
+	}
 
 	public void alignColumns(char cAlign) throws Java2TeXException {
 
-		if (tableArray != null) {
+		if (tableArray != null || rowSource != null) {
 			
 			if (cAlignment!=null && cAlignment.length() > 0) {
 				cAlignment.delete(0, cAlignment.length());
@@ -106,6 +188,9 @@ public class SimpleTable implements LatexTable {
 			
 			cAlignment.append("|");
 			
+			cachedAlignment.clear();
+			invalidate();
+			
 		} else {
 			throw new Java2TeXException("The text array is NULL. Did you load your data?");
 		}
@@ -113,7 +198,7 @@ public class SimpleTable implements LatexTable {
 	
 	public void alignColumns(char[] colAlign) throws Java2TeXException {
 
-		if (tableArray != null) {
+		if (tableArray != null || rowSource != null) {
 			
 			if (colAlign.length >= nCols) {
 				log.error("You passed an array whose size exceeds the specified number of columns!");
@@ -137,6 +222,9 @@ public class SimpleTable implements LatexTable {
 			
 			cAlignment.append("|");
 			
+			cachedAlignment.clear();
+			invalidate();
+			
 		} else {
 			throw new Java2TeXException("The text array is NULL. Did you load your data?");
 		}
@@ -171,8 +259,26 @@ public class SimpleTable implements LatexTable {
 	 */
 	public String getLatex() throws Java2TeXException {
 	
-		//If there is anything in the buffer, erase it
-		if (latex.length() > 0) {
+		if (isStreaming()) {
+			StringWriter out = new StringWriter();
+			try {
+				writeTo(out);
+			} catch (IOException ioX) {
+				// A StringWriter never throws
+				log.error(ioX.getMessage());
+			}
+			return out.toString();
+		}
+		
+		String cached = cachedLatex.get(columnMeta, 0);
+		if (cached != null) {
+			return cached;
+		}
+		
+		// Content that was added manually is kept for the next call
+		int mark = latex.length();
+		
+		if (mark > 0) {
 			
 			// Nothing to build -- the table has been built manually
 
@@ -193,28 +299,13 @@ public class SimpleTable implements LatexTable {
 					addHorizontalLine();
 				}
 				
-				int dummyColumnCount=0;
+				String alignment = getColumnAlignment();
 				
-				for (String[] rows : tableArray) {
-					
-					dummyColumnCount=0;
-					
-					for (String cell : rows) {
-						
-						if (dummyColumnCount > 0) {
-							insert(" & "+cell);
-						} else {
-							insert(cell);
-						}
-						dummyColumnCount++;
-					}
-					
-					if (this.hasHorizontalLines()) {
-						add("\\\\ \\hline");
-					} else {
-						add("\\\\");
-					}
-				}			
+				if (isParallel() && tableArray.length > parallelChunkSize) {
+					appendRowsInParallel(alignment);
+				} else {
+					appendRows(0, tableArray.length, alignment, latex);
+				}
 			} else {
 				throw new Java2TeXException("The text array is NULL. Did you load your data?");
 			}
@@ -238,11 +329,244 @@ public class SimpleTable implements LatexTable {
 			add("\\end{landscape}");
 		}
 		
-		return latex.toString();
+		String source = latex.toString();
+		latex.setLength(mark);
+		
+		return cachedLatex.put(columnMeta, 0, source);
+	}
+	
+	/**
+	 * Discards the cached LaTeX source of this table. The table calls it 
+	 * on every change; call it after changing the cells of 
+	 * <CODE>getTableArray()</CODE> directly.
+	 */
+	public void invalidate() {
+		cachedLatex.clear();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#writeTo(java.io.Writer)
+	 */
+	public void writeTo(Writer out) throws Java2TeXException, IOException {
+		
+		if ( ! isStreaming() ) {
+			out.write(getLatex());
+			return;
+		}
+		
+		if (latex.length() > 0) {
+			throw new Java2TeXException("The rows of table "+getId()+" come from a row source; " +
+					"they cannot be combined with manually added content!");
+		}
+		
+		if (isConsumed) {
+			throw new Java2TeXException("The rows of table "+getId()+" have been consumed already!");
+		}
+		isConsumed = isOneShot;
+		
+		Iterator<String[]> rows = rowSource.iterator();
+		
+		// The opening of the table goes through the buffer, which is then emptied
+		initLatex();
+		
+		addHorizontalLine();
+
+		if ( headers != null && headers.length > 0) {
+			printHeaders();
+		}
+		
+		if ( hasHorizontalLines()) {
+			addHorizontalLine();
+		}
+		
+		flush(out);
+		
+		String rowEnd = hasHorizontalLines() ? "\\\\ \\hline\n" : "\\\\\n";
+		
+		long rowCount = 0;
+		
+		while (rows.hasNext()) {
+			
+			String[] row = rows.next();
+			
+			if (TableChunks.isBoundary(rowCount, maxRowsPerEnvironment)) {
+				addEnvironmentBreak(rowCount);
+				flush(out);
+			}
+			rowCount++;
+			
+			int n = Math.min(row.length, nCols);
+			
+			for (int j=0; j < n; j++) {
+				if (j > 0) {
+					out.write(" & ");
+				}
+				out.write(String.valueOf(row[j]));
+			}
+			out.write(rowEnd);
+		}
+		
+		addHorizontalLine();
+		
+		if ( isLongTable() ) {
+			add("\\end{supertabular}");
+		} else {
+			add("\\end{tabular}");
+		}
+
+		add("\\label{"+getId()+"}");
+		
+		add("\\end{table}");
+		
+		if (isLandscape()) {
+			add("\\end{landscape}");
+		}
+		
+		flush(out);
+	}
+	
+	/**
+	 * Appends the rows <CODE>from</CODE> (inclusive) to <CODE>to</CODE> (exclusive) 
+	 * of the array to <CODE>sB</CODE>, along with the environment breaks among them.
+	 * It only reads the state of the table, so the chunks of a table can be 
+	 * rendered by many threads, each one to its own buffer.
+	 */
+	private void appendRows(int from, int to, String alignment, StringBuilder sB) {
+		
+		String rowEnd = hasHorizontalLines() ? "\\\\ \\hline\n" : "\\\\\n";
+		
+		for (int i=from; i < to; i++) {
+			
+			if (TableChunks.isBoundary(i, maxRowsPerEnvironment)) {
+				appendEnvironmentBreak(i, alignment, sB);
+			}
+			
+			String[] row = tableArray[i];
+			
+			for (int j=0; j < row.length; j++) {
+				if (j > 0) {
+					sB.append(" & ");
+				}
+				sB.append(row[j]);
+			}
+			sB.append(rowEnd);
+		}
+	}
+	
+	/**
+	 * Renders the chunks of rows of the array concurrently, on the common 
+	 * <CODE>ForkJoinPool</CODE>, and appends them to the buffer in order.
+	 */
+	private void appendRowsInParallel(final String alignment) {
+		
+		int nChunks = (tableArray.length + parallelChunkSize - 1) / parallelChunkSize;
+		
+		final StringBuilder[] chunks = new StringBuilder[nChunks];
+		
+		ForkJoinPool.commonPool().invoke(new RenderTask(0, nChunks, alignment, chunks));
+		
+		for (StringBuilder chunk : chunks) {
+			latex.append(chunk);
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Rendered "+tableArray.length+" rows of table "+getId()+" in "+nChunks+" chunks");
+		}
+	}
+	
+	/**
+	 * Renders the chunks <CODE>first</CODE> (inclusive) to <CODE>last</CODE> 
+	 * (exclusive), by splitting them in half until a single chunk is left.
+	 */
+	private class RenderTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+
+		private final int first;
+		private final int last;
+		private final String alignment;
+		private final StringBuilder[] chunks;
+		
+		RenderTask(int first, int last, String alignment, StringBuilder[] chunks) {
+			this.first = first;
+			this.last = last;
+			this.alignment = alignment;
+			this.chunks = chunks;
+		}
+		
+		@Override
+		protected void compute() {
+			
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new RenderTask(first, middle, alignment, chunks), 
+						  new RenderTask(middle, last, alignment, chunks));
+				return;
+			}
+			
+			int from = first * parallelChunkSize;
+			int to = Math.min(from + parallelChunkSize, tableArray.length);
+			
+			StringBuilder sB = new StringBuilder(64 * (to - from));
+			appendRows(from, to, alignment, sB);
+			chunks[first] = sB;
+		}
+	}
+	
+	/**
+	 * Ends the current environment and begins the next one, which continues 
+	 * the shading and the vertical lines of the table. The tabulars of a 
+	 * float are stacked, without any space between them.
+	 * 
+	 * @param rowsBefore the number of rows that have been written
+	 */
+	private void addEnvironmentBreak(long rowsBefore) throws Java2TeXException {
+		appendEnvironmentBreak(rowsBefore, getColumnAlignment(), latex);
+	}
+	
+	private void appendEnvironmentBreak(long rowsBefore, String alignment, StringBuilder sB) {
+		
+		if ( isLongTable() ) {
+			sB.append("\\end{supertabular}\n");
+		} else {
+			sB.append("\\end{tabular}\\par\\nointerlineskip\n");
+		}
+		
+		if (hasShading()) {
+			int headRows = headers != null && headers.length > 0 ? 1 : 0;
+			sB.append(TableChunks.getRowColors(getShadeColor(), rowsBefore, headRows)).append("\n");
+		}
+		
+		if ( isLongTable() ) {
+			sB.append("\\begin{supertabular}").append(alignment).append("\n");
+		} else {
+			sB.append("\\begin{tabular}").append(alignment).append("\n");
+		}
+	}
+	
+	/**
+	 * Writes the buffer of this table to <CODE>out</CODE> and empties it.
+	 */
+	private void flush(Writer out) throws IOException {
+		
+		out.append(latex);
+		latex.setLength(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.java2tex.core.LatexTable#isStreaming()
+	 */
+	public boolean isStreaming() {
+		return rowSource != null;
 	}
 	
 	public String getColumnAlignment() throws Java2TeXException {
 		
+		String cached = cachedAlignment.get(columnMeta, cAlignment.length());
+		if (cached != null) {
+			return cached;
+		}
+		
 		StringBuilder s = new StringBuilder("{");
 		
 		if ( columnMeta != null ) {
@@ -288,7 +612,7 @@ public class SimpleTable implements LatexTable {
 		
 		s.append("}");
 		
-		return s.toString();
+		return cachedAlignment.put(columnMeta, cAlignment.length(), s.toString());
 	}
 
 	private void printHeaders() {
@@ -354,19 +678,28 @@ public class SimpleTable implements LatexTable {
 	
 	public void add(String txt) {
 		latex.append(txt).append("\n");
+		invalidate();
 	}
 
 	private void insert(String txt) {
 		latex.append(txt);
+		invalidate();
 	}
 
 	public void setValues(String[][] values) {
 		
+		if (isStreaming()) {
+			log.error("The rows of this table come from a row source; the values are ignored!");
+			return;
+		}
+		
 		if (values.length > nRows) {
 			log.error("You passed an array that exceeds the specified number of nodes in the constructor!");
 			log.warn("The table will contain the first "+nRows+" number of rows, as specified in the constructor.");
 		}
 
+		invalidate();
+		
 		int i=0;
 		for (@SuppressWarnings("unused")
 		String[] rows : values) {
@@ -505,7 +838,7 @@ public class SimpleTable implements LatexTable {
 			numberOfLeafNodes *=rowSpan[i];
 		}
 		
-		if ( numberOfLeafNodes > nRows) {
+		if ( nRows >= 0 && numberOfLeafNodes > nRows) {
 			throw new Java2TeXException("Row span is greater than the table row size ("+nRows+")");
 		} else {
 			log.info("One row that spans "+numberOfLeafNodes+" rows");
@@ -563,6 +896,10 @@ public class SimpleTable implements LatexTable {
 	
 	public void addRow(int cursor, String[] row) throws Java2TeXException {
 		
+		if (isStreaming()) {
+			throw new Java2TeXException("The rows of this table come from a row source!");
+		}
+		
 		if (cursor >= nRows) {
 			throw new Java2TeXException("Row cursor is greater than the table row size ("+nRows+")");
 		}
@@ -573,6 +910,8 @@ public class SimpleTable implements LatexTable {
 			log.warn("The table will contain the first "+nCols+" columns.");
 		}
 		
+		invalidate();
+		
 		int j=0;
 		for (String cell : row) {
 			if (j<nCols) {
@@ -601,6 +940,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void setId(String id) {
 		this.id = id;
+		invalidate();
 	}
 
 	/* (non-Javadoc)
@@ -615,6 +955,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void setLandscape(boolean isLandscape) {
 		this.isLandscape = isLandscape;
+		invalidate();
 	}
 
 	/* (non-Javadoc)
@@ -629,6 +970,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void hasHorizontalLines(boolean hasHorizontalLines) {
 		this.hasHorizontalLines = hasHorizontalLines;
+		invalidate();
 	}
 
 	/* (non-Javadoc)
@@ -643,6 +985,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void setHeaders(String[] headers) {
 		this.headers = headers;
+		invalidate();
 	}
 
 	/* (non-Javadoc)
@@ -657,6 +1000,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void setColumnMeta(ArrayList<ColumnMeta> columnMeta) {
 		this.columnMeta = columnMeta;
+		invalidate();
 	}
 
 	/* (non-Javadoc)
@@ -664,6 +1008,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void addColumn(ColumnMeta c) {
 		columnMeta.add(c);
+		invalidate();
 	}
 	
 	/**
@@ -696,6 +1041,8 @@ public class SimpleTable implements LatexTable {
 	
 	/* (non-Javadoc)
 	 * @see org.java2tex.core.LatexTable#getNRows()
+	 * 
+	 * It is -1 for a table that is backed by a row source.
 	 */
 	public int getNRows() {
 		return nRows;
@@ -722,6 +1069,66 @@ public class SimpleTable implements LatexTable {
 		return tableArray;
 	}
 
+	/**
+	 * @return the maximum number of rows per environment or <tt>-1</tt> for a single environment
+	 */
+	public int getMaxRowsPerEnvironment() {
+		return maxRowsPerEnvironment;
+	}
+
+	/**
+	 * Splits the rows of this table into consecutive <tt>tabular</tt>, or 
+	 * <tt>supertabular</tt>, environments of at most <CODE>maxRows</CODE> 
+	 * rows each, not counting the header row. Use it for tables 
+	 * with so many rows that TeX would run out of memory.
+	 * 
+	 * @param maxRows the maximum number of rows per environment or <tt>-1</tt> for a single environment
+	 */
+	public void setMaxRowsPerEnvironment(int maxRows) {
+		
+		if (maxRows == 0 || maxRows < -1) {
+			throw new IllegalArgumentException("The maximum number of rows must be positive or -1! Found: "+maxRows);
+		}
+		this.maxRowsPerEnvironment = maxRows;
+		invalidate();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the rows of the array are rendered in parallel
+	 */
+	public boolean isParallel() {
+		return isParallel;
+	}
+
+	/**
+	 * Renders the rows of the array in chunks of <CODE>getParallelChunkSize()</CODE>
+	 * rows, concurrently, when the table has more rows than a chunk. 
+	 * The rows of a row source are always rendered one by one, as they are pulled.
+	 * 
+	 * @param isParallel <tt>true</tt> for rendering the rows in parallel
+	 */
+	public void setParallel(boolean isParallel) {
+		this.isParallel = isParallel;
+	}
+
+	/**
+	 * @return the number of rows that a task renders, when the rows are rendered in parallel
+	 */
+	public int getParallelChunkSize() {
+		return parallelChunkSize;
+	}
+
+	/**
+	 * @param parallelChunkSize the number of rows that a task renders, when the rows are rendered in parallel
+	 */
+	public void setParallelChunkSize(int parallelChunkSize) {
+		
+		if (parallelChunkSize < 1) {
+			throw new IllegalArgumentException("The size of a chunk must be positive! Found: "+parallelChunkSize);
+		}
+		this.parallelChunkSize = parallelChunkSize;
+	}
+
 	/**
 	 * @return the isLongTable
 	 */
@@ -734,6 +1141,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void setLongTable(boolean isLongTable) {
 		this.isLongTable = isLongTable;
+		invalidate();
 	}
 
 	/**
@@ -748,6 +1156,7 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void hasShading(boolean hasShading) {
 		this.hasShading = hasShading;
+		invalidate();
 	}
 
 	/**
@@ -762,5 +1171,6 @@ public class SimpleTable implements LatexTable {
 	 */
 	public void setShadeColor(String shadeColor) {
 		this.shadeColor = shadeColor;
+		invalidate();
 	}
 }
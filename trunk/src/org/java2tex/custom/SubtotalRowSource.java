@@ -0,0 +1,418 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.java2tex.core.CellFormat;
+import org.java2tex.custom.PivotTable.Aggregate;
+
+/**
+ * A row source that adds subtotal rows to rows that arrive sorted by their 
+ * groups, and a grand total at the end. It is meant for the streaming 
+ * <CODE>SimpleTable</CODE>, e.g. 
+ * <CODE>new SimpleTable(caption, cols, new SubtotalRowSource(rows, 0))</CODE>.
+ * <P>
+ * The totals are computed in the same pass that renders the rows: every row 
+ * updates the running totals of its groups and a subtotal row is emitted as 
+ * soon as a group ends, i.e. when the value of its column changes, so no group 
+ * is ever held in memory. The groups can be nested; the outer group comes first. 
+ * A subtotal row starts with a <tt>\cline</tt> from the column of its group 
+ * and its cells are bold; the grand total starts with a <tt>\hline</tt>.
+ * <P>
+ * The totalled columns must hold plain numbers, e.g. <tt>1234.5</tt>; cells 
+ * that are not numbers are not counted, except by <CODE>COUNT</CODE>, which 
+ * counts the rows of a group.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+public class SubtotalRowSource implements Iterable<String[]> {
+
+	/** The format of the totals, unless another one is set */
+	private static final CellFormat DEFAULT_FORMAT = CellFormat.fixed(2);
+	
+	private final Iterable<String[]> rows;
+	
+	private final int[] groupColumns;
+	
+	// TOTALS
+	private final ArrayList<Integer> totalColumns = new ArrayList<Integer>();
+	private final ArrayList<Aggregate> aggregates = new ArrayList<Aggregate>();
+	private final ArrayList<CellFormat> formats = new ArrayList<CellFormat>();
+	
+	private String subtotalLabel = "Subtotal";
+	private String grandTotalLabel = "Total";
+	
+	private boolean hasGrandTotal = true;
+	
+	/**
+	 * @param rows the rows, sorted by the values of the group columns
+	 * @param groupColumns the columns of the groups, from the outer to the inner group
+	 */
+	public SubtotalRowSource(Iterable<String[]> rows, int... groupColumns) {
+		
+		if (groupColumns.length == 0) {
+			throw new IllegalArgumentException("At least one group column is required!");
+		}
+		
+		this.rows = rows;
+		this.groupColumns = groupColumns.clone();
+	}
+	
+	/**
+	 * Totals a column in the default format, i.e. two decimals; counts are integers.
+	 * 
+	 * @param column the index of the column
+	 * @param aggregate the total of the column
+	 */
+	public void addTotal(int column, Aggregate aggregate) {
+		addTotal(column, aggregate, null);
+	}
+	
+	/**
+	 * @param column the index of the column
+	 * @param aggregate the total of the column
+	 * @param format the format of the total
+	 * @throws IllegalArgumentException if the column has a total already
+	 */
+	public void addTotal(int column, Aggregate aggregate, CellFormat format) {
+		
+		if (aggregate == null) {
+			throw new IllegalArgumentException("The aggregate of a total is required!");
+		}
+		
+		if (totalColumns.contains(column)) {
+			throw new IllegalArgumentException("Column "+column+" has a total already!");
+		}
+		
+		totalColumns.add(column);
+		aggregates.add(aggregate);
+		formats.add(format);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	public Iterator<String[]> iterator() {
+		return new SubtotalIterator(rows.iterator());
+	}
+	
+	/**
+	 * @return the label of the subtotal rows, which is followed by the value of the group
+	 */
+	public String getSubtotalLabel() {
+		return subtotalLabel;
+	}
+
+	/**
+	 * @param subtotalLabel the label of the subtotal rows, which is followed by the value of the group
+	 */
+	public void setSubtotalLabel(String subtotalLabel) {
+		this.subtotalLabel = subtotalLabel;
+	}
+
+	/**
+	 * @return the label of the grand total
+	 */
+	public String getGrandTotalLabel() {
+		return grandTotalLabel;
+	}
+
+	/**
+	 * @param grandTotalLabel the label of the grand total
+	 */
+	public void setGrandTotalLabel(String grandTotalLabel) {
+		this.grandTotalLabel = grandTotalLabel;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the last row is the grand total
+	 */
+	public boolean hasGrandTotal() {
+		return hasGrandTotal;
+	}
+
+	/**
+	 * @param hasGrandTotal <tt>true</tt> if the last row is the grand total
+	 */
+	public void hasGrandTotal(boolean hasGrandTotal) {
+		this.hasGrandTotal = hasGrandTotal;
+	}
+	
+	/**
+	 * Passes the rows through and inserts the subtotals, as the groups end. 
+	 * The running totals of every level are kept in primitive arrays; the 
+	 * level after the innermost group is the grand total.
+	 */
+	private class SubtotalIterator implements Iterator<String[]> {
+		
+		private final Iterator<String[]> source;
+		
+		private final ArrayDeque<String[]> pending = new ArrayDeque<String[]>();
+		
+		/** The values of the group columns of the previous row */
+		private String[] keys = null;
+		
+		/** The number of the cells of a row */
+		private int width = 0;
+		
+		private boolean isDone = false;
+		
+		private final int nLevels = groupColumns.length + 1;
+		private final int nTotals = totalColumns.size();
+		
+		private final long[] rowCounts = new long[nLevels];
+		private final long[][] counts = new long[nLevels][nTotals];
+		private final double[][] sums = new double[nLevels][nTotals];
+		private final double[][] mins = new double[nLevels][nTotals];
+		private final double[][] maxs = new double[nLevels][nTotals];
+		
+		SubtotalIterator(Iterator<String[]> source) {
+			
+			this.source = source;
+			
+			for (int level=0; level < nLevels; level++) {
+				reset(level);
+			}
+		}
+		
+		public boolean hasNext() {
+			
+			if (pending.isEmpty()) {
+				fill();
+			}
+			return ! pending.isEmpty();
+		}
+		
+		public String[] next() {
+			
+			if ( ! hasNext() ) {
+				throw new NoSuchElementException();
+			}
+			return pending.poll();
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		private void fill() {
+			
+			if (isDone) {
+				return;
+			}
+			
+			if ( ! source.hasNext() ) {
+				
+				isDone = true;
+				
+				if (keys != null) {
+					endGroups(0);
+					if (hasGrandTotal) {
+						pending.add(getTotalRow(nLevels - 1));
+					}
+				}
+				return;
+			}
+			
+			String[] row = source.next();
+			
+			if (keys == null) {
+				
+				keys = new String[groupColumns.length];
+				
+			} else {
+				
+				// The outermost group that changed ends, along with all of its inner groups
+				for (int level=0; level < groupColumns.length; level++) {
+					if ( ! equal(keys[level], getCell(row, groupColumns[level])) ) {
+						endGroups(level);
+						break;
+					}
+				}
+			}
+			
+			width = Math.max(width, row.length);
+			
+			for (int level=0; level < groupColumns.length; level++) {
+				keys[level] = getCell(row, groupColumns[level]);
+			}
+			
+			accumulate(row);
+			
+			pending.add(row);
+		}
+		
+		/**
+		 * Emits the subtotals of the groups from the innermost one to <CODE>outer</CODE>.
+		 */
+		private void endGroups(int outer) {
+			
+			for (int level = groupColumns.length - 1; level >= outer; level--) {
+				pending.add(getTotalRow(level));
+				reset(level);
+			}
+		}
+		
+		private void accumulate(String[] row) {
+			
+			for (int level=0; level < nLevels; level++) {
+				rowCounts[level]++;
+			}
+			
+			for (int t=0; t < nTotals; t++) {
+				
+				String cell = getCell(row, totalColumns.get(t));
+				
+				double value;
+				try {
+					if (cell == null) {
+						continue;
+					}
+					value = Double.parseDouble(cell.trim());
+				} catch (NumberFormatException nfX) {
+					continue;
+				}
+				
+				for (int level=0; level < nLevels; level++) {
+					counts[level][t]++;
+					sums[level][t] += value;
+					if (value < mins[level][t]) {
+						mins[level][t] = value;
+					}
+					if (value > maxs[level][t]) {
+						maxs[level][t] = value;
+					}
+				}
+			}
+		}
+		
+		private void reset(int level) {
+			
+			rowCounts[level] = 0;
+			Arrays.fill(counts[level], 0);
+			Arrays.fill(sums[level], 0);
+			Arrays.fill(mins[level], Double.POSITIVE_INFINITY);
+			Arrays.fill(maxs[level], Double.NEGATIVE_INFINITY);
+		}
+		
+		/**
+		 * @param level the level of a group or <CODE>groupColumns.length</CODE> for the grand total
+		 */
+		private String[] getTotalRow(int level) {
+			
+			String[] total = new String[width];
+			Arrays.fill(total, "");
+			
+			boolean isGrandTotal = level == groupColumns.length;
+			
+			int labelColumn = isGrandTotal ? 0 : groupColumns[level];
+			
+			String label = isGrandTotal ? grandTotalLabel : subtotalLabel+" "+keys[level];
+			
+			set(total, labelColumn, "\\textbf{"+label+"}");
+			
+			StringBuilder sB = new StringBuilder(32);
+			
+			for (int t=0; t < nTotals; t++) {
+				
+				sB.setLength(0);
+				sB.append("\\textbf{");
+				
+				if ( ! appendTotal(level, t, sB) ) {
+					continue;
+				}
+				
+				set(total, totalColumns.get(t), sB.append("}").toString());
+			}
+			
+			// The line above the total row goes at the beginning of its first cell
+			String line = isGrandTotal ? "\\hline " : "\\cline{"+(labelColumn + 1)+"-"+width+"} ";
+			total[0] = line + total[0];
+			
+			return total;
+		}
+		
+		/**
+		 * @return <tt>false</tt> if the total is undefined, i.e. a group without numbers
+		 */
+		private boolean appendTotal(int level, int t, StringBuilder sB) {
+			
+			CellFormat format = formats.get(t);
+			
+			switch (aggregates.get(t)) {
+			case COUNT:
+				if (format == null) {
+					sB.append(rowCounts[level]);
+				} else {
+					format.format(rowCounts[level], sB);
+				}
+				return true;
+			case SUM:
+				getFormat(format).format(sums[level][t], sB);
+				return true;
+			case MIN:
+				if (counts[level][t] > 0) {
+					getFormat(format).format(mins[level][t], sB);
+				}
+				return counts[level][t] > 0;
+			case MAX:
+				if (counts[level][t] > 0) {
+					getFormat(format).format(maxs[level][t], sB);
+				}
+				return counts[level][t] > 0;
+			case MEAN:
+				if (counts[level][t] > 0) {
+					getFormat(format).format(sums[level][t] / counts[level][t], sB);
+				}
+				return counts[level][t] > 0;
+			}
+			return false;
+		}
+		
+		private CellFormat getFormat(CellFormat format) {
+			return format == null ? DEFAULT_FORMAT : format;
+		}
+		
+		private void set(String[] row, int column, String cell) {
+			if (column < row.length) {
+				row[column] = cell;
+			}
+		}
+		
+		private String getCell(String[] row, int column) {
+			return column < row.length ? row[column] : null;
+		}
+		
+		private boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
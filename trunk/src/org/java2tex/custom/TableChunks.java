@@ -0,0 +1,69 @@
+/*
+ *                       Java2TeX 
+ * Professional Document Preparation with Java and LaTeX
+ * 
+ * Copyright 2008, Emptoris, Inc. and individual contributors
+ * as indicated by the @author tags.  
+ * 
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ */
+package org.java2tex.custom;
+
+/**
+ * The boundaries of a table that is split into consecutive environments, 
+ * every so many rows. TeX keeps the rows of an environment in memory until 
+ * the environment ends, hence a bounded number of rows per environment keeps
+ * very large tables within the capacity of TeX.
+ * 
+ * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
+ * 
+ * @since   <tt>1.1</tt> 
+ * @version <tt>1.1</tt>
+ */
+final class TableChunks {
+
+	private TableChunks() {
+	}
+	
+	/**
+	 * @param rowsBefore the number of rows that have been written
+	 * @param maxRows the maximum number of rows per environment or <tt>-1</tt> for no limit
+	 * @return <tt>true</tt> if a new environment starts before the next row
+	 */
+	static boolean isBoundary(long rowsBefore, int maxRows) {
+		return maxRows > 0 && rowsBefore > 0 && rowsBefore % maxRows == 0;
+	}
+	
+	/**
+	 * The shading of a table starts with <tt>\rowcolors{2}{color}{}</tt>, which 
+	 * counts the header rows too. The rows of the next environment are counted
+	 * from one, hence the colours are swapped, whenever it is necessary, for 
+	 * shading the same rows as a single environment would.
+	 * 
+	 * @param color the shade colour
+	 * @param rowsBefore the number of rows that have been written
+	 * @param headRows the number of header rows of the first environment
+	 * @return the <tt>\rowcolors</tt> declaration of the next environment
+	 */
+	static String getRowColors(String color, long rowsBefore, int headRows) {
+		
+		if ((rowsBefore + headRows) % 2 == 0) {
+			return "\\rowcolors{1}{"+color+"}{}";
+		} else {
+			return "\\rowcolors{1}{}{"+color+"}";
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package org.java2tex.custom;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
 import org.apache.log4j.Logger;
 import org.java2tex.core.Java2TeXException;
 import org.java2tex.core.LatexTable;
@@ -9,6 +13,8 @@ import org.java2tex.core.LatexGraphics;
 /**
  * The basic representation of a document appropriate for the XeTeX processor.
  * This is a bare bones implementation. 
+ * Compile it with a processor that runs the <CODE>XeLatexEngine</CODE>, e.g.
+ * <CODE>new LatexProcessor(rootDir, new XeLatexEngine())</CODE>.
  * 
  * @author <a href="mailto:babis.marmanis@gmail.com">Babis Marmanis</a>
  * 
@@ -43,6 +49,8 @@ public class XeTeXDocument extends LatexDocument {
 
 		log.debug("Adding Figure: "+figure.getId());
 		
+		prepareFigure(figure);
+		
 		if (figure.isLandscape()) {
 			add("\\begin{landscape}");
 		}		
@@ -68,25 +76,12 @@ public class XeTeXDocument extends LatexDocument {
 	}
 	
 	/**
-	 * TODO: This method is essentially identical to the second addTable method.
-	 * Define an interface and use that to simplify the code. For example, SimpleTable
-	 * could be the interface and SimpleTable/BigTable the two implementations. 
+	 * A <CODE>MultiPageTable</CODE> is added just like any other <CODE>LatexTable</CODE>.
 	 * 
 	 * @param table
 	 */
 	public void addTable(MultiPageTable table) {
-
-		log.debug("Adding table: "+table.getId());
-
-		try {
-			
-			add(table.getLatex());
-			
-		} catch (Java2TeXException j2tX) {
-			log.error("FAILED TO ADD A TABLE!");
-			log.error(j2tX.getMessage());
-		}		
-		
+		addTable((LatexTable) table);
 	}
 
 	@Override
@@ -94,6 +89,16 @@ public class XeTeXDocument extends LatexDocument {
 		
 		log.debug("Adding table: "+table.getId());
 		
+		if (table instanceof PaginatedTable) {
+			((PaginatedTable) table).fitTo(getTextArea());
+		}
+		
+		if (table.isStreaming()) {
+			// The rows are pulled when the document is written
+			addDeferred(table);
+			return;
+		}
+		
 		try {
 			
 			add(table.getLatex());
@@ -105,7 +110,7 @@ public class XeTeXDocument extends LatexDocument {
 	}
 
 	@Override
-	public String initLatex() {
+	public String getStaticPreamble() {
 		
 		StringBuilder latex = new StringBuilder(); 
 		
@@ -117,7 +122,24 @@ public class XeTeXDocument extends LatexDocument {
 		}
 		//Add packages
 		if (hasCustomPdfPackage()) {
-			customPdfPackage();
+			latex.append(customPdfPackage());
+		}
+		
+		return latex.toString();
+	}
+	
+	@Override
+	public String initLatex() {
+		
+		StringBuilder latex = new StringBuilder(); 
+		
+		// With a precompiled format, the engine has loaded these already
+		if (getPreambleFormat() == null) {
+			latex.append(getStaticPreamble());
+		}
+		
+		if (hasCustomPdfPackage()) {
+			latex.append(customPdfSetup());
 		}
 		latex.append("%\n");
 		latex.append("% --- End of package imports ---\n");
@@ -153,8 +175,7 @@ public class XeTeXDocument extends LatexDocument {
 		latex.append("\\topmargin 0.2cm \n");
 		latex.append("\\oddsidemargin 1cm \n");
 		latex.append("\\evensidemargin 0.5cm \n");
-		latex.append("\\textwidth 15cm \n");
-		latex.append("\\textheight 21cm \n");
+		latex.append(getTextArea().getLatex());
 		latex.append("\\definecolor{rltred}{rgb}{0.75,0,0}\n");
 		latex.append("\\definecolor{rltgreen}{rgb}{0,0.5,0}\n");
 		latex.append("\\definecolor{rltblue}{rgb}{0,0,0.75}\n");
@@ -167,66 +188,92 @@ public class XeTeXDocument extends LatexDocument {
 	@Override
 	public String getLatex() {
 		
-		StringBuilder latex = new StringBuilder(); 
+		StringWriter latex = new StringWriter(); 
 		
-		latex.append(initLatex());
+		try {
+			writeTo(latex);
+		} catch (IOException ioX) {
+			// A StringWriter never throws
+			log.error(ioX.getMessage());
+		}
 
-		latex.append("\\makeindex \n");
+		return latex.toString();
+	}
+	
+	@Override
+	public void writeTo(Writer out) throws IOException {
+		
+		out.write(initLatex());
+
+		out.write("\\makeindex \n");
 		
-		latex.append("\\begin{document} \n");
+		out.write("\\begin{document} \n");
 
-		latex.append("\\thispagestyle{plain}");
+		out.write("\\thispagestyle{plain}");
 		
-//		latex.append("\\vspace{1cm}");
+//		out.write("\\vspace{1cm}");
 		
-		latex.append("\\Large \n");
-		latex.append("\\noindent \n");
-		latex.append("\\begin{tabular*}{0.95\\textwidth}{@{\\extracolsep{\\fill}} ll} \n");
-		latex.append("  \\hline \\\\ \n");
-		latex.append("    \\bf{Title}      & " + getTitle() + " \\\\ \n");
-		latex.append("    \\bf{Author}     & " + getAuthor() + " \\\\ \n");
-		latex.append("	  Created on & " + getLocaleDate()+ " \\\\ \n");
-		latex.append("  \\hline \n");
-		latex.append("\\end{tabular*} \n");
+		out.write("\\Large \n");
+		out.write("\\noindent \n");
+		out.write("\\begin{tabular*}{0.95\\textwidth}{@{\\extracolsep{\\fill}} ll} \n");
+		out.write("  \\hline \\\\ \n");
+		out.write("    \\bf{Title}      & " + getTitle() + " \\\\ \n");
+		out.write("    \\bf{Author}     & " + getAuthor() + " \\\\ \n");
+		out.write("	  Created on & " + getLocaleDate()+ " \\\\ \n");
+		out.write("  \\hline \n");
+		out.write("\\end{tabular*} \n");
 		
-		latex.append("\\normalsize \n");
+		out.write("\\normalsize \n");
 				
-		latex.append("\\tableofcontents \n");
+		out.write("\\tableofcontents \n");
 
 		if (getNumberOfFigures() > 0) {
-			latex.append("\\listoffigures \n");			
+			out.write("\\listoffigures \n");			
 		}
 
 		if (getNumberOfTables() > 0) {
-			latex.append("\\listoftables \n");			
+			out.write("\\listoftables \n");			
 		}
 
-		latex.append(getBody());
-
-		latex.append("\\end{document} \n");
+		writeBody(out);
 
-		return latex.toString();
+		out.write("\\end{document} \n");
 	}
 	
 	
 
-	private void customPdfPackage() {
+	/**
+	 * The options of <tt>hyperref</tt> that do not depend on the document. 
+	 * They are part of the static preamble, so that <tt>hyperref</tt> 
+	 * can be loaded from a precompiled format.
+	 */
+	private String customPdfPackage() {
 		
-		StringBuilder latex = new StringBuilder("\\usepackage[pdftex,\n");
+		StringBuilder latex = new StringBuilder("\\usepackage[xetex,\n");
 		latex.append("             colorlinks=true,\n");
 		latex.append("             urlcolor=rltblue,       % \\href{...}{...} external (URL)\n");
 		latex.append("             filecolor=rltgreen,     % \\href{...} local file\n");
 		latex.append("             linkcolor=rltred,       % \\ref{...} and \\pageref{...}\n");
+		latex.append("             pagebackref,\n");
+		latex.append("             pdfpagemode=None,\n");
+		latex.append("             bookmarksopen=true]{hyperref}\n");
+
+		return latex.toString();
+	}
+	
+	/**
+	 * The metadata of the PDF document, which differ from document to document.
+	 */
+	private String customPdfSetup() {
+		
+		StringBuilder latex = new StringBuilder("\\hypersetup{\n");
 		latex.append("             pdftitle={"+getTitle()+"},\n");
 		latex.append("             pdfauthor={"+getAuthor()+"},\n");
 		latex.append("             pdfsubject={"+getSubject()+"},\n");
 		latex.append("             pdfkeywords={"+getKeywords()+"},\n");
-		latex.append("             pdfproducer={pdfLaTeX},\n");
-		latex.append("             pagebackref,\n");
-		latex.append("             pdfpagemode=None,\n");
-		latex.append("             bookmarksopen=true]{hyperref}\n");
+		latex.append("             pdfproducer={XeLaTeX}}\n");
 
-		packages.add(latex.toString());
+		return latex.toString();
 	}
 	
 	/**
@@ -23,8 +23,11 @@
 
 package org.java2tex.demo;
 
+import java.io.File;
+
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
+import org.java2tex.core.AssetStore;
 import org.java2tex.core.Java2TeXException;
 import org.java2tex.core.LatexDocument;
 import org.java2tex.core.LatexGraphics;
@@ -102,6 +105,13 @@ public class ArticleExample {
 		
 		doc.setDocumentStyle("article");
 		
+		/*
+		 * The images are copied once into the asset store and linked into the 
+		 * directory where the document is compiled, so the document refers 
+		 * to them by name rather than by their location on this machine.
+		 */
+		doc.setAssetStore(new AssetStore(new File(latexProc.getLatexRootDir(), "assets")));
+		
 		doc.setStyleOptions("11pt,a4paper,twoside,fleqn");
 		
 		doc.setTitle("Creating PDF reports with Java code!");
@@ -229,11 +239,20 @@ public class ArticleExample {
 		return doc;
 	}
 	
+	/**
+	 * The example images are in <tt>docs/example</tt>. The directory can be set 
+	 * with the <tt>java2tex.examples</tt> system property; by default it is 
+	 * looked up relative to the <tt>build</tt> directory, where the <tt>run</tt> target starts.
+	 */
 	private static String getGraphicsFileName(String graphicsFile) throws Java2TeXException {
 		
-		StringBuilder gFileName = new StringBuilder("c:/Java2TeX/docs/example/");
-		gFileName.append(graphicsFile);
+		File examples = new File(System.getProperty("java2tex.examples", "../docs/example"));
+		
+		File gFile = new File(examples, graphicsFile);
+		if ( ! gFile.isFile() ) {
+			throw new Java2TeXException("Could not find the example image: "+gFile.getAbsolutePath());
+		}
 		
-		return gFileName.toString();
+		return gFile.getPath();
 	}
 }
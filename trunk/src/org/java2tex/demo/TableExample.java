@@ -33,6 +33,7 @@ import org.java2tex.core.LatexConstants;
 import org.java2tex.core.LatexDocument;
 import org.java2tex.core.LatexProcessor;
 import org.java2tex.custom.PdfTeXDocument;
+import org.java2tex.custom.PivotTable;
 import org.java2tex.custom.SimpleTable;
 
 /**
@@ -187,6 +188,30 @@ public class TableExample {
 		//
 		doc.add("Table ~\\ref{"+table.getId()+"} is an example of a cross tabulation");
 		
+		// The same kind of cross tabulation, built from flat records. The groups 
+		// are sorted and nested by the PivotTable; there are no spans to count.
+		PivotTable pivot = new PivotTable("A cross-table from records", 
+				new String[] {"Year", "Quarter", "Month"}, 
+				new String[] {"Region", "Country"}, 
+				PivotTable.Aggregate.SUM);
+		pivot.setId(doc.getNewTableId());
+		pivot.setLandscape(true);
+		
+		String[][] months = {{"Q1","January"}, {"Q1","February"}, {"Q1","March"}, {"Q2","April"}};
+		String[][] countries = {{"North America","U.S.A."}, {"North America","Canada"}, {"Europe","U.K."}, {"Europe","Germany"}};
+		
+		double amount = 100;
+		for (String year : new String[] {"2007", "2008"}) {
+			for (String[] month : months) {
+				for (String[] country : countries) {
+					pivot.addRecord(new String[] {year, month[0], month[1]}, country, amount);
+					amount += 10;
+				}
+			}
+		}
+		
+		doc.addTable(pivot);
+		
 		//DEBUG -- TODO: TEMPORARY CODE, REMOVE IT LATER
 		boolean debug=false;
 		if (debug) {